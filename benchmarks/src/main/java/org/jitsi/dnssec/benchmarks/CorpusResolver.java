@@ -0,0 +1,77 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SimpleResolver;
+
+/**
+ * A head resolver that answers all queries from a {@link RecordingCorpus}
+ * and counts them. Queries that were not recorded are answered with
+ * SERVFAIL. Asynchronous queries are run on a thread of the
+ * {@link SimpleResolver}.
+ */
+public class CorpusResolver extends SimpleResolver {
+    private final RecordingCorpus corpus;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong unanswered = new AtomicLong();
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param corpus The recordings that answer the queries.
+     * @throws UnknownHostException never, the server address is not used.
+     */
+    public CorpusResolver(RecordingCorpus corpus) throws UnknownHostException {
+        super("127.0.0.1");
+        this.corpus = corpus;
+    }
+
+    @Override
+    public Message send(Message query) throws IOException {
+        this.queries.incrementAndGet();
+        Message response = this.corpus.answer(query);
+        if (response == null) {
+            this.unanswered.incrementAndGet();
+            response = new Message(query.getHeader().getID());
+            response.getHeader().setFlag(Flags.QR);
+            response.getHeader().setRcode(Rcode.SERVFAIL);
+            response.addRecord(query.getQuestion(), Section.QUESTION);
+        }
+
+        return response;
+    }
+
+    /**
+     * Gets the number of queries that were sent to this resolver.
+     *
+     * @return The number of queries.
+     */
+    public long getQueries() {
+        return this.queries.get();
+    }
+
+    /**
+     * Gets the number of queries that were not recorded.
+     *
+     * @return The number of queries answered with SERVFAIL.
+     */
+    public long getUnanswered() {
+        return this.unanswered.get();
+    }
+}
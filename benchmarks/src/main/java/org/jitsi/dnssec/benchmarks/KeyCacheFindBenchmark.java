@@ -0,0 +1,103 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.validator.KeyCache;
+import org.jitsi.dnssec.validator.KeyEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+
+/**
+ * Compares {@link KeyCache#find(Name, int)} with the former lookup, which
+ * created a name and a string key for every label on the way to the root.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeyCacheFindBenchmark {
+    private static final int ZONES = 1000;
+
+    /** The number of labels between the searched name and its key. */
+    @Param({ "1", "3" })
+    public int depth;
+
+    private KeyCache keyCache;
+    private Map<String, KeyEntry> stringKeyCache;
+    private Name[] names;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Properties config = new Properties();
+        config.put(KeyCache.MAX_CACHE_SIZE_CONFIG, Integer.toString(ZONES * 2));
+        this.keyCache = new KeyCache();
+        this.keyCache.init(config);
+        this.stringKeyCache = Collections.synchronizedMap(new LinkedHashMap<String, KeyEntry>());
+
+        this.names = new Name[ZONES];
+        for (int i = 0; i < ZONES; i++) {
+            Name zone = Name.fromConstantString("zone" + i + ".example.");
+            KeyEntry ke = KeyEntry.newNullKeyEntry(zone, DClass.IN, 3600);
+            this.keyCache.store(ke);
+            this.stringKeyCache.put(key(zone, DClass.IN), ke);
+
+            StringBuilder sb = new StringBuilder();
+            for (int l = 0; l < this.depth; l++) {
+                sb.append("l").append(l).append('.');
+            }
+
+            this.names[i] = Name.fromConstantString(sb + zone.toString());
+        }
+    }
+
+    @Benchmark
+    public KeyEntry trie() {
+        return this.keyCache.find(this.nextName(), DClass.IN);
+    }
+
+    @Benchmark
+    public KeyEntry stringKeyWalk() {
+        Name n = this.nextName();
+        while (n.labels() > 0) {
+            KeyEntry entry = this.stringKeyCache.get(key(n, DClass.IN));
+            if (entry != null) {
+                return entry;
+            }
+
+            n = new Name(n, 1);
+        }
+
+        return null;
+    }
+
+    private Name nextName() {
+        this.next = (this.next + 1) % ZONES;
+        return this.names[this.next];
+    }
+
+    private static String key(Name n, int dclass) {
+        return "K" + dclass + "/" + n;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.validator.ValidatingResolver;
+import org.xbill.DNS.DNSSEC.DNSSECException;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Type;
+
+/**
+ * Drives {@link ValidatingResolver#send(Message)} from several threads with
+ * the client queries of the test recordings and reports the throughput, the
+ * latency percentiles and the upstream queries per validation.
+ * <p>
+ * A query is a cache hit with the configured probability and then sent to a
+ * resolver whose key cache is warm. Otherwise it is sent to a new resolver
+ * that has to build the whole chain of trust; creating that resolver is not
+ * part of the measured latency. The arguments are
+ * <code>name=value</code> pairs:
+ * <dl>
+ * <dt>recordings</dt>
+ * <dd>The directory with the recordings, default
+ * <code>src/test/resources/recordings</code>.</dd>
+ * <dt>threads</dt>
+ * <dd>The number of client threads, default the number of processors.</dd>
+ * <dt>warmup, duration</dt>
+ * <dd>The seconds to run before and while measuring, default 5 and 30.</dd>
+ * <dt>hitratio</dt>
+ * <dd>The share of queries that go to the warm resolver, default 0.9.</dd>
+ * <dt>mix</dt>
+ * <dd>The weights of the query types, e.g. <code>A:70,AAAA:20,MX:10</code>.
+ * By default all recorded queries are picked with the same probability.</dd>
+ * <dt>org.jitsi.dnssec.*</dt>
+ * <dd>Passed to {@link ValidatingResolver#init(Properties)} of both
+ * resolvers.</dd>
+ * </dl>
+ */
+public final class LoadGenerator {
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final int DEFAULT_WARMUP = 5;
+    private static final int DEFAULT_DURATION = 30;
+    private static final double DEFAULT_HIT_RATIO = 0.9;
+
+    private final List<Record[]> groups = new ArrayList<Record[]>();
+    private final int[] weights;
+    private final RecordingCorpus corpus;
+    private final Properties config;
+    private final CorpusResolver warmHead;
+    private final CorpusResolver coldHead;
+    private final ValidatingResolver warm;
+    private final double hitRatio;
+    private volatile long measureStart = Long.MAX_VALUE;
+    private volatile long end;
+
+    /**
+     * The results of one client thread.
+     */
+    private static final class Stats {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long hits;
+        private long secure;
+        private long servfail;
+        private long failed;
+
+        private void record(long nanos) {
+            if (this.count == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+            }
+
+            this.latencies[this.count++] = nanos;
+        }
+    }
+
+    private LoadGenerator(RecordingCorpus corpus, Map<String, String> options, Properties config)
+            throws IOException, DNSSECException {
+        this.hitRatio = Double.parseDouble(option(options, "hitratio", Double.toString(DEFAULT_HIT_RATIO)));
+        this.corpus = corpus;
+        this.config = config;
+        this.warmHead = new CorpusResolver(corpus);
+        this.warm = createResolver(this.warmHead, corpus, config);
+        this.coldHead = new CorpusResolver(corpus);
+
+        Map<Integer, List<Record>> byType = new HashMap<Integer, List<Record>>();
+        for (Record q : corpus.getQueries()) {
+            List<Record> l = byType.get(q.getType());
+            if (l == null) {
+                l = new ArrayList<Record>();
+                byType.put(q.getType(), l);
+            }
+
+            l.add(q);
+        }
+
+        String mix = options.get("mix");
+        if (mix == null) {
+            this.groups.add(corpus.getQueries().toArray(new Record[0]));
+            this.weights = new int[] { 1 };
+            return;
+        }
+
+        String[] parts = mix.split(",");
+        this.weights = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String[] tw = parts[i].split(":");
+            List<Record> l = byType.get(Type.value(tw[0].trim()));
+            if (l == null) {
+                throw new IllegalArgumentException("no recorded queries of type " + tw[0]);
+            }
+
+            this.groups.add(l.toArray(new Record[0]));
+            this.weights[i] = (i == 0 ? 0 : this.weights[i - 1]) + Integer.parseInt(tw[1].trim());
+        }
+    }
+
+    /**
+     * Runs the load generator.
+     *
+     * @param args The options as <code>name=value</code> pairs.
+     * @throws Exception when the recordings could not be loaded.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        Properties config = new Properties();
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+
+            if (arg.startsWith("org.jitsi.dnssec.")) {
+                config.put(arg.substring(0, i), arg.substring(i + 1));
+            }
+            else {
+                options.put(arg.substring(0, i), arg.substring(i + 1));
+            }
+        }
+
+        File recordings = new File(option(options, "recordings", "src/test/resources/recordings"));
+        int threads = Integer.parseInt(option(options, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        int warmup = Integer.parseInt(option(options, "warmup", Integer.toString(DEFAULT_WARMUP)));
+        int duration = Integer.parseInt(option(options, "duration", Integer.toString(DEFAULT_DURATION)));
+
+        System.out.println("loading and signing " + recordings);
+        RecordingCorpus corpus = new RecordingCorpus(recordings);
+        System.out.println(corpus.getQueries().size() + " client queries");
+        new LoadGenerator(corpus, options, config).run(threads, warmup, duration);
+    }
+
+    private void run(int threads, int warmup, int duration) throws InterruptedException {
+        final List<Stats> results = new ArrayList<Stats>();
+        final CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        this.end = start + TimeUnit.SECONDS.toNanos(warmup + duration);
+        for (int t = 0; t < threads; t++) {
+            final Stats stats = new Stats();
+            results.add(stats);
+            Thread thread = new Thread("load-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        LoadGenerator.this.drive(stats, new Random());
+                    }
+                    catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        long warmQueries = this.warmHead.getQueries();
+        long coldQueries = this.coldHead.getQueries();
+        this.measureStart = System.nanoTime();
+        done.await();
+        long elapsed = System.nanoTime() - this.measureStart;
+        warmQueries = this.warmHead.getQueries() - warmQueries;
+        coldQueries = this.coldHead.getQueries() - coldQueries;
+        this.report(results, threads, elapsed, warmQueries, coldQueries);
+    }
+
+    private void drive(Stats stats, Random random) throws IOException, DNSSECException {
+        ValidatingResolver cold = createResolver(this.coldHead, this.corpus, this.config);
+        long start;
+        while ((start = System.nanoTime()) < this.end) {
+            Record question = this.pick(random);
+            boolean hit = random.nextDouble() < this.hitRatio;
+            Message response;
+            try {
+                response = (hit ? this.warm : cold).send(Message.newQuery(question));
+            }
+            catch (IOException e) {
+                response = null;
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+                response = null;
+            }
+
+            long latency = System.nanoTime() - start;
+            if (!hit) {
+                cold = createResolver(this.coldHead, this.corpus, this.config);
+            }
+
+            if (start < this.measureStart) {
+                continue;
+            }
+
+            stats.record(latency);
+            stats.hits += hit ? 1 : 0;
+            if (response == null) {
+                stats.failed++;
+            }
+            else if (response.getRcode() == Rcode.SERVFAIL) {
+                stats.servfail++;
+            }
+            else if (response.getHeader().getFlag(Flags.AD)) {
+                stats.secure++;
+            }
+        }
+    }
+
+    private Record pick(Random random) {
+        int total = this.weights[this.weights.length - 1];
+        int w = random.nextInt(total);
+        int g = 0;
+        while (w >= this.weights[g]) {
+            g++;
+        }
+
+        Record[] group = this.groups.get(g);
+        return group[random.nextInt(group.length)];
+    }
+
+    private void report(List<Stats> results, int threads, long elapsed, long warmQueries, long coldQueries) {
+        Stats all = new Stats();
+        long coldCount = 0;
+        for (Stats s : results) {
+            for (int i = 0; i < s.count; i++) {
+                all.record(s.latencies[i]);
+            }
+
+            all.hits += s.hits;
+            all.secure += s.secure;
+            all.servfail += s.servfail;
+            all.failed += s.failed;
+            coldCount += s.count - s.hits;
+        }
+
+        long[] latencies = Arrays.copyOf(all.latencies, all.count);
+        Arrays.sort(latencies);
+        double seconds = elapsed / (double)TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("threads: %d, hit ratio: %.2f%n", threads, this.hitRatio);
+        System.out.printf("queries: %d in %.1f s, %.0f queries/s%n", all.count, seconds, all.count / seconds);
+        StringBuilder sb = new StringBuilder("latency (us):");
+        for (double p : PERCENTILES) {
+            sb.append(String.format(" p%s=%d", p == Math.rint(p) ? Integer.toString((int)p) : Double.toString(p),
+                    percentile(latencies, p)));
+        }
+
+        if (latencies.length > 0) {
+            sb.append(" max=").append(TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length - 1]));
+        }
+
+        System.out.println(sb);
+        System.out.printf("upstream queries per validation: %.2f (warm %.2f, cold %.2f)%n",
+                ratio(warmQueries + coldQueries, all.count), ratio(warmQueries, all.hits),
+                ratio(coldQueries, coldCount));
+        System.out.printf("responses: %d secure, %d servfail, %d failed%n", all.secure, all.servfail, all.failed);
+        System.out.printf("unrecorded upstream queries: %d%n",
+                this.warmHead.getUnanswered() + this.coldHead.getUnanswered());
+    }
+
+    private static ValidatingResolver createResolver(CorpusResolver head, RecordingCorpus corpus, Properties config)
+            throws IOException, DNSSECException {
+        ValidatingResolver resolver = new ValidatingResolver(head);
+        resolver.init(config);
+        resolver.loadTrustAnchors(corpus.getTrustAnchor());
+        return resolver;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int i = (int)Math.ceil(p / 100 * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, i)]);
+    }
+
+    private static double ratio(long a, long b) {
+        return b == 0 ? 0 : a / (double)b;
+    }
+
+    private static String option(Map<String, String> options, String name, String def) {
+        String value = options.get(name);
+        return value == null ? def : value;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.MessageReader;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSKEYRecord;
+import org.xbill.DNS.DNSSEC;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.DNSSEC.DNSSECException;
+import org.xbill.DNS.DSRecord;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * The responses of the test recordings, with all DNSSEC keys replaced and all
+ * signatures created again, so that they validate at the current time. The
+ * recorded signatures expired long ago and the tests only validate them by
+ * mocking the clock, which a load test cannot do.
+ * <p>
+ * Every zone that signs a record, publishes a DNSKEY set or is delegated to
+ * with a DS set gets a new key. The trust anchor is the new root key.
+ * Unsigned responses are kept unsigned, so insecure delegations stay
+ * insecure. Responses that were recorded as bogus become valid.
+ */
+public final class RecordingCorpus {
+    private static final int RSA_KEY_SIZE = 2048;
+    private static final int KEY_FLAGS = DNSKEYRecord.Flags.ZONE_KEY | DNSKEYRecord.Flags.SEP_KEY;
+
+    private final Map<String, byte[]> responses = new HashMap<String, byte[]>();
+    private final Map<String, Record> queries = new LinkedHashMap<String, Record>();
+    private final Map<Name, DNSKEYRecord> keys = new HashMap<Name, DNSKEYRecord>();
+    private final Map<Name, KeyPair> keyPairs = new HashMap<Name, KeyPair>();
+    private final KeyPairGenerator generator;
+    private final Date inception;
+    private final Date expiration;
+
+    /**
+     * Loads and signs all recordings in a directory and its subdirectories.
+     *
+     * @param directory The directory with the recordings, usually
+     *            <code>src/test/resources/recordings</code>.
+     * @throws IOException when a recording could not be read.
+     * @throws GeneralSecurityException when a key could not be generated.
+     * @throws DNSSECException when a response could not be signed.
+     */
+    public RecordingCorpus(File directory) throws IOException, GeneralSecurityException, DNSSECException {
+        long now = System.currentTimeMillis();
+        this.inception = new Date(now - TimeUnit.HOURS.toMillis(1));
+        this.expiration = new Date(now + TimeUnit.DAYS.toMillis(1));
+        this.generator = KeyPairGenerator.getInstance("RSA");
+        this.generator.initialize(RSA_KEY_SIZE);
+
+        List<Message> messages = new ArrayList<Message>();
+        this.read(directory, messages);
+        if (messages.isEmpty()) {
+            throw new IOException("no recordings found in " + directory);
+        }
+
+        for (Message m : messages) {
+            String key = key(m.getQuestion());
+            if (!this.responses.containsKey(key)) {
+                this.responses.put(key, this.sign(m).toWire());
+            }
+        }
+    }
+
+    /**
+     * Gets the first query of every recording, which is the query the test
+     * sent to the validating resolver.
+     *
+     * @return The questions of the client queries.
+     */
+    public List<Record> getQueries() {
+        return Collections.unmodifiableList(new ArrayList<Record>(this.queries.values()));
+    }
+
+    /**
+     * Gets the new root key as a trust anchor file.
+     *
+     * @return The trust anchor file contents.
+     * @throws DNSSECException when the root key could not be created.
+     */
+    public InputStream getTrustAnchor() throws DNSSECException {
+        return new ByteArrayInputStream(this.getKey(Name.root).toString().getBytes());
+    }
+
+    /**
+     * Answers a query from the recordings.
+     *
+     * @param query The query.
+     * @return The signed response with the ID of the query, or
+     *         <code>null</code> if the query was not recorded.
+     * @throws IOException never, the response was created by this class.
+     */
+    public Message answer(Message query) throws IOException {
+        byte[] wire = this.responses.get(key(query.getQuestion()));
+        if (wire == null) {
+            return null;
+        }
+
+        Message response = new Message(wire);
+        response.getHeader().setID(query.getHeader().getID());
+        return response;
+    }
+
+    private void read(File directory, List<Message> messages) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException(directory + " is not a directory");
+        }
+
+        for (File f : files) {
+            if (f.isDirectory()) {
+                this.read(f, messages);
+                continue;
+            }
+
+            MessageReader reader = new MessageReader();
+            BufferedReader r = new BufferedReader(new FileReader(f));
+            try {
+                Message m;
+                boolean first = true;
+                while ((m = reader.readMessage(r)) != null) {
+                    if (first && !this.queries.containsKey(key(m.getQuestion()))) {
+                        this.queries.put(key(m.getQuestion()), m.getQuestion());
+                    }
+
+                    first = false;
+                    messages.add(m);
+                }
+            }
+            finally {
+                r.close();
+            }
+        }
+    }
+
+    private Message sign(Message m) throws DNSSECException {
+        Message signed = new Message(m.getHeader().getID());
+        signed.getHeader().setFlag(Flags.QR);
+        signed.getHeader().setFlag(Flags.RD);
+        signed.getHeader().setFlag(Flags.RA);
+        signed.getHeader().setRcode(m.getHeader().getRcode());
+        signed.addRecord(m.getQuestion(), Section.QUESTION);
+        for (int section = Section.ANSWER; section <= Section.ADDITIONAL; section++) {
+            for (RRset rrset : m.getSectionRRsets(section)) {
+                for (Record r : this.sign(rrset)) {
+                    signed.addRecord(r, section);
+                }
+            }
+        }
+
+        return signed;
+    }
+
+    private List<Record> sign(RRset rrset) throws DNSSECException {
+        Name name = rrset.getName();
+        RRset result = new RRset();
+        if (rrset.getType() == Type.DNSKEY) {
+            result.addRR(this.getKey(name));
+        }
+        else if (rrset.getType() == Type.DS) {
+            result.addRR(new DSRecord(name, rrset.getDClass(), rrset.getTTL(), DSRecord.SHA256_DIGEST_ID,
+                    this.getKey(name)));
+        }
+        else {
+            for (Iterator<?> i = rrset.rrs(); i.hasNext();) {
+                result.addRR((Record)i.next());
+            }
+        }
+
+        Iterator<?> sigs = rrset.sigs();
+        Name signer = null;
+        if (sigs.hasNext()) {
+            signer = ((RRSIGRecord)sigs.next()).getSigner();
+        }
+        else if (rrset.getType() == Type.DNSKEY) {
+            signer = name;
+        }
+
+        List<Record> records = new ArrayList<Record>();
+        for (Iterator<?> i = result.rrs(); i.hasNext();) {
+            records.add((Record)i.next());
+        }
+
+        if (signer != null) {
+            records.add(DNSSEC.sign(result, this.getKey(signer), this.keyPairs.get(signer).getPrivate(),
+                    this.inception, this.expiration));
+        }
+
+        return records;
+    }
+
+    private DNSKEYRecord getKey(Name zone) throws DNSSECException {
+        DNSKEYRecord key = this.keys.get(zone);
+        if (key == null) {
+            KeyPair kp = this.generator.generateKeyPair();
+            key = new DNSKEYRecord(zone, DClass.IN, TimeUnit.HOURS.toSeconds(1), KEY_FLAGS,
+                    DNSKEYRecord.Protocol.DNSSEC, Algorithm.RSASHA256, kp.getPublic());
+            this.keys.put(zone, key);
+            this.keyPairs.put(zone, kp);
+        }
+
+        return key;
+    }
+
+    private static String key(Record question) {
+        return question.getName() + "/" + Type.string(question.getType()) + "/" + DClass.string(question.getDClass());
+    }
+}
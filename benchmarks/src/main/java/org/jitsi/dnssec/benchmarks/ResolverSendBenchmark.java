@@ -0,0 +1,72 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.validator.ValidatingResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Type;
+
+/**
+ * Measures {@link ValidatingResolver#send(Message)} of a positive, a no data
+ * and a name error response. The head resolver answers from a signed zone
+ * that is the trust anchor, so the key cache is warm after the first query
+ * and every iteration validates the response itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResolverSendBenchmark {
+    /** The query to send, as name/type. */
+    @Param({ "www.example./A", "www.example./AAAA", "nx.example./A" })
+    public String query;
+
+    /** The NSEC3 hash iterations of the zone. */
+    @Param({ "10" })
+    public int iterations;
+
+    private ValidatingResolver resolver;
+    private Record question;
+
+    @Setup
+    public void setup() throws Exception {
+        SignedZone zone = new SignedZone(Name.fromConstantString("example."), Algorithm.RSASHA256, this.iterations,
+                "www", "mail", "ftp");
+        this.resolver = new ValidatingResolver(new ZoneResolver(zone));
+        this.resolver.loadTrustAnchors(zone.getTrustAnchor());
+
+        String[] q = this.query.split("/");
+        this.question = Record.newRecord(Name.fromString(q[0]), Type.value(q[1]), DClass.IN);
+        if (!this.send().getHeader().getFlag(Flags.AD)) {
+            throw new IllegalStateException("response to " + this.query + " is not secure");
+        }
+    }
+
+    @Benchmark
+    public Message send() throws IOException {
+        return this.resolver.send(Message.newQuery(this.question));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.SMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Type;
+
+/**
+ * Measures the conversion of a response from the head resolver into an
+ * {@link SMessage} and back, which is done for every validated response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SMessageBenchmark {
+    /** The query whose response is converted, as name/type. */
+    @Param({ "www.example./A", "nx.example./A" })
+    public String query;
+
+    private Message response;
+
+    @Setup
+    public void setup() throws Exception {
+        SignedZone zone = new SignedZone(Name.fromConstantString("example."), Algorithm.RSASHA256, 0, "www", "mail");
+        String[] q = this.query.split("/");
+        Message request = Message.newQuery(Record.newRecord(Name.fromString(q[0]), Type.value(q[1]), DClass.IN));
+        this.response = new Message(zone.answer(request).toWire());
+    }
+
+    @Benchmark
+    public SMessage create() {
+        return new SMessage(this.response);
+    }
+
+    @Benchmark
+    public Message createAndConvert() {
+        return new SMessage(this.response).getMessage();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.validator.ByteArrayComparator;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSKEYRecord;
+import org.xbill.DNS.DNSSEC;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.DNSSEC.DNSSECException;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.NSEC3Record;
+import org.xbill.DNS.NSRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.utils.base32;
+
+/**
+ * A small zone that is signed with a freshly generated key and denies the
+ * existence of names with NSEC3. It answers queries like an authoritative
+ * server, so that the benchmarks get valid signatures at any time, which the
+ * recordings of the tests cannot provide as their signatures have expired.
+ */
+public final class SignedZone {
+    private static final long TTL = 3600;
+    private static final int RSA_KEY_SIZE = 2048;
+    private static final byte[] SALT = { (byte)0xab, (byte)0xcd };
+    private static final base32 B32 = new base32(base32.Alphabet.BASE32HEX, false, true);
+
+    private final Name origin;
+    private final DNSKEYRecord key;
+    private final KeyPair keyPair;
+    private final Date inception;
+    private final Date expiration;
+    private final Map<Name, RRset> hosts = new HashMap<Name, RRset>();
+    private final RRset keySet;
+    private final RRset soa;
+    private final RRset ns;
+    private final Map<byte[], RRset> nsec3s = new TreeMap<byte[], RRset>(new ByteArrayComparator());
+    private final Map<Name, RRset> matchingNSEC3s = new HashMap<Name, RRset>();
+
+    /**
+     * Creates and signs a zone.
+     *
+     * @param origin The name of the zone.
+     * @param algorithm The DNSSEC algorithm of the key, e.g.
+     *            {@link Algorithm#RSASHA256}.
+     * @param iterations The NSEC3 hash iterations.
+     * @param hosts The names of the hosts in the zone, relative to the origin,
+     *            which all have an A record.
+     * @throws GeneralSecurityException when the key could not be generated.
+     * @throws DNSSECException when the zone could not be signed.
+     * @throws IOException when a host name is invalid.
+     */
+    public SignedZone(Name origin, int algorithm, int iterations, String... hosts)
+            throws GeneralSecurityException, DNSSECException, IOException {
+        this.origin = origin;
+        long now = System.currentTimeMillis();
+        this.inception = new Date(now - TimeUnit.HOURS.toMillis(1));
+        this.expiration = new Date(now + TimeUnit.DAYS.toMillis(1));
+        this.keyPair = generateKeyPair(algorithm);
+        this.key = new DNSKEYRecord(origin, DClass.IN, TTL, DNSKEYRecord.Flags.ZONE_KEY | DNSKEYRecord.Flags.SEP_KEY,
+                DNSKEYRecord.Protocol.DNSSEC, algorithm, this.keyPair.getPublic());
+        this.keySet = this.sign(this.key);
+        Name nsName = new Name("ns", origin);
+        this.soa = this.sign(new SOARecord(origin, DClass.IN, TTL, nsName, new Name("hostmaster", origin), 1, TTL, TTL,
+                TTL, TTL));
+        this.ns = this.sign(new NSRecord(origin, DClass.IN, TTL, nsName));
+        for (String host : hosts) {
+            Name name = new Name(host, origin);
+            this.hosts.put(name, this.sign(new ARecord(name, DClass.IN, TTL, InetAddress.getLoopbackAddress())));
+        }
+
+        this.createNSEC3Chain(iterations);
+    }
+
+    /**
+     * Gets the name of the zone.
+     *
+     * @return The origin.
+     */
+    public Name getOrigin() {
+        return this.origin;
+    }
+
+    /**
+     * Gets the signed DNSKEY set of the zone.
+     *
+     * @return The DNSKEY RRset with its signature.
+     */
+    public RRset getKeySet() {
+        return this.keySet;
+    }
+
+    /**
+     * Gets the signed NSEC3 sets of the zone.
+     *
+     * @return The NSEC3 RRsets in hash order.
+     */
+    public List<RRset> getNSEC3s() {
+        return new ArrayList<RRset>(this.nsec3s.values());
+    }
+
+    /**
+     * Gets the key of the zone as a trust anchor file.
+     *
+     * @return The trust anchor file contents.
+     */
+    public InputStream getTrustAnchor() {
+        return new ByteArrayInputStream(this.key.toString().getBytes());
+    }
+
+    /**
+     * Creates an RRset from the records and adds a signature with the key of
+     * the zone.
+     *
+     * @param records The records of the RRset.
+     * @return The signed RRset.
+     * @throws DNSSECException when the RRset could not be signed.
+     */
+    public RRset sign(Record... records) throws DNSSECException {
+        RRset rrset = new RRset();
+        for (Record r : records) {
+            rrset.addRR(r);
+        }
+
+        rrset.addRR(DNSSEC.sign(rrset, this.key, this.keyPair.getPrivate(), this.inception, this.expiration));
+        return rrset;
+    }
+
+    /**
+     * Answers a query for a name in the zone.
+     *
+     * @param query The query.
+     * @return The authoritative response.
+     */
+    public Message answer(Message query) {
+        Record question = query.getQuestion();
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        response.addRecord(question, Section.QUESTION);
+
+        Name name = question.getName();
+        int type = question.getType();
+        if (name.equals(this.origin) && type == Type.DNSKEY) {
+            addRRset(response, this.keySet, Section.ANSWER);
+        }
+        else if (this.hosts.containsKey(name) && type == Type.A) {
+            addRRset(response, this.hosts.get(name), Section.ANSWER);
+            addRRset(response, this.ns, Section.AUTHORITY);
+        }
+        else {
+            addRRset(response, this.soa, Section.AUTHORITY);
+            if (this.matchingNSEC3s.containsKey(name)) {
+                addRRset(response, this.matchingNSEC3s.get(name), Section.AUTHORITY);
+            }
+            else {
+                response.getHeader().setRcode(Rcode.NXDOMAIN);
+                for (RRset nsec3 : this.nsec3s.values()) {
+                    addRRset(response, nsec3, Section.AUTHORITY);
+                }
+            }
+        }
+
+        return response;
+    }
+
+    private void createNSEC3Chain(int iterations) throws GeneralSecurityException, DNSSECException, IOException {
+        Map<byte[], Name> owners = new TreeMap<byte[], Name>(new ByteArrayComparator());
+        NSEC3Record hasher = new NSEC3Record(this.origin, DClass.IN, TTL, NSEC3Record.SHA1_DIGEST_ID, 0, iterations,
+                SALT, new byte[1], new int[0]);
+        owners.put(hasher.hashName(this.origin), this.origin);
+        for (Name host : this.hosts.keySet()) {
+            owners.put(hasher.hashName(host), host);
+        }
+
+        List<byte[]> hashes = new ArrayList<byte[]>(owners.keySet());
+        for (int i = 0; i < hashes.size(); i++) {
+            byte[] hash = hashes.get(i);
+            byte[] next = hashes.get((i + 1) % hashes.size());
+            int[] types = owners.get(hash).equals(this.origin)
+                ? new int[] { Type.NS, Type.SOA, Type.RRSIG, Type.DNSKEY, Type.NSEC3PARAM }
+                : new int[] { Type.A, Type.RRSIG };
+            Name owner = new Name(B32.toString(hash), this.origin);
+            RRset nsec3 = this.sign(new NSEC3Record(owner, DClass.IN, TTL, NSEC3Record.SHA1_DIGEST_ID, 0, iterations,
+                    SALT, next, types));
+            this.nsec3s.put(hash, nsec3);
+            this.matchingNSEC3s.put(owners.get(hash), nsec3);
+        }
+    }
+
+    private static void addRRset(Message m, RRset rrset, int section) {
+        for (Iterator<?> i = rrset.rrs(); i.hasNext();) {
+            m.addRecord((Record)i.next(), section);
+        }
+
+        for (Iterator<?> i = rrset.sigs(); i.hasNext();) {
+            m.addRecord((Record)i.next(), section);
+        }
+    }
+
+    private static KeyPair generateKeyPair(int algorithm) throws GeneralSecurityException {
+        KeyPairGenerator generator;
+        switch (algorithm) {
+            case Algorithm.ECDSAP256SHA256:
+                generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+                break;
+            case Algorithm.ECDSAP384SHA384:
+                generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp384r1"));
+                break;
+            default:
+                generator = KeyPairGenerator.getInstance("RSA");
+                generator.initialize(RSA_KEY_SIZE);
+                break;
+        }
+
+        return generator.generateKeyPair();
+    }
+}
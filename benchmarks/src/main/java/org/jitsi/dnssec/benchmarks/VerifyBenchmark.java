@@ -0,0 +1,70 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.SecurityStatus;
+import org.jitsi.dnssec.validator.DnsSecVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRset;
+
+/**
+ * Measures {@link DnsSecVerifier#verify(RRset, RRset)} of a signed RRset per
+ * signature algorithm, with and without the cache of successful
+ * verifications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VerifyBenchmark {
+    /** The mnemonic of the signature algorithm. */
+    @Param({ "RSASHA1", "RSASHA256", "RSASHA512", "ECDSAP256SHA256", "ECDSAP384SHA384" })
+    public String algorithm;
+
+    /** The maximum size of the signature cache, zero disables it. */
+    @Param({ "0", "1000" })
+    public String sigCacheSize;
+
+    private DnsSecVerifier verifier;
+    private RRset rrset;
+    private RRset keySet;
+
+    @Setup
+    public void setup() throws Exception {
+        SignedZone zone = new SignedZone(Name.fromConstantString("example."), Algorithm.value(this.algorithm), 0);
+        this.keySet = zone.getKeySet();
+        this.rrset = zone.getNSEC3s().get(0);
+
+        Properties config = new Properties();
+        config.put(DnsSecVerifier.SIG_CACHE_SIZE_CONFIG, this.sigCacheSize);
+        this.verifier = new DnsSecVerifier();
+        this.verifier.init(config);
+        if (this.verifier.verify(this.rrset, this.keySet) != SecurityStatus.SECURE) {
+            throw new IllegalStateException("signature does not verify");
+        }
+    }
+
+    @Benchmark
+    public SecurityStatus verify() {
+        return this.verifier.verify(this.rrset, this.keySet);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.benchmarks;
+
+import java.net.UnknownHostException;
+
+import org.xbill.DNS.Message;
+import org.xbill.DNS.SimpleResolver;
+
+/**
+ * A head resolver that answers all queries from a {@link SignedZone} instead
+ * of the network, so that the benchmarks measure the validation only.
+ * Asynchronous queries are run on a thread of the {@link SimpleResolver}.
+ */
+public class ZoneResolver extends SimpleResolver {
+    private final SignedZone zone;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param zone The zone that answers the queries.
+     * @throws UnknownHostException never, the server address is not used.
+     */
+    public ZoneResolver(SignedZone zone) throws UnknownHostException {
+        super("127.0.0.1");
+        this.zone = zone;
+    }
+
+    @Override
+    public Message send(Message query) {
+        return this.zone.answer(query);
+    }
+}
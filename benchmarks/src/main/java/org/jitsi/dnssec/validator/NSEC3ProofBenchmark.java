@@ -0,0 +1,80 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.SRRset;
+import org.jitsi.dnssec.SecurityStatus;
+import org.jitsi.dnssec.benchmarks.SignedZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Type;
+
+/**
+ * Measures the NSEC3 name error and no data proofs at different hash
+ * iteration counts. The benchmark lives in the validator package as
+ * {@link NSEC3ValUtils} cannot be created from outside.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NSEC3ProofBenchmark {
+    private static final String[] HOSTS = { "www", "mail", "ftp", "ns", "smtp", "imap" };
+
+    /** The NSEC3 hash iterations of the zone. */
+    @Param({ "0", "10", "100", "500" })
+    public int iterations;
+
+    private NSEC3ValUtils nsec3ValUtils;
+    private List<SRRset> nsec3s;
+    private Name zone;
+    private Name nxName;
+    private Name nodataName;
+
+    @Setup
+    public void setup() throws Exception {
+        this.zone = Name.fromConstantString("example.");
+        this.nxName = Name.fromConstantString("x.y.nx.example.");
+        this.nodataName = Name.fromConstantString("www.example.");
+        SignedZone signedZone = new SignedZone(this.zone, Algorithm.RSASHA256, this.iterations, HOSTS);
+        this.nsec3s = new ArrayList<SRRset>();
+        for (RRset nsec3 : signedZone.getNSEC3s()) {
+            this.nsec3s.add(new SRRset(nsec3));
+        }
+
+        this.nsec3ValUtils = new NSEC3ValUtils();
+        if (this.proveNameError() != SecurityStatus.SECURE || this.proveNodata() != SecurityStatus.SECURE) {
+            throw new IllegalStateException("NSEC3 proofs failed");
+        }
+    }
+
+    @Benchmark
+    public SecurityStatus proveNameError() {
+        return this.nsec3ValUtils.proveNameError(this.nsec3s, this.nxName, this.zone, null);
+    }
+
+    @Benchmark
+    public SecurityStatus proveNodata() {
+        return this.nsec3ValUtils.proveNodata(this.nsec3s, this.nodataName, Type.AAAA, this.zone, null);
+    }
+}
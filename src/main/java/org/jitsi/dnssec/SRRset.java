@@ -40,8 +40,11 @@
 
 package org.jitsi.dnssec;
 
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Map;
 
+import org.xbill.DNS.DNSSEC;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.RRSIGRecord;
 import org.xbill.DNS.RRset;
@@ -56,6 +59,7 @@ import org.xbill.DNS.Record;
  */
 public class SRRset extends RRset {
     private SecurityStatus securityStatus;
+    private Map<RRSIGRecord, byte[]> signedData;
 
     /** Create a new, blank SRRset. */
     public SRRset() {
@@ -73,11 +77,11 @@ public class SRRset extends RRset {
         this();
 
         for (Iterator<?> i = r.rrs(); i.hasNext();) {
-            addRR((Record)i.next());
+            this.addRR((Record)i.next());
         }
 
         for (Iterator<?> i = r.sigs(); i.hasNext();) {
-            addRR((Record)i.next());
+            this.addRR((Record)i.next());
         }
     }
 
@@ -103,6 +107,48 @@ public class SRRset extends RRset {
         this.securityStatus = status;
     }
 
+    /**
+     * Gets the data that is signed by a signature of this set, that is the
+     * RRSIG RDATA without the signature, followed by the records of this set
+     * in canonical form and order. The data is computed once per signature and
+     * kept until the set is modified, as it is needed for every key that might
+     * have created the signature.
+     * 
+     * @param sig The signature of this set.
+     * @return The signed data. The array is shared and must not be modified.
+     */
+    public synchronized byte[] getSignedData(RRSIGRecord sig) {
+        if (this.signedData == null) {
+            this.signedData = new IdentityHashMap<RRSIGRecord, byte[]>();
+        }
+
+        byte[] data = this.signedData.get(sig);
+        if (data == null) {
+            data = DNSSEC.digestRRset(sig, this);
+            this.signedData.put(sig, data);
+        }
+
+        return data;
+    }
+
+    @Override
+    public synchronized void addRR(Record r) {
+        super.addRR(r);
+        this.signedData = null;
+    }
+
+    @Override
+    public synchronized void deleteRR(Record r) {
+        super.deleteRR(r);
+        this.signedData = null;
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        this.signedData = null;
+    }
+
     /**
      * @return The "signer" name for this SRRset, if signed, or null if not.
      */
@@ -0,0 +1,313 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jitsi.dnssec.SMessage;
+import org.jitsi.dnssec.SRRset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * State machine for a query sent with
+ * {@link ValidatingResolver#sendAsync(Message, ResolverListener)}. The
+ * FINDKEY phase is run for the signer of each RRset in the response, one
+ * DS or DNSKEY query at a time, and the actual validation takes place once
+ * all keys are known. No query is ever sent synchronously, so the thread of
+ * the head resolver that delivers a response is never blocked.
+ */
+final class AsyncValidation implements ResolverListener {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncValidation.class);
+
+    private final ValidatingResolver resolver;
+    private final Object id;
+    private final Message query;
+    private final ResolverListener listener;
+    private final ValidationState vstate;
+    private SMessage response;
+    private Iterator<SRRset> pendingRRsets;
+
+    /**
+     * Creates a new instance of this class.
+     * 
+     * @param resolver The resolver that validates the response.
+     * @param id The identifier that is passed to the listener.
+     * @param query The query to send.
+     * @param listener The listener that receives the validated response.
+     */
+    AsyncValidation(ValidatingResolver resolver, Object id, Message query, ResolverListener listener) {
+        this.resolver = resolver;
+        this.id = id;
+        this.query = query;
+        this.listener = listener;
+        this.vstate = new ValidationState(query, resolver.startTrace(query), resolver.newBudget());
+    }
+
+    /**
+     * Sends the query to the head resolver.
+     */
+    void start() {
+        Record q = this.query.getQuestion();
+        logger.trace("sending async request: <" + q.getName() + "/" + Type.string(q.getType()) + "/" + DClass.string(q.getDClass()) + ">");
+        this.resolver.headResolver.sendAsync(this.resolver.prepareRequest(this.query),
+                new RoundTripListener(this, this.resolver.getMetrics(), this.vstate.trace, this.query));
+    }
+
+    /**
+     * Receives the response to the original query.
+     * 
+     * @param unused The identifier of the head resolver.
+     * @param m The response from the head resolver.
+     */
+    public void receiveMessage(Object unused, Message m) {
+        this.processResponse(new SMessage(m));
+    }
+
+    /**
+     * Receives the error for the original query.
+     * 
+     * @param unused The identifier of the head resolver.
+     * @param e The error from the head resolver.
+     */
+    public void handleException(Object unused, Exception e) {
+        logger.error("failed to send query", e);
+        this.processResponse(ValidatingResolver.errorMessage(this.query, Rcode.SERVFAIL));
+    }
+
+    private void processResponse(SMessage m) {
+        this.response = m;
+        Message unvalidated = null;
+        try {
+            if (!this.resolver.isValidationRequired(this.query, m)) {
+                unvalidated = m.getMessage();
+                this.resolver.finishTrace(this.vstate.trace, this.query, unvalidated);
+            }
+            else {
+                this.pendingRRsets = this.collectRRsets(m).iterator();
+            }
+        }
+        catch (RuntimeException e) {
+            this.listener.handleException(this.id, e);
+            return;
+        }
+
+        if (unvalidated != null) {
+            this.listener.receiveMessage(this.id, unvalidated);
+            return;
+        }
+
+        this.findNextKey();
+    }
+
+    /**
+     * Collects the RRsets for which processValidate searches a key, so that
+     * all keys are known before the validation starts. Referrals are not
+     * validated at all, and unsigned NS RRsets are removed the same way as
+     * during the validation. Synthesized CNAMEs don't need a key.
+     */
+    private List<SRRset> collectRRsets(SMessage m) {
+        List<SRRset> rrsets = new ArrayList<SRRset>();
+        if (ValUtils.classifyResponse(this.query, m) == ResponseClassification.REFERRAL) {
+            return rrsets;
+        }
+
+        this.resolver.removeSpuriousAuthority(m);
+        boolean hasDname = m.getSectionRRsets(Section.ANSWER, Type.DNAME).length > 0;
+        for (int section : new int[] { Section.ANSWER, Section.AUTHORITY }) {
+            for (SRRset set : m.getSectionRRsets(section)) {
+                if (set.getSignerName() == null && hasDname && set.getType() == Type.CNAME) {
+                    continue;
+                }
+
+                rrsets.add(set);
+            }
+        }
+
+        return rrsets;
+    }
+
+    private void findNextKey() {
+        String pendingKey = null;
+        FindKeyState pending = null;
+        boolean staleLookup = false;
+        Message m = null;
+        try {
+            while (pending == null && this.pendingRRsets.hasNext()) {
+                SRRset set = this.pendingRRsets.next();
+                Name signerName = set.getSignerName();
+                if (signerName == null) {
+                    signerName = set.getName();
+                }
+
+                String key = ValidationState.key(signerName, set.getDClass());
+                if (this.vstate.keyEntries.containsKey(key)) {
+                    continue;
+                }
+
+                FindKeyState state = this.resolver.keyFinder.prepareFindKey(set, this.vstate);
+                if (state.request != null) {
+                    pendingKey = key;
+                    pending = state;
+                    staleLookup = this.resolver.keyFinder.isStaleLookup(state);
+                }
+                else {
+                    this.vstate.keyEntries.put(key, state.keyEntry);
+                }
+            }
+
+            if (pending == null) {
+                // a key that is still missing is bad instead of searched
+                this.vstate.keysCollected = true;
+                SMessage validated = this.resolver.processValidate(this.query, this.response, this.vstate);
+                m = this.resolver.createResponseMessage(validated);
+                this.resolver.responseCache.store(this.query, validated, m);
+                this.resolver.finishTrace(this.vstate.trace, this.query, m);
+            }
+        }
+        catch (RuntimeException e) {
+            this.listener.handleException(this.id, e);
+            return;
+        }
+
+        if (staleLookup) {
+            // the same timeout as in the sync path, then the stale entry
+            final String key = pendingKey;
+            final FindKeyState state = pending;
+            this.resolver.keyFinder.lookupStale(state, new Runnable() {
+                public void run() {
+                    AsyncValidation.this.vstate.keyEntries.put(key, state.keyEntry);
+                    AsyncValidation.this.findNextKey();
+                }
+            });
+        }
+        else if (pending != null) {
+            this.sendFindKeyRequest(pendingKey, pending);
+        }
+        else {
+            this.listener.receiveMessage(this.id, m);
+        }
+    }
+
+    private void sendFindKeyRequest(final String key, final FindKeyState state) {
+        final Message request = state.request;
+        final InFlightKeyRequests.Flight flight = this.resolver.keyRequests.join(request);
+        if (flight != null) {
+            // don't wait forever for a leader whose query got lost
+            final ScheduledFuture<?> deadline = this.resolver.getScheduler().schedule(new Runnable() {
+                public void run() {
+                    AsyncValidation.this.resolver.keyRequests.expire(request, flight);
+                }
+            }, this.resolver.getTimeout(), TimeUnit.MILLISECONDS);
+            flight.onComplete(new Runnable() {
+                public void run() {
+                    deadline.cancel(false);
+                    if (flight.isFailed()) {
+                        AsyncValidation.this.sendFindKeyRequest(key, state);
+                    }
+                    else {
+                        AsyncValidation.this.processFindKeyResult(key, state, request, flight.getKeyEntry());
+                    }
+                }
+            });
+            return;
+        }
+
+        final AtomicBoolean answered = new AtomicBoolean();
+        ResolverListener l = new ResolverListener() {
+            public void receiveMessage(Object unused, Message m) {
+                this.processFindKeyResponse(new SMessage(m));
+            }
+
+            public void handleException(Object unused, Exception e) {
+                logger.error("failed to send query", e);
+                this.processFindKeyResponse(ValidatingResolver.errorMessage(request, Rcode.SERVFAIL));
+            }
+
+            private void processFindKeyResponse(SMessage m) {
+                if (answered.getAndSet(true)) {
+                    // e.g. an exception reported after a response whose
+                    // processing threw on the head resolver's thread
+                    return;
+                }
+
+                KeyEntry ke;
+                try {
+                    ke = AsyncValidation.this.resolver.keyFinder.processFindKeyResponse(request, m, state);
+                }
+                catch (RuntimeException e) {
+                    AsyncValidation.this.resolver.keyRequests.fail(request);
+                    AsyncValidation.this.listener.handleException(AsyncValidation.this.id, e);
+                    return;
+                }
+
+                if (ValidationBudget.isExhausted(state.budget)) {
+                    // not shared, the entry might be bad for lack of budget
+                    AsyncValidation.this.resolver.keyRequests.fail(request);
+                }
+                else {
+                    AsyncValidation.this.resolver.keyRequests.complete(request, ke);
+                }
+
+                AsyncValidation.this.processFindKeyResult(key, state, request, ke);
+            }
+        };
+
+        if (state.prefetch == null
+                || !state.prefetch.get(request, l, this.resolver.getTimeout(), this.resolver.getScheduler())) {
+            try {
+                this.resolver.headResolver.sendAsync(this.resolver.prepareRequest(request),
+                        new RoundTripListener(l, this.resolver.getMetrics(), state.trace, request));
+            }
+            catch (RuntimeException e) {
+                if (answered.get()) {
+                    // thrown after the response was processed on this thread
+                    throw e;
+                }
+
+                // this validation is the leader, release the phases that joined
+                this.resolver.keyRequests.fail(request);
+                this.listener.handleException(this.id, e);
+            }
+        }
+    }
+
+    private void processFindKeyResult(String key, FindKeyState state, Message request, KeyEntry ke) {
+        try {
+            this.resolver.keyFinder.processFindKeyResult(request, ke, state);
+        }
+        catch (RuntimeException e) {
+            this.listener.handleException(this.id, e);
+            return;
+        }
+
+        if (state.request != null) {
+            this.sendFindKeyRequest(key, state);
+            return;
+        }
+
+        this.vstate.keyEntries.put(key, state.keyEntry);
+        this.findNextKey();
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * The DS queries for all names between a trust anchor and a signer, sent
+ * concurrently ahead of the FINDKEY phase. The FINDKEY phase still processes
+ * the responses one after the other from the trust anchor down, but doesn't
+ * have to wait a full round trip for each DS query. The DNSKEY query of a
+ * name is prefetched as soon as its DS response contains a DS set, so names
+ * that are not zone cuts cost a single query. The DS set is not validated at
+ * this point, the FINDKEY phase does that before it uses the DNSKEYs.
+ * <p>
+ * The queries are registered with the {@link InFlightKeyRequests}: a query
+ * that a FINDKEY phase already sends is not prefetched, and concurrent
+ * prefetches of the same query share the response.
+ */
+final class ChainPrefetch {
+    private static final Logger logger = LoggerFactory.getLogger(ChainPrefetch.class);
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Resolver headResolver;
+    private final InFlightKeyRequests keyRequests;
+    private final ValidationMetrics metrics;
+    private final ValidationTrace trace;
+
+    /**
+     * Sends the DS queries for every name below the trust anchor, down to the
+     * signer name.
+     *
+     * @param headResolver The resolver to which the queries are sent.
+     * @param keyRequests The DS and DNSKEY queries that are in flight.
+     * @param trustAnchorName The name of the trust anchor where the FINDKEY
+     *            phase starts.
+     * @param signerName The name of the key that is searched.
+     * @param dclass The class of the key that is searched.
+     * @param metrics The metrics that receive the round trips.
+     * @param trace The trace that receives the round trips, can be
+     *            <code>null</code>.
+     */
+    ChainPrefetch(Resolver headResolver, InFlightKeyRequests keyRequests, Name trustAnchorName, Name signerName,
+            int dclass, ValidationMetrics metrics, ValidationTrace trace) {
+        this.headResolver = headResolver;
+        this.keyRequests = keyRequests;
+        this.metrics = metrics;
+        this.trace = trace;
+        for (int l = signerName.labels() - trustAnchorName.labels() - 1; l >= 0; l--) {
+            Entry registered = this.prefetch(new Name(signerName, l), Type.DS, dclass);
+            if (registered != null) {
+                registered.follow(this);
+            }
+        }
+    }
+
+    /**
+     * Waits for the prefetched response to a request, but at most for the
+     * given time.
+     *
+     * @param request The request for which the response is needed.
+     * @param timeout The maximum time [ms] to wait.
+     * @return The response, or <code>null</code> if the request wasn't
+     *         prefetched.
+     * @throws Exception The error that occurred while sending the prefetched
+     *             request, or a {@link SocketTimeoutException} if the response
+     *             did not arrive in time.
+     */
+    Message get(Message request, long timeout) throws Exception {
+        Entry e = this.entry(request);
+        if (e == null) {
+            return null;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (e) {
+            while (e.response == null && e.error == null) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new SocketTimeoutException("prefetched query " + request.getQuestion() + " timed out");
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(e, left);
+            }
+
+            if (e.error != null) {
+                throw e.error;
+            }
+
+            return e.response;
+        }
+    }
+
+    /**
+     * Passes the prefetched response to a request to a listener as soon as it
+     * is available. If it does not arrive in time, the listener receives a
+     * {@link SocketTimeoutException} instead.
+     *
+     * @param request The request for which the response is needed.
+     * @param listener The listener that receives the response.
+     * @param timeout The maximum time [ms] to wait.
+     * @param scheduler The executor that reports the timeout.
+     * @return <code>false</code> if the request wasn't prefetched and the
+     *         listener will not be called.
+     */
+    boolean get(final Message request, final ResolverListener listener, long timeout,
+            ScheduledExecutorService scheduler) {
+        final Entry e = this.entry(request);
+        if (e == null) {
+            return false;
+        }
+
+        synchronized (e) {
+            if (e.response == null && e.error == null) {
+                e.listeners.add(listener);
+                scheduler.schedule(new Runnable() {
+                    public void run() {
+                        synchronized (e) {
+                            if (e.listeners == null || !e.listeners.remove(listener)) {
+                                // the response was delivered
+                                return;
+                            }
+                        }
+
+                        listener.handleException(e, new SocketTimeoutException("prefetched query "
+                                + request.getQuestion() + " timed out"));
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+                return true;
+            }
+        }
+
+        e.deliver(listener);
+        return true;
+    }
+
+    /**
+     * Prefetches the DNSKEY query of a name whose DS response contains a DS
+     * set, i.e. that is likely a zone cut.
+     *
+     * @param request The prefetched DS query.
+     * @param response The response to the DS query.
+     */
+    private void dsReceived(Message request, Message response) {
+        Record q = request.getQuestion();
+        if (response.getRcode() != Rcode.NOERROR) {
+            return;
+        }
+
+        for (RRset rrset : response.getSectionRRsets(Section.ANSWER)) {
+            if (rrset.getType() == Type.DS && rrset.getName().equals(q.getName())
+                    && rrset.getDClass() == q.getDClass()) {
+                this.prefetch(q.getName(), Type.DNSKEY, q.getDClass());
+                return;
+            }
+        }
+    }
+
+    private Entry prefetch(Name name, int type, int dclass) {
+        Message request = Message.newQuery(Record.newRecord(name, type, dclass));
+        request.getHeader().setFlag(Flags.CD);
+        Entry e = new Entry(this.keyRequests, request);
+        Entry registered = this.keyRequests.prefetch(e);
+        if (registered == null) {
+            // a FINDKEY phase is sending it, this phase will join it
+            return null;
+        }
+
+        synchronized (this.entries) {
+            this.entries.put(key(request), registered);
+        }
+
+        if (registered != e) {
+            logger.trace("sharing prefetched " + request.getQuestion());
+            return registered;
+        }
+
+        logger.trace("prefetching " + request.getQuestion());
+        try {
+            this.headResolver.sendAsync(request, new RoundTripListener(e, this.metrics, this.trace, request));
+        }
+        catch (RuntimeException ex) {
+            e.handleException(null, ex);
+        }
+
+        return e;
+    }
+
+    private Entry entry(Message request) {
+        synchronized (this.entries) {
+            return this.entries.get(key(request));
+        }
+    }
+
+    private static String key(Message request) {
+        Record q = request.getQuestion();
+        return q.getName() + "/" + q.getType() + "/" + q.getDClass();
+    }
+
+    /**
+     * Holds the response of one prefetched query along with the listeners that
+     * are waiting for it.
+     */
+    static final class Entry implements ResolverListener {
+        private final InFlightKeyRequests owner;
+        private final Message request;
+        private Message response;
+        private Exception error;
+        private List<ResolverListener> listeners = new ArrayList<ResolverListener>(1);
+        private List<ChainPrefetch> followers = new ArrayList<ChainPrefetch>(1);
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param owner The registry of the queries in flight, from which the
+         *            entry is removed once the response arrived.
+         * @param request The prefetched query.
+         */
+        Entry(InFlightKeyRequests owner, Message request) {
+            this.owner = owner;
+            this.request = request;
+        }
+
+        /**
+         * Gets the prefetched query.
+         *
+         * @return The prefetched query.
+         */
+        Message getRequest() {
+            return this.request;
+        }
+
+        /**
+         * Receives the response to the prefetched query.
+         *
+         * @param id The identifier of the head resolver.
+         * @param m The response.
+         */
+        public void receiveMessage(Object id, Message m) {
+            this.complete(m, null);
+        }
+
+        /**
+         * Receives the error of the prefetched query.
+         *
+         * @param id The identifier of the head resolver.
+         * @param e The error.
+         */
+        public void handleException(Object id, Exception e) {
+            this.complete(null, e);
+        }
+
+        /**
+         * Lets a chain prefetch the DNSKEY query once the response to this DS
+         * query arrived. Does nothing if it already did.
+         *
+         * @param chain The chain that prefetches the DNSKEY query.
+         */
+        synchronized void follow(ChainPrefetch chain) {
+            if (this.followers != null) {
+                this.followers.add(chain);
+            }
+        }
+
+        private void complete(Message m, Exception e) {
+            List<ChainPrefetch> following;
+            synchronized (this) {
+                following = this.followers;
+                this.followers = null;
+            }
+
+            // before any waiter sees the DS response, so that its FINDKEY
+            // phase finds the prefetched DNSKEY query
+            if (m != null && following != null) {
+                for (ChainPrefetch c : following) {
+                    c.dsReceived(this.request, m);
+                }
+            }
+
+            List<ResolverListener> waiting;
+            synchronized (this) {
+                this.response = m;
+                this.error = e;
+                waiting = this.listeners;
+                this.listeners = null;
+                this.notifyAll();
+            }
+
+            this.owner.prefetched(this);
+            for (ResolverListener l : waiting) {
+                this.deliver(l);
+            }
+        }
+
+        private void deliver(ResolverListener l) {
+            if (this.error != null) {
+                l.handleException(this, this.error);
+            }
+            else {
+                l.receiveMessage(this, this.response);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.RRset;
+
+/**
+ * The default {@link SignatureSelector}. Signatures that cannot be valid are
+ * dropped with cheap checks first: those outside of their validity period,
+ * with more labels than the owner name, or whose signer is not an ancestor of
+ * the owner name. The remaining signatures are tried by the configured
+ * algorithm preference, then by the estimated cost of their verification.
+ * Otherwise the order of the response is kept.
+ * <p>
+ * With the small public exponent of DNSSEC keys, an RSA verification is
+ * cheap and grows with the square of the modulus, which is as long as the
+ * signature. DSA and ECDSA verifications cost several times more.
+ */
+public class CostBasedSignatureSelector implements SignatureSelector {
+    private static final Logger logger = LoggerFactory.getLogger(CostBasedSignatureSelector.class);
+
+    // estimated verification costs, roughly in microseconds
+    private static final int RSA_1024_COST = 10;
+    private static final int RSA_BASE_BITS = 1024;
+    private static final int DSA_COST = 300;
+    private static final int ECDSAP256_COST = 400;
+    private static final int ECDSAP384_COST = 1000;
+    private static final int BYTE_BITS = 8;
+
+    private final int[] algorithmPreference;
+
+    private final Comparator<RRSIGRecord> order = new Comparator<RRSIGRecord>() {
+        public int compare(RRSIGRecord a, RRSIGRecord b) {
+            int pa = CostBasedSignatureSelector.this.preference(a.getAlgorithm());
+            int pb = CostBasedSignatureSelector.this.preference(b.getAlgorithm());
+            if (pa != pb) {
+                return pa < pb ? -1 : 1;
+            }
+
+            long ca = estimateCost(a);
+            long cb = estimateCost(b);
+            return ca < cb ? -1 : (ca == cb ? 0 : 1);
+        }
+    };
+
+    /**
+     * Creates a selector that orders the signatures only by their cost.
+     */
+    public CostBasedSignatureSelector() {
+        this(null);
+    }
+
+    /**
+     * Creates a selector with an algorithm preference.
+     *
+     * @param algorithmPreference The DNSSEC algorithms whose signatures are
+     *            tried first, in this order, regardless of their cost. Can be
+     *            <code>null</code>.
+     */
+    public CostBasedSignatureSelector(int[] algorithmPreference) {
+        this.algorithmPreference = algorithmPreference == null ? new int[0] : algorithmPreference.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<RRSIGRecord> select(RRset rrset, List<RRSIGRecord> sigs, Date now) {
+        Name owner = rrset.getName();
+        int maxLabels = owner.labels() - (owner.isWild() ? 2 : 1);
+        for (Iterator<RRSIGRecord> i = sigs.iterator(); i.hasNext();) {
+            RRSIGRecord sig = i.next();
+            if (now.compareTo(sig.getExpire()) > 0 || now.compareTo(sig.getTimeSigned()) < 0) {
+                logger.debug("skipping signature outside of its validity period " + sig.getTimeSigned() + " - " + sig.getExpire());
+                i.remove();
+            }
+            else if (sig.getLabels() > maxLabels) {
+                logger.debug("skipping signature with " + sig.getLabels() + " labels for " + owner);
+                i.remove();
+            }
+            else if (!owner.subdomain(sig.getSigner())) {
+                logger.debug("skipping signature with off-tree signer " + sig.getSigner());
+                i.remove();
+            }
+        }
+
+        if (sigs.size() > 1) {
+            Collections.sort(sigs, this.order);
+        }
+
+        return sigs;
+    }
+
+    /**
+     * Estimates the cost of verifying a signature.
+     *
+     * @param sig The signature.
+     * @return The estimated cost, roughly in microseconds.
+     *         {@link Integer#MAX_VALUE} for algorithms that are not known.
+     */
+    static long estimateCost(RRSIGRecord sig) {
+        switch (sig.getAlgorithm()) {
+            case Algorithm.RSAMD5:
+            case Algorithm.RSASHA1:
+            case Algorithm.RSA_NSEC3_SHA1:
+            case Algorithm.RSASHA256:
+            case Algorithm.RSASHA512:
+                long bits = (long)sig.getSignature().length * BYTE_BITS;
+                return Math.max(1, RSA_1024_COST * bits * bits / (RSA_BASE_BITS * RSA_BASE_BITS));
+            case Algorithm.DSA:
+            case Algorithm.DSA_NSEC3_SHA1:
+                return DSA_COST;
+            case Algorithm.ECDSAP256SHA256:
+                return ECDSAP256_COST;
+            case Algorithm.ECDSAP384SHA384:
+                return ECDSAP384_COST;
+            default:
+                return Integer.MAX_VALUE;
+        }
+    }
+
+    private int preference(int alg) {
+        for (int i = 0; i < this.algorithmPreference.length; i++) {
+            if (this.algorithmPreference[i] == alg) {
+                return i;
+            }
+        }
+
+        return this.algorithmPreference.length;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.xbill.DNS.DNSKEYRecord;
+import org.xbill.DNS.DSRecord.Digest;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.RRset;
+
+/**
+ * An immutable index of a DNSKEY set by algorithm and key tag. Finding the
+ * keys of a signature or a DS record is a binary search over the few
+ * distinct (algorithm, key tag) pairs of the set, without allocations. The
+ * DS digests of a key are computed on first use and then kept with the index.
+ */
+final class DNSKEYIndex {
+    private static final Key[] NO_KEYS = new Key[0];
+    private static final int TAG_BITS = 16;
+
+    /**
+     * The slots for the DS digests of a key, indexed by the digest type. Only
+     * SHA-1, SHA-256 and SHA-384 are supported, so types up to SHA-384 suffice.
+     */
+    private static final int DIGEST_TYPES = Digest.SHA384 + 1;
+
+    private final Name name;
+    private final int[] ids;
+    private final Key[][] keys;
+
+    /**
+     * A key of the set, with its DS digests.
+     */
+    static final class Key {
+        private final DNSKEYRecord record;
+        private final AtomicReferenceArray<byte[]> digests = new AtomicReferenceArray<byte[]>(DIGEST_TYPES);
+
+        private Key(DNSKEYRecord record) {
+            this.record = record;
+        }
+
+        /**
+         * Gets the DNSKEY record.
+         *
+         * @return The DNSKEY record.
+         */
+        DNSKEYRecord getRecord() {
+            return this.record;
+        }
+
+        /**
+         * Gets the DS digest of the key.
+         *
+         * @param digestId The DS digest type.
+         * @param engines The engines to compute the digest if it is not known
+         *            yet.
+         * @return The digest, <code>null</code> if the digest type is not
+         *         supported.
+         */
+        byte[] getDigest(int digestId, VerificationEngines engines) {
+            if (digestId < 0 || digestId >= DIGEST_TYPES) {
+                return engines.digest(this.record, digestId);
+            }
+
+            byte[] digest = this.digests.get(digestId);
+            if (digest == null) {
+                digest = engines.digest(this.record, digestId);
+                if (digest != null) {
+                    this.digests.set(digestId, digest);
+                }
+            }
+
+            return digest;
+        }
+    }
+
+    /**
+     * Creates the index of a DNSKEY set.
+     *
+     * @param dnskeyRrset The DNSKEY set.
+     */
+    DNSKEYIndex(RRset dnskeyRrset) {
+        this.name = dnskeyRrset.size() == 0 ? null : dnskeyRrset.getName();
+        Map<Integer, List<Key>> byId = new TreeMap<Integer, List<Key>>();
+        for (Iterator<?> i = dnskeyRrset.rrs(); i.hasNext();) {
+            Object r = i.next();
+            if (!(r instanceof DNSKEYRecord)) {
+                continue;
+            }
+
+            DNSKEYRecord dnskey = (DNSKEYRecord)r;
+            Integer id = id(dnskey.getAlgorithm(), dnskey.getFootprint());
+            List<Key> l = byId.get(id);
+            if (l == null) {
+                l = new ArrayList<Key>(1);
+                byId.put(id, l);
+            }
+
+            l.add(new Key(dnskey));
+        }
+
+        this.ids = new int[byId.size()];
+        this.keys = new Key[byId.size()][];
+        int n = 0;
+        for (Map.Entry<Integer, List<Key>> e : byId.entrySet()) {
+            this.ids[n] = e.getKey();
+            this.keys[n] = e.getValue().toArray(new Key[e.getValue().size()]);
+            n++;
+        }
+    }
+
+    /**
+     * Gets the owner name of the DNSKEY set.
+     *
+     * @return The owner name of the DNSKEY set, <code>null</code> if the set
+     *         is empty.
+     */
+    Name getName() {
+        return this.name;
+    }
+
+    /**
+     * Finds the keys with an algorithm and key tag. Normally there is only
+     * one, but key tags are not unique.
+     *
+     * @param alg The DNSSEC algorithm.
+     * @param footprint The key tag.
+     * @return The keys, an empty array if there are none. The array is shared
+     *         and must not be modified.
+     */
+    Key[] find(int alg, int footprint) {
+        int i = Arrays.binarySearch(this.ids, id(alg, footprint));
+        return i < 0 ? NO_KEYS : this.keys[i];
+    }
+
+    /**
+     * Finds the keys that might have created a signature.
+     *
+     * @param sig The signature.
+     * @return The keys with the algorithm and key tag of the signature, an
+     *         empty array if there are none or if the signer is not the owner
+     *         of this DNSKEY set. The array is shared and must not be
+     *         modified.
+     */
+    Key[] find(RRSIGRecord sig) {
+        if (!sig.getSigner().equals(this.name)) {
+            return NO_KEYS;
+        }
+
+        return this.find(sig.getAlgorithm(), sig.getFootprint());
+    }
+
+    private static int id(int alg, int footprint) {
+        return alg << TAG_BITS | footprint;
+    }
+}
@@ -40,18 +40,33 @@
 
 package org.jitsi.dnssec.validator;
 
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.jitsi.dnssec.SRRset;
 import org.jitsi.dnssec.SecurityStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xbill.DNS.DNSKEYRecord;
 import org.xbill.DNS.DNSSEC;
+import org.xbill.DNS.DNSSEC.Algorithm;
 import org.xbill.DNS.DNSSEC.DNSSECException;
+import org.xbill.DNS.DSRecord;
 import org.xbill.DNS.RRSIGRecord;
 import org.xbill.DNS.RRset;
+import org.xbill.DNS.utils.base16;
 
 /**
  * A class for performing basic DNSSEC verification. The DNSJAVA package
@@ -62,41 +77,109 @@ import org.xbill.DNS.RRset;
  * @version $Revision: 361 $
  */
 public class DnsSecVerifier {
+    /**
+     * Name of the property that configures the maximum number of successful
+     * signature verifications that are cached.
+     */
+    public static final String SIG_CACHE_SIZE_CONFIG = "org.jitsi.dnssec.sigcache.max_size";
+
+    /**
+     * Name of the property that configures the DNSSEC algorithms whose
+     * signatures are tried first, as a comma separated list.
+     */
+    public static final String ALGORITHM_PREFERENCE_CONFIG = "org.jitsi.dnssec.algorithm_preference";
+
     private static final Logger logger = LoggerFactory.getLogger(DnsSecVerifier.class);
+    private static final int DEFAULT_SIG_CACHE_SIZE = 1000;
+    private static final int ASN1_SEQ = 0x30;
+    private static final int ASN1_INT = 0x02;
+    private static final int DSA_LEN = 20;
+    private static final int ECDSAP256_LEN = 32;
+    private static final int ECDSAP384_LEN = 48;
 
     /**
-     * Find the matching DNSKEY(s) to an RRSIG within a DNSKEY rrset. Normally
-     * this will only return one DNSKEY. It can return more than one, since
-     * KeyID/Footprints are not guaranteed to be unique.
-     * 
-     * @param dnskeyRrset The DNSKEY rrset to search.
-     * @param signature The RRSIG to match against.
-     * @return A List contains a one or more DNSKEYRecord objects, or null if a
-     *         matching DNSKEY could not be found.
-     */
-    private List<DNSKEYRecord> findKey(RRset dnskeyRrset, RRSIGRecord signature) {
-        if (!signature.getSigner().equals(dnskeyRrset.getName())) {
-            logger.trace("findKey: could not find appropriate key because incorrect keyset was supplied. Wanted: "
-                    + signature.getSigner() + ", got: " + dnskeyRrset.getName());
-            return null;
-        }
-
-        int keyid = signature.getFootprint();
-        int alg = signature.getAlgorithm();
-        List<DNSKEYRecord> res = new ArrayList<DNSKEYRecord>(dnskeyRrset.size());
-        for (Iterator<?> i = dnskeyRrset.rrs(); i.hasNext();) {
-            DNSKEYRecord r = (DNSKEYRecord)i.next();
-            if (r.getAlgorithm() == alg && r.getFootprint() == keyid) {
-                res.add(r);
+     * The successful verifications, keyed by a digest of the signed data, the
+     * signature and the key, with the expiration of the signature.
+     */
+    private Map<String, Long> sigCache;
+    private int maxSigCacheSize = DEFAULT_SIG_CACHE_SIZE;
+    private AtomicLong sigCacheHits = new AtomicLong();
+    private ValidationMetrics metrics = new NoopValidationMetrics();
+    private SignatureSelector selector = new CostBasedSignatureSelector();
+    private final VerificationEngines engines = new VerificationEngines();
+
+    /**
+     * Creates a new instance of this class.
+     */
+    public DnsSecVerifier() {
+        this.sigCache = Collections.synchronizedMap(new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<String, Long> eldest) {
+                return size() > DnsSecVerifier.this.maxSigCacheSize;
             }
+        });
+    }
+
+    /**
+     * Initialize the verifier. The recognized configuration values are
+     * {@link #SIG_CACHE_SIZE_CONFIG}, where zero disables the cache, and
+     * {@link #ALGORITHM_PREFERENCE_CONFIG}, which replaces the signature
+     * selector with a {@link CostBasedSignatureSelector} that prefers the
+     * given algorithms.
+     * 
+     * @param config The configuration data for the verifier.
+     */
+    public void init(Properties config) {
+        String s = config.getProperty(SIG_CACHE_SIZE_CONFIG);
+        if (s != null) {
+            this.maxSigCacheSize = Integer.parseInt(s);
+            this.sigCache.clear();
         }
 
-        if (res.size() == 0) {
-            logger.trace("findKey: could not find a key matching the algorithm and footprint in supplied keyset. ");
-            return null;
+        String ap = config.getProperty(ALGORITHM_PREFERENCE_CONFIG);
+        if (ap != null) {
+            String[] apdata = ap.split(",");
+            int[] algorithmPreference = new int[apdata.length];
+            for (int i = 0; i < apdata.length; i++) {
+                algorithmPreference[i] = Integer.parseInt(apdata[i].trim());
+            }
+
+            this.selector = new CostBasedSignatureSelector(algorithmPreference);
         }
+    }
+
+    /**
+     * Sets the metrics that receive the signature verifications.
+     * 
+     * @param metrics The metrics.
+     */
+    public void setMetrics(ValidationMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-        return res;
+    /**
+     * Sets the strategy that chooses which signatures of an RRset are
+     * verified, and in which order. The default is a
+     * {@link CostBasedSignatureSelector}. A selector that is set before
+     * {@link #init(Properties)} is replaced if
+     * {@link #ALGORITHM_PREFERENCE_CONFIG} is configured.
+     * 
+     * @param selector The signature selector, or <code>null</code> to use a
+     *            {@link CostBasedSignatureSelector} without algorithm
+     *            preference.
+     */
+    public void setSignatureSelector(SignatureSelector selector) {
+        this.selector = selector == null ? new CostBasedSignatureSelector() : selector;
+    }
+
+    /**
+     * Gets the number of signature verifications that were answered from the
+     * cache.
+     * 
+     * @return The number of cache hits.
+     */
+    long getSigCacheHits() {
+        return this.sigCacheHits.get();
     }
 
     /**
@@ -104,7 +187,8 @@ public class DnsSecVerifier {
      * 
      * @param rrset The RRset to verify.
      * @param sigrec The signature record that signs the RRset.
-     * @param keyRrset The keys used to create the signature record.
+     * @param keys The keys used to create the signature record.
+     * @param budget The budget of the validation, can be <code>null</code>.
      * 
      * @return {@link SecurityStatus#SECURE} if the signature verified,
      *         {@link SecurityStatus#BOGUS} if it did not verify (for any
@@ -112,33 +196,25 @@ public class DnsSecVerifier {
      *         could not be completed (usually because the public key was not
      *         available).
      */
-    private SecurityStatus verifySignature(RRset rrset, RRSIGRecord sigrec,
-            RRset keyRrset) {
-        List<DNSKEYRecord> keys = this.findKey(keyRrset, sigrec);
-        if (keys == null) {
+    private SecurityStatus verifySignature(RRset rrset, RRSIGRecord sigrec, DNSKEYIndex keys, ValidationBudget budget) {
+        DNSKEYIndex.Key[] candidates = keys.find(sigrec);
+        if (candidates.length == 0) {
             logger.trace("could not find appropriate key");
             return SecurityStatus.BOGUS;
         }
 
-        SecurityStatus status = SecurityStatus.UNCHECKED;
-        for (DNSKEYRecord key : keys) {
-            try {
-                if (!rrset.getName().subdomain(keyRrset.getName())) {
-                    logger.debug("signer name is off-tree");
-                    status = SecurityStatus.BOGUS;
-                    continue;
-                }
+        if (!rrset.getName().subdomain(keys.getName())) {
+            logger.debug("signer name is off-tree");
+            return SecurityStatus.BOGUS;
+        }
 
-                DNSSEC.verify(rrset, sigrec, key);
+        for (DNSKEYIndex.Key key : candidates) {
+            if (this.verify(rrset, sigrec, key.getRecord(), budget)) {
                 return SecurityStatus.SECURE;
             }
-            catch (DNSSECException e) {
-                logger.error("Failed to validate RRset", e);
-                status = SecurityStatus.BOGUS;
-            }
         }
 
-        return status;
+        return SecurityStatus.BOGUS;
     }
 
     /**
@@ -152,15 +228,44 @@ public class DnsSecVerifier {
      *         SecurityStatus.BOGUS otherwise.
      */
     public SecurityStatus verify(RRset rrset, RRset keyRrset) {
+        return this.verify(rrset, new DNSKEYIndex(keyRrset), null);
+    }
+
+    /**
+     * Verifies an RRset with indexed keys, e.g. those of a cached
+     * {@link KeyEntry}.
+     * 
+     * @param rrset The RRset to verify.
+     * @param keys The keys to verify the signatures in the RRset to check.
+     * @param budget The budget of the validation, can be <code>null</code>.
+     * @return SecurityStatus.SECURE if the rrest verified positively,
+     *         SecurityStatus.BOGUS otherwise, also when the budget is
+     *         exhausted.
+     */
+    SecurityStatus verify(RRset rrset, DNSKEYIndex keys, ValidationBudget budget) {
         Iterator<?> i = rrset.sigs();
         if (!i.hasNext()) {
             logger.info("RRset failed to verify due to lack of signatures");
             return SecurityStatus.BOGUS;
         }
 
+        List<RRSIGRecord> sigs = new ArrayList<RRSIGRecord>();
         while (i.hasNext()) {
             RRSIGRecord sigrec = (RRSIGRecord)i.next();
-            SecurityStatus res = this.verifySignature(rrset, sigrec, keyRrset);
+            if (keys.find(sigrec).length > 0) {
+                sigs.add(sigrec);
+            }
+            else {
+                logger.trace("could not find appropriate key");
+            }
+        }
+
+        for (RRSIGRecord sigrec : this.selector.select(rrset, sigs, new Date())) {
+            if (ValidationBudget.isExhausted(budget)) {
+                break;
+            }
+
+            SecurityStatus res = this.verifySignature(rrset, sigrec, keys, budget);
             if (res == SecurityStatus.SECURE) {
                 return res;
             }
@@ -180,30 +285,234 @@ public class DnsSecVerifier {
      * @return SecurityStatus.SECURE if the rrset verified, BOGUS otherwise.
      */
     public SecurityStatus verify(RRset rrset, DNSKEYRecord dnskey) {
+        return this.verify(rrset, dnskey, null);
+    }
+
+    /**
+     * Verify an RRset against a single DNSKEY, within the budget of a
+     * validation.
+     * 
+     * @param rrset The rrset to verify.
+     * @param dnskey The DNSKEY to verify with.
+     * @param budget The budget of the validation, can be <code>null</code>.
+     * @return SecurityStatus.SECURE if the rrset verified, BOGUS otherwise,
+     *         also when the budget is exhausted.
+     */
+    SecurityStatus verify(RRset rrset, DNSKEYRecord dnskey, ValidationBudget budget) {
         Iterator<?> i = rrset.sigs();
         if (!i.hasNext()) {
             logger.info("RRset failed to verify due to lack of signatures");
             return SecurityStatus.BOGUS;
         }
 
+        List<RRSIGRecord> sigs = new ArrayList<RRSIGRecord>();
         while (i.hasNext()) {
             RRSIGRecord sigrec = (RRSIGRecord)i.next();
 
-            // Skip RRSIGs that do not match our given key's footprint.
-            if (sigrec.getFootprint() != dnskey.getFootprint()) {
-                continue;
+            // Skip RRSIGs that do not match our given key.
+            if (sigrec.getFootprint() == dnskey.getFootprint() && sigrec.getAlgorithm() == dnskey.getAlgorithm()
+                    && sigrec.getSigner().equals(dnskey.getName())) {
+                sigs.add(sigrec);
             }
+        }
 
-            try {
-                DNSSEC.verify(rrset, sigrec, dnskey);
-                return SecurityStatus.SECURE;
+        for (RRSIGRecord sigrec : this.selector.select(rrset, sigs, new Date())) {
+            if (ValidationBudget.isExhausted(budget)) {
+                break;
             }
-            catch (DNSSECException e) {
-                logger.error("Failed to validate RRset", e);
+
+            if (this.verify(rrset, sigrec, dnskey, budget)) {
+                return SecurityStatus.SECURE;
             }
         }
 
         logger.info("RRset failed to verify: all signatures were BOGUS");
         return SecurityStatus.BOGUS;
     }
+
+    /**
+     * Checks if a DS record refers to a DNSKEY.
+     * 
+     * @param ds The DS record.
+     * @param key The indexed DNSKEY record.
+     * @return <code>true</code> if the digest of the DS record is the digest
+     *         of the DNSKEY, <code>false</code> if not or if the digest type is
+     *         not supported.
+     */
+    boolean matches(DSRecord ds, DNSKEYIndex.Key key) {
+        return Arrays.equals(key.getDigest(ds.getDigestID(), this.engines), ds.getDigest());
+    }
+
+    /**
+     * Verifies an RRset against a signature and key, unless the same
+     * combination already verified successfully and the signature has not
+     * expired since. Failed verifications are never cached, as they might
+     * depend on the time of the verification.
+     * 
+     * @param rrset The RRset to verify.
+     * @param sigrec The signature of the RRset.
+     * @param key The key that created the signature.
+     * @param budget The budget of the validation, can be <code>null</code>.
+     * @return <code>true</code> if the signature is valid.
+     */
+    private boolean verify(RRset rrset, RRSIGRecord sigrec, DNSKEYRecord key, ValidationBudget budget) {
+        byte[] data = signedData(rrset, sigrec);
+        if (this.maxSigCacheSize <= 0) {
+            return this.verifySignature(data, sigrec, key, budget);
+        }
+
+        String k = this.sigCacheKey(data, sigrec, key);
+        Long expiration = this.sigCache.get(k);
+        long now = System.currentTimeMillis();
+        if (expiration != null && expiration.longValue() > now) {
+            this.sigCacheHits.incrementAndGet();
+            return true;
+        }
+
+        if (!this.verifySignature(data, sigrec, key, budget)) {
+            return false;
+        }
+
+        if (sigrec.getExpire().getTime() > now) {
+            this.sigCache.put(k, Long.valueOf(sigrec.getExpire().getTime()));
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the signed data of an RRset. The data of an {@link SRRset} is
+     * computed only once per signature, so that a signature that must be
+     * tried with several keys, and the key of the verification cache, do not
+     * canonicalize and sort the RRset again.
+     */
+    private static byte[] signedData(RRset rrset, RRSIGRecord sigrec) {
+        if (rrset instanceof SRRset) {
+            return ((SRRset)rrset).getSignedData(sigrec);
+        }
+
+        return DNSSEC.digestRRset(sigrec, rrset);
+    }
+
+    /**
+     * Verifies a signature over already canonicalized data, with the same
+     * checks as {@link DNSSEC#verify(RRset, RRSIGRecord, DNSKEYRecord)}. The
+     * cryptographic operation is paid from the budget.
+     */
+    private boolean verifySignature(byte[] data, RRSIGRecord sigrec, DNSKEYRecord key, ValidationBudget budget) {
+        if (sigrec.getAlgorithm() != key.getAlgorithm() || sigrec.getFootprint() != key.getFootprint()
+                || !sigrec.getSigner().equals(key.getName())) {
+            logger.error("Failed to validate RRset: the signature does not match key " + key.getName() + "/"
+                    + key.getAlgorithm() + "/" + key.getFootprint());
+            return false;
+        }
+
+        Date now = new Date();
+        if (now.compareTo(sigrec.getExpire()) > 0) {
+            logger.error("Failed to validate RRset: the signature expired at " + sigrec.getExpire());
+            return false;
+        }
+
+        if (now.compareTo(sigrec.getTimeSigned()) < 0) {
+            logger.error("Failed to validate RRset: the signature is not valid before " + sigrec.getTimeSigned());
+            return false;
+        }
+
+        if (!ValidationBudget.spend(budget, ValidationBudget.Resource.VERIFICATION)) {
+            logger.debug("Failed to validate RRset: the validation budget is exhausted");
+            return false;
+        }
+
+        boolean valid = false;
+        try {
+            Signature s = this.engines.getSignature(key.getAlgorithm());
+            s.initVerify(key.getPublicKey());
+            s.update(data);
+            valid = s.verify(toJcaSignature(key.getAlgorithm(), sigrec.getSignature()));
+            if (!valid) {
+                logger.error("Failed to validate RRset: signature verification failed");
+            }
+        }
+        catch (DNSSECException e) {
+            logger.error("Failed to validate RRset", e);
+        }
+        catch (GeneralSecurityException e) {
+            logger.error("Failed to validate RRset", e);
+        }
+        finally {
+            this.metrics.signatureVerified(key.getAlgorithm(), valid);
+        }
+
+        return valid;
+    }
+
+    /**
+     * Converts a DNSSEC signature to the format of the Java signature engines.
+     * DSA and ECDSA signatures are the concatenated integers r and s, which
+     * the engines expect as a DER encoded sequence.
+     */
+    private static byte[] toJcaSignature(int alg, byte[] sig) throws GeneralSecurityException {
+        switch (alg) {
+            case Algorithm.DSA:
+            case Algorithm.DSA_NSEC3_SHA1:
+                // the first octet is the DSA parameter T
+                return toDer(sig, 1, DSA_LEN);
+            case Algorithm.ECDSAP256SHA256:
+                return toDer(sig, 0, ECDSAP256_LEN);
+            case Algorithm.ECDSAP384SHA384:
+                return toDer(sig, 0, ECDSAP384_LEN);
+            default:
+                return sig;
+        }
+    }
+
+    private static byte[] toDer(byte[] sig, int offset, int len) throws GeneralSecurityException {
+        if (sig.length != offset + 2 * len) {
+            throw new GeneralSecurityException("Invalid signature length " + sig.length);
+        }
+
+        byte[] r = toDerInteger(sig, offset, len);
+        byte[] s = toDerInteger(sig, offset + len, len);
+        byte[] der = new byte[2 + r.length + s.length];
+        der[0] = ASN1_SEQ;
+        der[1] = (byte)(r.length + s.length);
+        System.arraycopy(r, 0, der, 2, r.length);
+        System.arraycopy(s, 0, der, 2 + r.length, s.length);
+        return der;
+    }
+
+    private static byte[] toDerInteger(byte[] b, int offset, int len) {
+        int start = offset;
+        int end = offset + len;
+        while (start < end - 1 && b[start] == 0) {
+            start++;
+        }
+
+        int pad = b[start] < 0 ? 1 : 0;
+        byte[] der = new byte[2 + pad + end - start];
+        der[0] = ASN1_INT;
+        der[1] = (byte)(der.length - 2);
+        System.arraycopy(b, start, der, 2 + pad, end - start);
+        return der;
+    }
+
+    /**
+     * Creates the key of the verification cache. It covers the complete
+     * public key, not just the key tag and algorithm, as key tags are not
+     * unique.
+     */
+    private String sigCacheKey(byte[] data, RRSIGRecord sigrec, DNSKEYRecord key) {
+        MessageDigest md;
+        try {
+            md = this.engines.getDigest(DSRecord.Digest.SHA256);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        md.update(data);
+        md.update(sigrec.getSignature());
+        md.update(key.rdataToWireCanonical());
+        return base16.toString(md.digest());
+    }
 }
@@ -41,6 +41,7 @@
 package org.jitsi.dnssec.validator;
 
 import org.jitsi.dnssec.SRRset;
+import org.xbill.DNS.Message;
 import org.xbill.DNS.Name;
 
 /**
@@ -79,4 +80,41 @@ class FindKeyState {
      * The initial key name when the key search is started from a trust anchor.
      */
     Name currentDSKeyName;
+
+    /**
+     * The DS or DNSKEY query whose response is needed to continue the key
+     * search, or <code>null</code> if the FINDKEY phase has ended and
+     * {@link #keyEntry} holds the result.
+     */
+    Message request;
+
+    /**
+     * The DS and DNSKEY queries along the chain of trust that were sent ahead
+     * of the FINDKEY phase, <code>null</code> if prefetching is disabled.
+     */
+    ChainPrefetch prefetch;
+
+    /**
+     * The expired key entry from the cache that is used if the key cannot be
+     * looked up again, <code>null</code> if there is none.
+     */
+    KeyEntry staleKeyEntry;
+
+    /**
+     * The number of DS and DNSKEY responses that were processed in this
+     * FINDKEY phase.
+     */
+    int depth;
+
+    /**
+     * The trace of the validation that needs the key, <code>null</code> if it
+     * is not traced.
+     */
+    ValidationTrace trace;
+
+    /**
+     * The budget of the validation that needs the key, or of the lookup when
+     * the key is refreshed, served stale or primed.
+     */
+    ValidationBudget budget;
 }
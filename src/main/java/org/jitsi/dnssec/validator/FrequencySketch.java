@@ -0,0 +1,103 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Approximate access frequencies of cache keys (a count-min sketch), used to
+ * decide whether a new cache entry is worth evicting an existing one
+ * (TinyLFU). The counters saturate at a small value and are halved
+ * periodically, so that past popularity fades out.
+ */
+final class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MIN_WIDTH = 16;
+    private static final int MAX_COUNT = 15;
+    private static final int SAMPLE_FACTOR = 10;
+    private static final int[] SEEDS = { 0x97cb3127, 0xb9f2e1e1, 0x2f8b6b53, 0x5bd1e995 };
+
+    private final AtomicIntegerArray table;
+    private final int width;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param expectedKeys The number of keys whose frequencies should be
+     *            distinguishable, usually the size of the cache.
+     */
+    FrequencySketch(int expectedKeys) {
+        int w = MIN_WIDTH;
+        while (w < expectedKeys) {
+            w <<= 1;
+        }
+
+        this.width = w;
+        this.sampleSize = SAMPLE_FACTOR * w;
+        this.table = new AtomicIntegerArray(DEPTH * w);
+    }
+
+    /**
+     * Records an access to a key.
+     *
+     * @param h The hash of the accessed key.
+     */
+    void increment(int h) {
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = this.index(h, i);
+            int count;
+            do {
+                count = this.table.get(index);
+            } while (count < MAX_COUNT && !this.table.compareAndSet(index, count, count + 1));
+
+            added |= count < MAX_COUNT;
+        }
+
+        if (added && this.additions.incrementAndGet() >= this.sampleSize) {
+            this.reset();
+        }
+    }
+
+    /**
+     * Gets the estimated access frequency of a key.
+     *
+     * @param h The hash of the key to estimate.
+     * @return The estimated frequency, at most 15.
+     */
+    int frequency(int h) {
+        int min = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, this.table.get(this.index(h, i)));
+        }
+
+        return min;
+    }
+
+    private int index(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[row];
+        h ^= h >>> (Integer.SIZE / 2);
+        return row * this.width + (h & (this.width - 1));
+    }
+
+    private void reset() {
+        this.additions.set(0);
+        for (int i = 0; i < this.table.length(); i++) {
+            int count;
+            do {
+                count = this.table.get(i);
+            } while (!this.table.compareAndSet(i, count, count >>> 1));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values with a fixed number of
+ * log-linear buckets. Each power of two is split into eight buckets, so a
+ * value is known with a relative error of at most 12.5%. Recording a value
+ * costs two atomic additions, plus a compare-and-set for a new maximum, and
+ * does not allocate.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final double PERCENT = 100.0;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value The value, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        this.counts.incrementAndGet(bucket(v));
+        this.sum.addAndGet(v);
+        long m = this.max.get();
+        while (v > m && !this.max.compareAndSet(m, v)) {
+            m = this.max.get();
+        }
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return The number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return The sum of the recorded values.
+     */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return The largest recorded value, 0 if none was recorded.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Gets the value below or at which the given percentage of the recorded
+     * values lie.
+     *
+     * @param percentile The percentage, between 0 and 100.
+     * @return The upper bound of the bucket that contains the percentile, but
+     *         at most the largest recorded value. 0 if no value was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] c = this.getCounts();
+        long total = 0;
+        for (long n : c) {
+            total += n;
+        }
+
+        long rank = (long)Math.ceil(Math.max(0, Math.min(PERCENT, percentile)) / PERCENT * total);
+        long seen = 0;
+        for (int i = 0; i < c.length; i++) {
+            seen += c[i];
+            if (seen > 0 && seen >= rank) {
+                return Math.min(getUpperBound(i), this.getMax());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the number of values in each bucket, e.g. to export them to a
+     * monitoring system.
+     *
+     * @return A copy of the bucket counts.
+     * @see #getUpperBound(int)
+     */
+    public long[] getCounts() {
+        long[] c = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            c[i] = this.counts.get(i);
+        }
+
+        return c;
+    }
+
+    /**
+     * Gets the largest value that is counted in a bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return The inclusive upper bound of the bucket.
+     */
+    public static long getUpperBound(int bucket) {
+        if (bucket >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+
+        return getLowerBound(bucket + 1) - 1;
+    }
+
+    private static long getLowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+    }
+}
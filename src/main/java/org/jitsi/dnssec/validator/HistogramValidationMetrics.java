@@ -0,0 +1,227 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jitsi.dnssec.SecurityStatus;
+
+/**
+ * Metrics that collect the measurements in counters and {@link Histogram}s,
+ * from which they can be read and exported to a monitoring system.
+ */
+public class HistogramValidationMetrics implements ValidationMetrics {
+    private final ConcurrentMap<Integer, Histogram> roundTrips = new ConcurrentHashMap<Integer, Histogram>();
+    private final Histogram keySearchDepth = new Histogram();
+    private final AtomicLong keyCacheHits = new AtomicLong();
+    private final AtomicLong keyCacheMisses = new AtomicLong();
+    private final AtomicLong keyCacheEvictions = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLongArray> verifications = new ConcurrentHashMap<Integer, AtomicLongArray>();
+    private final AtomicLong nsec3Hashes = new AtomicLong();
+    private final AtomicLong budgetExhaustions = new AtomicLong();
+    private final AtomicLongArray statuses = new AtomicLongArray(SecurityStatus.values().length);
+
+    /**
+     * {@inheritDoc}
+     */
+    public void roundTrip(int qtype, long nanos) {
+        Integer key = Integer.valueOf(qtype);
+        Histogram h = this.roundTrips.get(key);
+        if (h == null) {
+            Histogram created = new Histogram();
+            h = this.roundTrips.putIfAbsent(key, created);
+            if (h == null) {
+                h = created;
+            }
+        }
+
+        h.record(nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void keySearched(int depth) {
+        this.keySearchDepth.record(depth);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void keyCacheHit() {
+        this.keyCacheHits.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void keyCacheMiss() {
+        this.keyCacheMisses.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void keyCacheEviction() {
+        this.keyCacheEvictions.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void signatureVerified(int algorithm, boolean valid) {
+        Integer key = Integer.valueOf(algorithm);
+        AtomicLongArray counts = this.verifications.get(key);
+        if (counts == null) {
+            AtomicLongArray created = new AtomicLongArray(2);
+            counts = this.verifications.putIfAbsent(key, created);
+            if (counts == null) {
+                counts = created;
+            }
+        }
+
+        counts.incrementAndGet(valid ? 0 : 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void nsec3Hashed(int iterations) {
+        this.nsec3Hashes.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void budgetExhausted() {
+        this.budgetExhaustions.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void validated(SecurityStatus status) {
+        this.statuses.incrementAndGet(status.ordinal());
+    }
+
+    /**
+     * Gets the query types for which round trips were measured.
+     * 
+     * @return The query types, in ascending order.
+     */
+    public Set<Integer> getRoundTripTypes() {
+        return Collections.unmodifiableSet(new TreeSet<Integer>(this.roundTrips.keySet()));
+    }
+
+    /**
+     * Gets the round trip times to the head resolver of a query type.
+     * 
+     * @param qtype The type of the queries.
+     * @return The round trip times in nanoseconds, or <code>null</code> if
+     *         no query of the type was sent.
+     */
+    public Histogram getRoundTrips(int qtype) {
+        return this.roundTrips.get(Integer.valueOf(qtype));
+    }
+
+    /**
+     * Gets the number of DS and DNSKEY queries of the FINDKEY phases.
+     * 
+     * @return The depths of the FINDKEY phases.
+     */
+    public Histogram getKeySearchDepth() {
+        return this.keySearchDepth;
+    }
+
+    /**
+     * Gets the number of keys that were found in the key cache.
+     * 
+     * @return The number of key cache hits.
+     */
+    public long getKeyCacheHits() {
+        return this.keyCacheHits.get();
+    }
+
+    /**
+     * Gets the number of keys that were not found in the key cache.
+     * 
+     * @return The number of key cache misses.
+     */
+    public long getKeyCacheMisses() {
+        return this.keyCacheMisses.get();
+    }
+
+    /**
+     * Gets the number of keys that were evicted from the full key cache.
+     * 
+     * @return The number of key cache evictions.
+     */
+    public long getKeyCacheEvictions() {
+        return this.keyCacheEvictions.get();
+    }
+
+    /**
+     * Gets the algorithms for which signatures were verified.
+     * 
+     * @return The DNSSEC algorithm numbers, in ascending order.
+     */
+    public Set<Integer> getVerificationAlgorithms() {
+        return Collections.unmodifiableSet(new TreeSet<Integer>(this.verifications.keySet()));
+    }
+
+    /**
+     * Gets the number of signatures that were verified with an algorithm.
+     * 
+     * @param algorithm The DNSSEC algorithm number.
+     * @param valid <code>true</code> to count the valid signatures,
+     *            <code>false</code> to count the invalid signatures.
+     * @return The number of verifications.
+     */
+    public long getVerifications(int algorithm, boolean valid) {
+        AtomicLongArray counts = this.verifications.get(Integer.valueOf(algorithm));
+        return counts == null ? 0 : counts.get(valid ? 0 : 1);
+    }
+
+    /**
+     * Gets the number of computed NSEC3 hashes.
+     * 
+     * @return The number of NSEC3 hashes.
+     */
+    public long getNsec3Hashes() {
+        return this.nsec3Hashes.get();
+    }
+
+    /**
+     * Gets the number of responses that were bogus because their validation
+     * exceeded the work budget of a query.
+     * 
+     * @return The number of responses.
+     */
+    public long getBudgetExhaustions() {
+        return this.budgetExhaustions.get();
+    }
+
+    /**
+     * Gets the number of validated responses with a security status.
+     * 
+     * @param status The final security status.
+     * @return The number of responses.
+     */
+    public long getValidated(SecurityStatus status) {
+        return this.statuses.get(status.ordinal());
+    }
+}
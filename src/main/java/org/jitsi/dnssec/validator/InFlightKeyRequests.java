@@ -0,0 +1,269 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Record;
+
+/**
+ * The DS and DNSKEY queries of all FINDKEY phases that are currently running,
+ * keyed by (name, type, class). Only the first phase that needs a query sends
+ * it and processes the response, all other phases that need the same query in
+ * the meantime wait for and share the resulting key entry. The DS and DNSKEY
+ * queries that are prefetched ahead of a FINDKEY phase are registered as
+ * well, see {@link ChainPrefetch}.
+ */
+final class InFlightKeyRequests {
+    private final Map<String, Flight> flights = new HashMap<String, Flight>();
+    private final Map<String, ChainPrefetch.Entry> prefetches = new HashMap<String, ChainPrefetch.Entry>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Registers a DS or DNSKEY query of a FINDKEY phase.
+     *
+     * @param request The query that is about to be sent.
+     * @return <code>null</code> if no identical query is in flight. The caller
+     *         must then send the query and call either
+     *         {@link #complete(Message, KeyEntry)} or {@link #fail(Message)}.
+     *         Otherwise the query that is already in flight.
+     */
+    Flight join(Message request) {
+        String key = key(request);
+        synchronized (this.flights) {
+            Flight f = this.flights.get(key);
+            if (f == null) {
+                this.flights.put(key, new Flight());
+                this.sent.incrementAndGet();
+                return null;
+            }
+
+            this.coalesced.incrementAndGet();
+            return f;
+        }
+    }
+
+    /**
+     * Passes the key entry that resulted from a query to all phases that
+     * joined it.
+     *
+     * Does nothing if the query is no longer in flight.
+     *
+     * @param request The query that was sent.
+     * @param keyEntry The key entry that resulted from the response. A
+     *            <code>null</code> DS key entry indicates that the queried name
+     *            is not a delegation point.
+     */
+    void complete(Message request, KeyEntry keyEntry) {
+        Flight f = this.remove(request);
+        if (f != null) {
+            f.complete(keyEntry, false);
+        }
+    }
+
+    /**
+     * Releases all phases that joined a query whose response could not be
+     * processed. They will send the query themselves. Does nothing if the
+     * query is no longer in flight.
+     *
+     * @param request The query that was sent.
+     */
+    void fail(Message request) {
+        Flight f = this.remove(request);
+        if (f != null) {
+            f.complete(null, true);
+        }
+    }
+
+    /**
+     * Releases all phases that joined a query which did not complete in time.
+     * Does nothing if the query has completed in the meantime.
+     *
+     * @param request The query that was sent.
+     * @param flight The query that was joined.
+     */
+    void expire(Message request, Flight flight) {
+        String key = key(request);
+        synchronized (this.flights) {
+            if (this.flights.get(key) == flight) {
+                this.flights.remove(key);
+            }
+        }
+
+        flight.complete(null, true);
+    }
+
+    /**
+     * Registers a query that is prefetched ahead of its FINDKEY phase.
+     *
+     * @param entry The entry that receives the response if the query is
+     *            sent.
+     * @return <code>entry</code> if the caller must send the query, the entry
+     *         of an identical query that is already prefetched, or
+     *         <code>null</code> if a FINDKEY phase already sends it.
+     */
+    ChainPrefetch.Entry prefetch(ChainPrefetch.Entry entry) {
+        String key = key(entry.getRequest());
+        synchronized (this.flights) {
+            if (this.flights.containsKey(key)) {
+                return null;
+            }
+
+            ChainPrefetch.Entry e = this.prefetches.get(key);
+            if (e == null) {
+                this.prefetches.put(key, entry);
+                return entry;
+            }
+
+            return e;
+        }
+    }
+
+    /**
+     * Removes a prefetched query once its response arrived. Later prefetches
+     * send the query again.
+     *
+     * @param entry The entry of the query.
+     */
+    void prefetched(ChainPrefetch.Entry entry) {
+        String key = key(entry.getRequest());
+        synchronized (this.flights) {
+            if (this.prefetches.get(key) == entry) {
+                this.prefetches.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of queries that were actually sent.
+     *
+     * @return The number of queries that were actually sent.
+     */
+    long getSentCount() {
+        return this.sent.get();
+    }
+
+    /**
+     * Gets the number of queries that were not sent because an identical
+     * query was already in flight.
+     *
+     * @return The number of queries that joined a query in flight.
+     */
+    long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+
+    private Flight remove(Message request) {
+        synchronized (this.flights) {
+            return this.flights.remove(key(request));
+        }
+    }
+
+    private static String key(Message request) {
+        Record q = request.getQuestion();
+        return q.getName() + "/" + q.getType() + "/" + q.getDClass();
+    }
+
+    /**
+     * A query in flight along with the phases that are waiting for it.
+     */
+    static final class Flight {
+        private boolean done;
+        private boolean failed;
+        private KeyEntry keyEntry;
+        private List<Runnable> listeners = new ArrayList<Runnable>(1);
+
+        /**
+         * Blocks until the query has been processed, but at most for the
+         * given time.
+         *
+         * @param timeout The maximum time [ms] to wait.
+         * @return <code>false</code> if the query was not processed in time.
+         * @throws InterruptedException when the waiting thread was interrupted.
+         */
+        synchronized boolean await(long timeout) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!this.done) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+
+            return true;
+        }
+
+        /**
+         * Runs a callback once the query has been processed. If it already
+         * was, the callback runs immediately on the calling thread.
+         *
+         * @param r The callback to run.
+         */
+        void onComplete(Runnable r) {
+            synchronized (this) {
+                if (!this.done) {
+                    this.listeners.add(r);
+                    return;
+                }
+            }
+
+            r.run();
+        }
+
+        /**
+         * Indicates whether the response could not be processed and the
+         * waiting phase must send the query itself.
+         *
+         * @return <code>true</code> if the query failed.
+         */
+        synchronized boolean isFailed() {
+            return this.failed;
+        }
+
+        /**
+         * Gets the key entry that resulted from the query.
+         *
+         * @return The key entry, may be <code>null</code> for a DS query.
+         */
+        synchronized KeyEntry getKeyEntry() {
+            return this.keyEntry;
+        }
+
+        private void complete(KeyEntry ke, boolean f) {
+            List<Runnable> waiting;
+            synchronized (this) {
+                if (this.done) {
+                    return;
+                }
+
+                this.keyEntry = ke;
+                this.failed = f;
+                this.done = true;
+                waiting = this.listeners;
+                this.listeners = null;
+                this.notifyAll();
+            }
+
+            for (Runnable r : waiting) {
+                r.run();
+            }
+        }
+    }
+}
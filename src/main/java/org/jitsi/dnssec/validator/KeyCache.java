@@ -40,12 +40,18 @@
 
 package org.jitsi.dnssec.validator;
 
-import java.util.Collections;
-import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.jitsi.dnssec.SRRset;
 import org.jitsi.dnssec.SecurityStatus;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Type;
@@ -53,6 +59,29 @@ import org.xbill.DNS.Type;
 /**
  * Cache for DNSKEY RRsets or corresponding null/bad key entries with a limited
  * size and respect for TTL values.
+ * <p>
+ * The entries are spread over independently locked segments that each evict
+ * their least recently used entry. A new entry only replaces it if it was
+ * requested at least as often (TinyLFU), so that a scan over many one-off
+ * zones cannot flush the popular keys. The keys of trust anchors and of the
+ * zones directly below them are pinned and only removed when they expire.
+ * <p>
+ * All entries are additionally indexed in a {@link NameTrie} to find the
+ * closest enclosing key in a single descent from the root. Expiration is
+ * measured with the monotonic {@link System#nanoTime()} and expired entries
+ * are reclaimed by a {@link TimerWheel} that advances on lookups and stores,
+ * not only when they are hit again.
+ * <p>
+ * With refresh-ahead enabled, an entry that is found in the last part of its
+ * lifetime is handed to a {@link RefreshListener} to be revalidated while it
+ * keeps serving. With a stale window, expired entries are retained for that
+ * long and can be retrieved with {@link #findStale(Name, int)} when a fresh
+ * lookup fails.
+ * <p>
+ * The entries can be saved to a snapshot file and loaded again after a
+ * restart. The DNSKEY sets of loaded entries are checked again by a
+ * {@link Verifier} when they are used for the first time. Null key entries
+ * are not saved.
  * 
  * @author davidb
  * @author Ingo Bauersachs
@@ -64,29 +93,101 @@ public class KeyCache {
     /** Name of the property that configures the maximum cache size. */
     public static final String MAX_CACHE_SIZE_CONFIG = "org.jitsi.dnssec.keycache.max_size";
 
-    private static final int MILLISECONDS_PER_SECOND = 1000;
+    /**
+     * Name of the property that configures the percentage of the lifetime at
+     * the end of which a found entry is refreshed ahead of its expiration.
+     */
+    public static final String REFRESH_AHEAD_CONFIG = "org.jitsi.dnssec.keycache.refresh_ahead";
+
+    /**
+     * Name of the property that configures how long [s] expired entries are
+     * retained to be served stale.
+     */
+    public static final String STALE_WINDOW_CONFIG = "org.jitsi.dnssec.keycache.stale_window";
+
     private static final int DEFAULT_MAX_TTL = 900;
     private static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 32;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int PERCENT = 100;
+    private static final int HASH_MULTIPLIER = 31;
+    private static final long REFRESH_RETRY_NANOS = TimeUnit.SECONDS.toNanos(5);
 
-    /** This is the main caching data structure. */
-    private Map<String, CacheEntry> cache;
+    /**
+     * Receives the entries that should be refreshed ahead of their expiration.
+     */
+    public interface RefreshListener {
+        /**
+         * Called when an entry was found in the refresh-ahead part of its
+         * lifetime. The listener should look up the key again in the
+         * background; the new entry replaces the current one when it is
+         * stored.
+         * 
+         * @param ke The key entry to refresh.
+         */
+        void refresh(KeyEntry ke);
+    }
+
+    /**
+     * Checks the DNSKEY sets of entries loaded from a snapshot.
+     */
+    public interface Verifier {
+        /**
+         * Called before an entry that was loaded from a snapshot is used for
+         * the first time. The RRset of the entry must be marked as
+         * {@link SecurityStatus#SECURE} if it is still valid.
+         * 
+         * @param ke The key entry to check.
+         * @return <code>true</code> if the entry can be used,
+         *         <code>false</code> if it must be removed.
+         */
+        boolean verify(KeyEntry ke);
+    }
+
+    /**
+     * The entries with the structures that index, evict and expire them. It is
+     * replaced as a whole when the cache is cleared, and every operation works
+     * on the generation it read first. A store that was still running during a
+     * clear therefore ends up in the discarded generation.
+     */
+    private volatile Generation generation;
+
+    /** The trust anchors to determine the pinned entries, if any. */
+    private TrustAnchorStore trustAnchors;
 
     /** This is the maximum TTL [s] that all key cache entries will have. */
     private long maxTtl = DEFAULT_MAX_TTL;
 
-    /** This is the maximum number of entries that the key cache will hold. */
+    /**
+     * This is the maximum number of entries that the key cache will hold,
+     * excluding the pinned entries.
+     */
     private int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
 
+    /**
+     * The percentage of the lifetime at the end of which entries are
+     * refreshed, 0 to disable refresh-ahead.
+     */
+    private int refreshAhead;
+
+    /** The time [s] that expired entries are retained to be served stale. */
+    private long staleWindow;
+
+    /** Receives the entries to refresh. */
+    private RefreshListener refreshListener;
+
+    /** Checks the entries that were loaded from a snapshot. */
+    private Verifier verifier;
+
+    /** Receives the hits, misses and evictions. */
+    private ValidationMetrics metrics = new NoopValidationMetrics();
+
     /**
      * Creates a new instance of this class.
      */
     public KeyCache() {
-        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, CacheEntry>() {
-            @Override
-            protected boolean removeEldestEntry(java.util.Map.Entry<String, CacheEntry> eldest) {
-                return size() >= KeyCache.this.maxCacheSize;
-            }
-        });
+        this.generation = new Generation(this.maxCacheSize);
     }
 
     /**
@@ -97,6 +198,11 @@ public class KeyCache {
      * <dd>The maximum TTL to apply to any cache entry.
      * <dt>org.jitsi.dnssec.keycache.max_size
      * <dd>The maximum number of entries that the cache will hold.
+     * <dt>org.jitsi.dnssec.keycache.refresh_ahead
+     * <dd>The percentage of the lifetime at the end of which found entries
+     * are refreshed.
+     * <dt>org.jitsi.dnssec.keycache.stale_window
+     * <dd>The time that expired entries are retained to be served stale.
      * </dl>
      * 
      * @param config The configuration information.
@@ -114,7 +220,58 @@ public class KeyCache {
         s = config.getProperty(MAX_CACHE_SIZE_CONFIG);
         if (s != null) {
             this.maxCacheSize = Integer.parseInt(s);
+            this.generation = new Generation(this.maxCacheSize);
         }
+
+        s = config.getProperty(REFRESH_AHEAD_CONFIG);
+        if (s != null) {
+            this.refreshAhead = Math.max(0, Math.min(PERCENT, Integer.parseInt(s)));
+        }
+
+        s = config.getProperty(STALE_WINDOW_CONFIG);
+        if (s != null) {
+            this.staleWindow = Math.max(0, Long.parseLong(s));
+        }
+    }
+
+    /**
+     * Sets the trust anchors whose keys, and the keys of the zones directly
+     * below them, are pinned in the cache.
+     * 
+     * @param trustAnchors The trust anchors, or <code>null</code> to pin
+     *            nothing.
+     */
+    public void setTrustAnchors(TrustAnchorStore trustAnchors) {
+        this.trustAnchors = trustAnchors;
+    }
+
+    /**
+     * Sets the listener that refreshes entries ahead of their expiration.
+     * 
+     * @param listener The listener, or <code>null</code> to disable
+     *            refresh-ahead.
+     */
+    public void setRefreshListener(RefreshListener listener) {
+        this.refreshListener = listener;
+    }
+
+    /**
+     * Sets the verifier for entries that are loaded from a snapshot. Without
+     * a verifier, their DNSKEY sets are never used.
+     * 
+     * @param verifier The verifier.
+     */
+    public void setVerifier(Verifier verifier) {
+        this.verifier = verifier;
+    }
+
+    /**
+     * Sets the metrics that receive the hits, misses and evictions.
+     * 
+     * @param metrics The metrics.
+     */
+    public void setMetrics(ValidationMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
@@ -126,17 +283,56 @@ public class KeyCache {
      * @return The 'closest' entry to 'n' in the same class as 'dclass'.
      */
     public KeyEntry find(Name n, int dclass) {
-        while (n.labels() > 0) {
-            String k = this.key(n, dclass);
-            KeyEntry entry = this.lookupEntry(k);
-            if (entry != null) {
-                return entry;
-            }
+        Generation g = this.generation;
+        long now = System.nanoTime();
+        g.wheel.advance(now);
+        CacheEntry centry = g.index.find(n, dclass, g.unexpired);
+        if (centry == null || !centry.keyEntry.getName().equals(n)) {
+            // TinyLFU also counts the requests for names that are not cached,
+            // so that a popular new zone wins against the victim when stored
+            g.sketch.increment(hash(n, dclass));
+        }
+
+        if (centry == null) {
+            this.metrics.keyCacheMiss();
+            return null;
+        }
 
-            n = new Name(n, 1);
+        this.metrics.keyCacheHit();
+        RefreshListener listener = this.refreshListener;
+        if (listener != null && centry.claimRefresh(now)) {
+            listener.refresh(centry.keyEntry);
+        }
+
+        if (!centry.pinned) {
+            g.segment(centry.key).touch(centry.key);
+            g.sketch.increment(centry.hash);
+        }
+
+        return centry.keyEntry;
+    }
+
+    /**
+     * Find the 'closest' DNSKEY rrset to the given name like
+     * {@link #find(Name, int)}, but including entries that expired less than
+     * the stale window ago. The entries are not touched, so serving them
+     * stale does not keep them in the cache.
+     * 
+     * @param n The name to start the search.
+     * @param dclass The class this DNSKEY rrset should be in.
+     * 
+     * @return The 'closest' entry to 'n' in the same class as 'dclass', fresh
+     *         or stale, always <code>null</code> without a stale window.
+     */
+    public KeyEntry findStale(Name n, int dclass) {
+        if (this.staleWindow == 0) {
+            return null;
         }
 
-        return null;
+        Generation g = this.generation;
+        g.wheel.advance(System.nanoTime());
+        CacheEntry centry = g.index.find(n, dclass, g.notGone);
+        return centry == null ? null : centry.keyEntry;
     }
 
     /**
@@ -158,45 +354,336 @@ public class KeyCache {
             }
         }
 
-        String k = this.key(ke.getName(), ke.getDClass());
-        CacheEntry ce = new CacheEntry(ke, this.maxTtl);
-        this.cache.put(k, ce);
+        this.put(ke, ke.getTTL());
         return ke;
     }
 
+    /**
+     * Removes all entries from the cache. Entries that are stored while the
+     * cache is cleared are discarded as well.
+     */
+    public void clear() {
+        this.generation = new Generation(this.maxCacheSize);
+    }
+
+    /**
+     * Saves the unexpired DNSKEY entries to a snapshot file, replacing the
+     * file if it exists. Null key entries are not saved, they are proven again
+     * when they are needed after a restart.
+     * 
+     * @param file The snapshot file.
+     * @return The number of saved entries.
+     * @throws IOException when the file could not be written.
+     */
+    public int save(File file) throws IOException {
+        long now = System.nanoTime();
+        long wallNow = System.currentTimeMillis();
+        List<KeyCacheSnapshot.Entry> entries = new ArrayList<KeyCacheSnapshot.Entry>();
+        for (CacheEntry ce : this.generation.index.values()) {
+            if (!ce.isExpired(now) && ce.keyEntry.getRRset() != null) {
+                long expiration = wallNow + TimeUnit.NANOSECONDS.toMillis(ce.expiration - now);
+                entries.add(new KeyCacheSnapshot.Entry(ce.keyEntry, expiration));
+            }
+        }
+
+        KeyCacheSnapshot.write(file, entries);
+        return entries.size();
+    }
+
+    /**
+     * Loads the unexpired entries of a snapshot file into the cache. The
+     * entries keep the expiration they had when they were saved.
+     * 
+     * @param file The snapshot file.
+     * @return The number of loaded entries.
+     * @throws IOException when the file could not be read or is corrupt.
+     */
+    public int load(File file) throws IOException {
+        long wallNow = System.currentTimeMillis();
+        int loaded = 0;
+        for (KeyCacheSnapshot.Entry e : KeyCacheSnapshot.read(file)) {
+            long ttl = TimeUnit.MILLISECONDS.toSeconds(e.getExpiration() - wallNow);
+            if (ttl > 0) {
+                this.put(e.getKeyEntry(), ttl);
+                loaded++;
+            }
+        }
+
+        return loaded;
+    }
+
+    private void put(KeyEntry ke, long ttl) {
+        Generation g = this.generation;
+        long now = System.nanoTime();
+        g.wheel.advance(now);
+        String k = this.key(ke.getName(), ke.getDClass());
+        CacheEntry ce = new CacheEntry(k, hash(ke.getName(), ke.getDClass()), ke, Math.min(ttl, this.maxTtl),
+                this.isPinned(ke), now, this.refreshAhead);
+        ce.retention = ce.expiration + TimeUnit.SECONDS.toNanos(this.staleWindow);
+        if (ce.pinned) {
+            g.replaced(g.index.put(ke.getName(), ke.getDClass(), ce));
+            g.wheel.schedule(ce);
+        }
+        else {
+            g.sketch.increment(ce.hash);
+            g.segment(k).put(ce);
+        }
+    }
+
     private String key(Name n, int dclass) {
         return "K" + dclass + "/" + n;
     }
 
-    private KeyEntry lookupEntry(String key) {
-        CacheEntry centry = this.cache.get(key);
-        if (centry == null) {
-            return null;
+    /**
+     * Gets the hash under which the frequency sketch counts a name, without
+     * allocating like {@link #key(Name, int)}.
+     */
+    private static int hash(Name n, int dclass) {
+        return n.hashCode() * HASH_MULTIPLIER + dclass;
+    }
+
+    private boolean isPinned(KeyEntry ke) {
+        if (this.trustAnchors == null) {
+            return false;
         }
 
-        if (centry.expiration.before(new Date())) {
-            this.cache.remove(key);
-            return null;
+        SRRset anchor = this.trustAnchors.find(ke.getName(), ke.getDClass());
+        return anchor != null && ke.getName().labels() - anchor.getName().labels() <= 1;
+    }
+
+    /**
+     * The entries of the cache along with their index, the segments that
+     * evict them, their access frequencies and the wheel that expires them.
+     */
+    private final class Generation {
+        /** The index of all entries, including the pinned ones. */
+        private final NameTrie<CacheEntry> index = new NameTrie<CacheEntry>();
+
+        /** The evictable entries, striped over independently locked segments. */
+        private final Segment[] segments;
+
+        /** The access frequencies of the entries in the segments. */
+        private final FrequencySketch sketch;
+
+        /** Reclaims the entries when they expire. */
+        private final TimerWheel<CacheEntry> wheel;
+
+        /**
+         * Accepts unexpired entries in {@link #index} and removes those beyond
+         * the stale window on the way.
+         */
+        private final NameTrie.Filter<CacheEntry> unexpired = new NameTrie.Filter<CacheEntry>() {
+            public boolean accept(CacheEntry value) {
+                long now = System.nanoTime();
+                if (value.isExpired(now)) {
+                    if (value.isGone(now)) {
+                        Generation.this.remove(value);
+                    }
+
+                    return false;
+                }
+
+                return Generation.this.isVerified(value);
+            }
+        };
+
+        /**
+         * Accepts unexpired entries in {@link #index} and those within the
+         * stale window.
+         */
+        private final NameTrie.Filter<CacheEntry> notGone = new NameTrie.Filter<CacheEntry>() {
+            public boolean accept(CacheEntry value) {
+                return !value.isGone(System.nanoTime()) && Generation.this.isVerified(value);
+            }
+        };
+
+        Generation(int maxCacheSize) {
+            int count = Math.max(1, Math.min(MAX_SEGMENTS, maxCacheSize / MIN_SEGMENT_SIZE));
+            this.segments = new Segment[count];
+            for (int i = 0; i < count; i++) {
+                this.segments[i] = new Segment(this, maxCacheSize / count + (i < maxCacheSize % count ? 1 : 0));
+            }
+
+            this.sketch = new FrequencySketch(maxCacheSize);
+            this.wheel = new TimerWheel<CacheEntry>(new TimerWheel.Listener<CacheEntry>() {
+                public void expired(CacheEntry item) {
+                    Generation.this.remove(item);
+                }
+            }, System.nanoTime());
         }
 
-        return centry.keyEntry;
+        /**
+         * Checks whether the DNSKEY set of an entry is usable, verifying it if
+         * it was loaded from a snapshot and removing the entry if that fails.
+         */
+        private boolean isVerified(CacheEntry ce) {
+            SRRset rrset = ce.keyEntry.getRRset();
+            if (rrset == null || rrset.getSecurityStatus() == SecurityStatus.SECURE) {
+                return true;
+            }
+
+            Verifier v = KeyCache.this.verifier;
+            if (v != null && v.verify(ce.keyEntry) && rrset.getSecurityStatus() == SecurityStatus.SECURE) {
+                return true;
+            }
+
+            this.remove(ce);
+            return false;
+        }
+
+        private void remove(CacheEntry ce) {
+            this.wheel.cancel(ce);
+            if (ce.pinned) {
+                this.index.remove(ce.keyEntry.getName(), ce.keyEntry.getDClass(), ce);
+            }
+            else {
+                this.segment(ce.key).remove(ce);
+            }
+        }
+
+        /**
+         * Releases an entry that was replaced in {@link #index} by a newer
+         * entry of the same name.
+         */
+        private void replaced(CacheEntry old) {
+            if (old != null) {
+                this.remove(old);
+            }
+        }
+
+        private Segment segment(String key) {
+            int h = key.hashCode();
+            h ^= h >>> (Integer.SIZE / 2);
+            return this.segments[(h & Integer.MAX_VALUE) % this.segments.length];
+        }
     }
 
     /**
-     * Utility class to cache key entries with an expiration date.
+     * Utility class to cache key entries with an expiration time.
      */
-    private static class CacheEntry {
-        private Date expiration;
+    private static class CacheEntry implements TimerWheel.Timeout {
+        private String key;
+
+        /** The hash of the name and class in the frequency sketch. */
+        private int hash;
+        private long expiration;
         private KeyEntry keyEntry;
+        private boolean pinned;
+        private int slot;
 
-        CacheEntry(KeyEntry keyEntry, long maxTtl) {
-            long ttl = keyEntry.getTTL();
-            if (ttl > maxTtl) {
-                ttl = maxTtl;
-            }
+        /** The time until the entry is retained, including the stale window. */
+        private long retention;
 
-            this.expiration = new Date(System.currentTimeMillis() + (ttl * MILLISECONDS_PER_SECOND));
+        /**
+         * The time after which the entry is refreshed when found, or
+         * <code>null</code> if refresh-ahead is disabled.
+         */
+        private AtomicLong refreshAt;
+
+        CacheEntry(String key, int hash, KeyEntry keyEntry, long ttl, boolean pinned, long now, int refreshAhead) {
+            long lifetime = TimeUnit.SECONDS.toNanos(ttl);
+            this.expiration = now + lifetime;
             this.keyEntry = keyEntry;
+            this.key = key;
+            this.hash = hash;
+            this.pinned = pinned;
+            if (refreshAhead > 0) {
+                this.refreshAt = new AtomicLong(this.expiration - lifetime / PERCENT * refreshAhead);
+            }
+        }
+
+        boolean isExpired(long now) {
+            return now - this.expiration > 0;
+        }
+
+        boolean isGone(long now) {
+            return now - this.retention > 0;
+        }
+
+        /**
+         * Checks whether the entry is due for a refresh and, if so, defers the
+         * next refresh of this entry in case this one fails.
+         */
+        boolean claimRefresh(long now) {
+            if (this.refreshAt == null) {
+                return false;
+            }
+
+            long at = this.refreshAt.get();
+            return now - at >= 0 && this.refreshAt.compareAndSet(at, now + REFRESH_RETRY_NANOS);
+        }
+
+        public long getDeadline() {
+            return this.retention;
+        }
+
+        public int getSlot() {
+            return this.slot;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * A part of the cache with its own lock, ordered from the least to the
+     * most recently used entry.
+     */
+    private final class Segment {
+        private final Generation owner;
+        private final int capacity;
+        private final LinkedHashMap<String, CacheEntry> map;
+
+        Segment(Generation owner, int capacity) {
+            this.owner = owner;
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<String, CacheEntry>(capacity + 1, LOAD_FACTOR, true);
+        }
+
+        synchronized void touch(String key) {
+            this.map.get(key);
+        }
+
+        synchronized void remove(CacheEntry ce) {
+            if (this.map.get(ce.key) == ce) {
+                this.map.remove(ce.key);
+            }
+
+            this.owner.index.remove(ce.keyEntry.getName(), ce.keyEntry.getDClass(), ce);
+        }
+
+        synchronized void put(CacheEntry ce) {
+            if (!this.map.containsKey(ce.key) && this.map.size() >= this.capacity) {
+                if (this.capacity == 0) {
+                    return;
+                }
+
+                Iterator<Map.Entry<String, CacheEntry>> it = this.map.entrySet().iterator();
+                CacheEntry victim = it.next().getValue();
+                if (!victim.isExpired(System.nanoTime())
+                        && this.owner.sketch.frequency(ce.hash) < this.owner.sketch.frequency(victim.hash)) {
+                    // the victim is more popular than the new entry
+                    return;
+                }
+
+                it.remove();
+                this.owner.wheel.cancel(victim);
+                this.owner.index.remove(victim.keyEntry.getName(), victim.keyEntry.getDClass(), victim);
+                KeyCache.this.metrics.keyCacheEviction();
+            }
+
+            CacheEntry old = this.map.put(ce.key, ce);
+            if (old != null) {
+                this.owner.wheel.cancel(old);
+            }
+
+            old = this.owner.index.put(ce.keyEntry.getName(), ce.keyEntry.getDClass(), ce);
+            if (old != null && old.pinned) {
+                this.owner.remove(old);
+            }
+
+            this.owner.wheel.schedule(ce);
         }
     }
 }
@@ -0,0 +1,233 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jitsi.dnssec.SRRset;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+
+/**
+ * Reads and writes the key cache entries in a compact binary file, so that a
+ * restarted resolver does not have to walk all chains of trust again.
+ * <p>
+ * The file starts with a magic number and the entry count. Each entry
+ * consists of its absolute expiration time, the name and class, the DNSKEY
+ * records and signatures and the DS records and signatures that
+ * authenticated them, in uncompressed wire format. The TTL of an entry is the
+ * one of its DNSKEY records. Only DNSKEY entries are written: null key
+ * entries cannot be proven again without the response that proved them, and
+ * bad key entries are never cached. The file is written to a temporary file
+ * that replaces the snapshot when complete, and is read through a memory
+ * mapping.
+ */
+final class KeyCacheSnapshot {
+    private static final int MAGIC = 0x444b4333;
+    private static final int UNSIGNED_SHORT = 0xFFFF;
+
+    /**
+     * A key entry with its absolute expiration time.
+     */
+    static final class Entry {
+        private final KeyEntry keyEntry;
+        private final long expiration;
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param keyEntry The good key entry.
+         * @param expiration The expiration in milliseconds since the epoch.
+         */
+        Entry(KeyEntry keyEntry, long expiration) {
+            this.keyEntry = keyEntry;
+            this.expiration = expiration;
+        }
+
+        /**
+         * Gets the key entry.
+         *
+         * @return The key entry.
+         */
+        KeyEntry getKeyEntry() {
+            return this.keyEntry;
+        }
+
+        /**
+         * Gets the expiration of the key entry.
+         *
+         * @return The expiration in milliseconds since the epoch.
+         */
+        long getExpiration() {
+            return this.expiration;
+        }
+    }
+
+    private KeyCacheSnapshot() {
+    }
+
+    /**
+     * Writes the entries to a file, replacing the file if it exists.
+     *
+     * @param file The snapshot file.
+     * @param entries The entries to write.
+     * @throws IOException when the file could not be written.
+     */
+    static void write(File file, List<Entry> entries) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                KeyEntry ke = e.keyEntry;
+                out.writeLong(e.expiration);
+                writeBytes(out, ke.getName().toWire());
+                out.writeShort(ke.getDClass());
+                writeRRset(out, ke.getRRset());
+                writeRRset(out, ke.getDSRRset());
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (tmp.renameTo(file)) {
+            return;
+        }
+
+        // the platform cannot rename over an existing file, keep the previous
+        // snapshot aside until the new one is in place
+        File old = new File(file.getPath() + ".old");
+        if (old.exists() && !old.delete()) {
+            throw new IOException("cannot delete " + old);
+        }
+
+        if (file.exists() && !file.renameTo(old)) {
+            throw new IOException("cannot replace " + file);
+        }
+
+        if (!tmp.renameTo(file)) {
+            if (old.exists() && !old.renameTo(file)) {
+                throw new IOException("cannot rename " + tmp + " to " + file + ", previous snapshot is " + old);
+            }
+
+            throw new IOException("cannot rename " + tmp + " to " + file);
+        }
+
+        if (old.exists() && !old.delete()) {
+            throw new IOException("cannot delete " + old);
+        }
+    }
+
+    /**
+     * Reads the entries from a file. The DNSKEY and DS sets are returned
+     * unchecked and must be validated again before they are used.
+     *
+     * @param file The snapshot file.
+     * @return The entries in the file.
+     * @throws IOException when the file could not be read or is corrupt.
+     */
+    static List<Entry> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC) {
+                throw new IOException(file + " is not a key cache snapshot");
+            }
+
+            int count = buf.getInt();
+            List<Entry> entries = new ArrayList<Entry>();
+            for (int n = 0; n < count; n++) {
+                long expiration = buf.getLong();
+                Name name = new Name(readBytes(buf));
+                int dclass = buf.getShort() & UNSIGNED_SHORT;
+                SRRset rrset = readRRset(buf);
+                SRRset dsRRset = readRRset(buf);
+                if (rrset == null || !rrset.getName().equals(name) || rrset.getDClass() != dclass) {
+                    throw new IOException(file + " contains an invalid entry for " + name);
+                }
+
+                entries.add(new Entry(KeyEntry.newKeyEntry(rrset, null, dsRRset), expiration));
+            }
+
+            return entries;
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException(file + " is truncated", e);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException(file + " contains an invalid entry", e);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static void writeRRset(DataOutputStream out, SRRset rrset) throws IOException {
+        if (rrset == null) {
+            out.writeShort(0);
+            return;
+        }
+
+        List<Record> records = new ArrayList<Record>();
+        for (Iterator<?> i = rrset.rrs(); i.hasNext();) {
+            records.add((Record)i.next());
+        }
+
+        for (Iterator<?> i = rrset.sigs(); i.hasNext();) {
+            records.add((Record)i.next());
+        }
+
+        out.writeShort(records.size());
+        for (Record r : records) {
+            writeBytes(out, r.toWire(Section.ANSWER));
+        }
+    }
+
+    private static SRRset readRRset(ByteBuffer buf) throws IOException {
+        int records = buf.getShort() & UNSIGNED_SHORT;
+        if (records == 0) {
+            return null;
+        }
+
+        SRRset rrset = new SRRset();
+        for (int i = 0; i < records; i++) {
+            rrset.addRR(Record.fromWire(readBytes(buf), Section.ANSWER));
+        }
+
+        return rrset;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeShort(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) {
+        byte[] data = new byte[buf.getShort() & UNSIGNED_SHORT];
+        buf.get(data);
+        return data;
+    }
+}
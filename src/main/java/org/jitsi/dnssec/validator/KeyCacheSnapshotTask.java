@@ -0,0 +1,79 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the key cache of a resolver from its snapshot file and saves it
+ * there, periodically when run by the background executor.
+ */
+final class KeyCacheSnapshotTask implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(KeyCacheSnapshotTask.class);
+
+    private final File file;
+    private final KeyCache keyCache;
+
+    /**
+     * Creates a new instance of this class.
+     * 
+     * @param file The snapshot file.
+     * @param keyCache The key cache to load and save.
+     */
+    KeyCacheSnapshotTask(File file, KeyCache keyCache) {
+        this.file = file;
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * Loads the snapshot file into the key cache if it exists. A file that
+     * cannot be read or is corrupt is ignored.
+     */
+    void load() {
+        if (!this.file.exists()) {
+            return;
+        }
+
+        try {
+            int loaded = this.keyCache.load(this.file);
+            logger.debug("loaded " + loaded + " key cache entries from " + this.file);
+        }
+        catch (IOException e) {
+            logger.warn("failed to load key cache snapshot " + this.file, e);
+        }
+    }
+
+    /**
+     * Saves the key cache to the snapshot file.
+     * 
+     * @throws IOException when the file could not be written.
+     */
+    void save() throws IOException {
+        int saved = this.keyCache.save(this.file);
+        logger.debug("saved " + saved + " key cache entries to " + this.file);
+    }
+
+    /**
+     * Saves the key cache and logs a failure.
+     */
+    public void run() {
+        try {
+            this.save();
+        }
+        catch (IOException e) {
+            logger.error("failed to save key cache snapshot " + this.file, e);
+        }
+    }
+}
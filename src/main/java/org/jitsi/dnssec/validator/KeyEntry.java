@@ -40,9 +40,17 @@
 
 package org.jitsi.dnssec.validator;
 
+import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Iterator;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.jitsi.dnssec.SRRset;
+import org.xbill.DNS.DNSKEYRecord;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.DNSSEC.DNSSECException;
 import org.xbill.DNS.Name;
 
 /**
@@ -52,11 +60,15 @@ public final class KeyEntry {
     private static final Logger logger = LoggerFactory.getLogger(KeyEntry.class);
 
     private SRRset rrset;
+    private SRRset dsRRset;
     private Name name;
     private int dclass;
     private long ttl;
     private boolean isBad = false;
+    private boolean upstreamFailure;
     private String badReason;
+    private volatile int[] keySizes;
+    private volatile DNSKEYIndex keyIndex;
 
     /**
      * Create a new, positive key entry.
@@ -88,6 +100,24 @@ public final class KeyEntry {
         return new KeyEntry(rrset);
     }
 
+    /**
+     * Creates a new key entry from actual DNSKEYs that were authenticated by a
+     * DS RRset.
+     * 
+     * @param rrset The DNSKEYs to cache.
+     * @param index The index of the DNSKEYs, <code>null</code> to build it
+     *            when it is needed.
+     * @param dsRRset The DS RRset that authenticated the DNSKEYs, can be
+     *            <code>null</code>.
+     * @return The created key entry.
+     */
+    static KeyEntry newKeyEntry(SRRset rrset, DNSKEYIndex index, SRRset dsRRset) {
+        KeyEntry ke = new KeyEntry(rrset);
+        ke.keyIndex = index;
+        ke.dsRRset = dsRRset;
+        return ke;
+    }
+
     /**
      * Creates a new trusted key entry without actual DNSKEYs, i.e. it is proven
      * that there are no keys.
@@ -123,6 +153,16 @@ public final class KeyEntry {
         return this.rrset;
     }
 
+    /**
+     * Gets the signed DS RRset that authenticated the DNSKEYs of this entry.
+     * 
+     * @return The DS RRset, <code>null</code> if the DNSKEYs were not
+     *         authenticated by a DS RRset, e.g. those of a DNSKEY trust anchor.
+     */
+    SRRset getDSRRset() {
+        return this.dsRRset;
+    }
+
     /**
      * Gets the name of the cache entry.
      * 
@@ -197,4 +237,93 @@ public final class KeyEntry {
         this.badReason = reason;
         logger.debug(this.badReason);
     }
+
+    /**
+     * Gets an indication if this is a bad key because the upstream resolver
+     * failed to answer, as opposed to a response that did not validate.
+     * 
+     * @return <code>True</code> if the upstream resolver failed.
+     */
+    boolean isUpstreamFailure() {
+        return this.upstreamFailure;
+    }
+
+    /**
+     * Marks this bad key as caused by a failure of the upstream resolver.
+     */
+    void setUpstreamFailure() {
+        this.upstreamFailure = true;
+    }
+
+    /**
+     * Gets the index of the DNSKEYs of this entry, which is created on the
+     * first call.
+     * 
+     * @return The index, <code>null</code> for null and bad entries.
+     */
+    DNSKEYIndex getKeyIndex() {
+        DNSKEYIndex index = this.keyIndex;
+        if (index == null && this.rrset != null) {
+            index = new DNSKEYIndex(this.rrset);
+            this.keyIndex = index;
+        }
+
+        return index;
+    }
+
+    /**
+     * Gets the sizes of the DNSKEYs of this entry. The keys are decoded on the
+     * first call only, so that the NSEC3 iteration limits of a response do
+     * not decode them again. The decoded public keys stay with the records,
+     * which the cache keeps for the signature verifications.
+     * 
+     * @return The key sizes in bits, in the order of the DNSKEY set, with -1
+     *         for keys of unsupported or obsolete algorithms and for keys that
+     *         could not be decoded. Empty for null and bad entries. The array
+     *         is shared and must not be modified.
+     */
+    int[] getKeySizes() {
+        int[] sizes = this.keySizes;
+        if (sizes == null) {
+            if (this.rrset == null) {
+                sizes = new int[0];
+            }
+            else {
+                sizes = new int[this.rrset.size()];
+                int n = 0;
+                for (Iterator<?> i = this.rrset.rrs(); i.hasNext() && n < sizes.length;) {
+                    sizes[n++] = keySize((DNSKEYRecord)i.next());
+                }
+            }
+
+            this.keySizes = sizes;
+        }
+
+        return sizes;
+    }
+
+    private static int keySize(DNSKEYRecord dnskey) {
+        try {
+            switch (dnskey.getAlgorithm()) {
+                case Algorithm.RSASHA1:
+                case Algorithm.RSASHA256:
+                case Algorithm.RSASHA512:
+                case Algorithm.RSA_NSEC3_SHA1:
+                    return ((RSAPublicKey)dnskey.getPublicKey()).getModulus().bitLength();
+                case Algorithm.DSA:
+                case Algorithm.DSA_NSEC3_SHA1:
+                    return ((DSAPublicKey)dnskey.getPublicKey()).getParams().getP().bitLength();
+                case Algorithm.ECDSAP256SHA256:
+                case Algorithm.ECDSAP384SHA384:
+                    return ((ECPublicKey)dnskey.getPublicKey()).getParams().getCurve().getField().getFieldSize();
+                default:
+                    // including RSAMD5, obsoleted by rfc6944
+                    return -1;
+            }
+        }
+        catch (DNSSECException e) {
+            logger.error("Could not get public key from DNSKEY record", e);
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,748 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * This file is based on work under the following copyright and permission
+ * notice:
+ * 
+ *     Copyright (c) 2005 VeriSign. All rights reserved.
+ * 
+ *     Redistribution and use in source and binary forms, with or without
+ *     modification, are permitted provided that the following conditions are
+ *     met:
+ * 
+ *     1. Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     2. Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     3. The name of the author may not be used to endorse or promote
+ *        products derived from this software without specific prior written
+ *        permission.
+ * 
+ *     THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *     IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *     WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *     ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ *     INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *     (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ *     SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ *     HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ *     STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ *     IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *     POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.jitsi.dnssec.SMessage;
+import org.jitsi.dnssec.SRRset;
+import org.jitsi.dnssec.SecurityStatus;
+import org.jitsi.dnssec.R;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * The FINDKEY phase of a {@link ValidatingResolver}: walks the chain of trust
+ * from a trust anchor down to the signer of an RRset with DS and DNSKEY
+ * queries and validates the keys on the way. Each step is available on its
+ * own, so that {@link AsyncValidation} can run the phase without blocking.
+ */
+final class KeyFinder {
+    private static final Logger logger = LoggerFactory.getLogger(KeyFinder.class);
+
+    /**
+     * This is the TTL to use when a trust anchor priming query failed to
+     * validate.
+     */
+    private static final long DEFAULT_TA_BAD_KEY_TTL = 60;
+
+    private static final long DEFAULT_STALE_KEY_TIMEOUT = 1800;
+
+    private final ValidatingResolver resolver;
+    private final KeyCache keyCache;
+    private final TrustAnchorStore trustAnchors;
+    private final ValUtils valUtils;
+    private final NSEC3ValUtils n3valUtils;
+
+    /**
+     * Looks up keys in the background, for refresh-ahead and serve-stale.
+     */
+    private final KeyRefresher keyRefresher;
+
+    /**
+     * Indicates whether all DS and DNSKEY queries between the trust anchor
+     * and the signer are sent concurrently when a key is searched.
+     */
+    private boolean prefetchChain;
+
+    /**
+     * The time [ms] to wait for a key before a stale entry is used.
+     */
+    private long staleKeyTimeout = DEFAULT_STALE_KEY_TIMEOUT;
+
+    /**
+     * Creates a new instance of this class.
+     * 
+     * @param resolver The resolver that sends the queries and verifies the
+     *            RRsets.
+     * @param keyCache The cache of validated keys.
+     * @param trustAnchors The trust anchors where the chains of trust start.
+     * @param valUtils The validation utilities of the resolver.
+     * @param n3valUtils The NSEC3 validation utilities of the resolver.
+     * @param keyRefresher Looks up the keys in the background.
+     */
+    KeyFinder(ValidatingResolver resolver, KeyCache keyCache, TrustAnchorStore trustAnchors, ValUtils valUtils,
+            NSEC3ValUtils n3valUtils, KeyRefresher keyRefresher) {
+        this.resolver = resolver;
+        this.keyCache = keyCache;
+        this.trustAnchors = trustAnchors;
+        this.valUtils = valUtils;
+        this.n3valUtils = n3valUtils;
+        this.keyRefresher = keyRefresher;
+    }
+
+    /**
+     * Initializes the key search with {@link ValidatingResolver#PREFETCH_CHAIN_CONFIG}
+     * and {@link ValidatingResolver#STALE_KEY_TIMEOUT_CONFIG}.
+     * 
+     * @param config The configuration data.
+     */
+    void init(Properties config) {
+        this.prefetchChain = Boolean.parseBoolean(config.getProperty(ValidatingResolver.PREFETCH_CHAIN_CONFIG));
+        this.staleKeyTimeout = Long.parseLong(config.getProperty(ValidatingResolver.STALE_KEY_TIMEOUT_CONFIG,
+                Long.toString(DEFAULT_STALE_KEY_TIMEOUT)));
+    }
+
+    /**
+     * Gets the key entry that is needed to validate the given RRset. The
+     * entries already found for the current validation are used first, then
+     * the FINDKEY phase is run (blocking) to completion, unless the keys of
+     * the validation were already collected.
+     * 
+     * @param rrset The RRset for which the key is needed.
+     * @param vstate The state of the validation of the current response.
+     * @return The found key entry.
+     */
+    KeyEntry findKey(SRRset rrset, ValidationState vstate) {
+        Name signerName = rrset.getSignerName();
+        if (signerName == null) {
+            signerName = rrset.getName();
+        }
+
+        String key = ValidationState.key(signerName, rrset.getDClass());
+        KeyEntry ke = vstate.keyEntries.get(key);
+        if (ke != null) {
+            return ke;
+        }
+
+        if (vstate.keysCollected) {
+            logger.debug("key of " + signerName + " was not collected before the validation");
+            ke = KeyEntry.newBadKeyEntry(signerName, rrset.getDClass(), 0);
+            ke.setBadReason(R.get("dnskey.not_collected", signerName));
+            vstate.keyEntries.put(key, ke);
+            return ke;
+        }
+
+        FindKeyState state = this.prepareFindKey(rrset, vstate);
+        if (this.isStaleLookup(state)) {
+            // don't let the client wait longer than the timeout when the key
+            // could be served stale, the lookup continues in the background
+            this.applyStaleLookup(state, this.keyRefresher.lookup(state.signerName, state.qclass, this.staleKeyTimeout));
+        }
+
+        while (state.request != null) {
+            Message request = state.request;
+            this.processFindKeyResult(request, this.fetchKeyEntry(state), state);
+        }
+
+        vstate.keyEntries.put(key, state.keyEntry);
+        return state.keyEntry;
+    }
+
+    /**
+     * Indicates whether the key of a prepared FINDKEY phase is looked up in
+     * the background, with the stale entry as the fallback, instead of
+     * running the phase.
+     * 
+     * @param state The state of the prepared FINDKEY phase.
+     * @return <code>true</code> if a stale entry exists and the stale key
+     *         timeout is enabled.
+     */
+    boolean isStaleLookup(FindKeyState state) {
+        return state.request != null && state.staleKeyEntry != null && this.staleKeyTimeout > 0;
+    }
+
+    /**
+     * Looks up the key of a prepared FINDKEY phase in the background without
+     * blocking, and ends the phase with the result or, if the lookup fails or
+     * takes longer than the stale key timeout, with the stale entry.
+     * 
+     * @param state The state of the prepared FINDKEY phase.
+     * @param done Called on a background thread once the phase has ended.
+     */
+    void lookupStale(final FindKeyState state, final Runnable done) {
+        this.keyRefresher.lookup(state.signerName, state.qclass, this.staleKeyTimeout, new KeyRefresher.Callback() {
+            public void found(KeyEntry ke) {
+                KeyFinder.this.applyStaleLookup(state, ke);
+                done.run();
+            }
+        });
+    }
+
+    private void applyStaleLookup(FindKeyState state, KeyEntry ke) {
+        state.request = null;
+        state.keyEntry = ke;
+        this.useStaleKeyEntry(state);
+    }
+
+    /**
+     * Looks up the key of a name again along the chain of trust, starting
+     * from the key of its parent if that is cached, but never from the cached
+     * entry of the name itself. The result is stored in the key cache and
+     * replaces the current entry. The lookup has its own budget, like the
+     * validation of a query.
+     * 
+     * @param name The name of the key.
+     * @param dclass The class of the key.
+     * @return The new key entry, or <code>null</code> if the name is not below
+     *         a trust anchor.
+     */
+    KeyEntry lookupKey(Name name, int dclass) {
+        SRRset trustAnchorRRset = this.trustAnchors.find(name, dclass);
+        if (trustAnchorRRset == null) {
+            return null;
+        }
+
+        FindKeyState state = new FindKeyState();
+        state.signerName = name;
+        state.qclass = dclass;
+        state.budget = this.resolver.newBudget();
+        if (name.labels() > trustAnchorRRset.getName().labels()) {
+            state.keyEntry = this.keyCache.find(new Name(name, 1), dclass);
+        }
+
+        if (state.keyEntry == null || !state.keyEntry.isGood() || state.keyEntry.getName().labels() < trustAnchorRRset.getName().labels()) {
+            state.keyEntry = null;
+            state.dsRRset = trustAnchorRRset;
+            state.currentDSKeyName = new Name(trustAnchorRRset.getName(), 1);
+        }
+
+        state.request = this.processFindKey(state);
+        while (state.request != null) {
+            Message request = state.request;
+            this.processFindKeyResult(request, this.fetchKeyEntry(state), state);
+        }
+
+        return state.keyEntry;
+    }
+
+    /**
+     * Creates the state for the FINDKEY phase of the given RRset. If the key
+     * entry can be determined without further queries (no trust anchor, or
+     * found in the cache), the returned state has no pending request.
+     * 
+     * @param rrset The RRset for which the key is needed.
+     * @param vstate The state of the validation that needs the key.
+     * @return The state of the FINDKEY phase.
+     */
+    FindKeyState prepareFindKey(SRRset rrset, ValidationState vstate) {
+        FindKeyState state = new FindKeyState();
+        state.trace = vstate.trace;
+        state.budget = vstate.budget;
+        state.signerName = rrset.getSignerName();
+        state.qclass = rrset.getDClass();
+
+        if (state.signerName == null) {
+            state.signerName = rrset.getName();
+        }
+
+        SRRset trustAnchorRRset = this.trustAnchors.find(state.signerName, rrset.getDClass());
+        if (trustAnchorRRset == null) {
+            // response isn't under a trust anchor, so we cannot validate.
+            state.keyEntry = KeyEntry.newNullKeyEntry(rrset.getSignerName(), rrset.getDClass(), DEFAULT_TA_BAD_KEY_TTL);
+            return state;
+        }
+
+        state.keyEntry = this.keyCache.find(state.signerName, rrset.getDClass());
+        if (state.keyEntry == null || (!state.keyEntry.getName().equals(state.signerName) && state.keyEntry.isGood())) {
+            // start the FINDKEY phase with the trust anchor
+            state.dsRRset = trustAnchorRRset;
+            state.keyEntry = null;
+            state.currentDSKeyName = new Name(trustAnchorRRset.getName(), 1);
+
+            // and otherwise, don't continue processing this event.
+            // (it will be reactivated when the priming query returns).
+            state.request = this.processFindKey(state);
+            KeyEntry stale = this.keyCache.findStale(state.signerName, state.qclass);
+            if (stale != null && (stale.getName().equals(state.signerName) || !stale.isGood())) {
+                state.staleKeyEntry = stale;
+            }
+            else if (this.prefetchChain && state.request != null) {
+                state.prefetch = new ChainPrefetch(this.resolver.headResolver, this.resolver.keyRequests, trustAnchorRRset.getName(),
+                        state.signerName, state.qclass, this.resolver.getMetrics(), state.trace);
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Gets the response to the pending request of a FINDKEY phase, either
+     * from the prefetched queries or by sending it to the head resolver.
+     * 
+     * @param state The state associated with the current key finding phase.
+     * @return The response to {@link FindKeyState#request}.
+     */
+    private SMessage sendFindKeyRequest(FindKeyState state) {
+        if (state.prefetch != null) {
+            try {
+                Message response = state.prefetch.get(state.request, this.resolver.getTimeout());
+                if (response != null) {
+                    return new SMessage(response);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ValidatingResolver.errorMessage(state.request, Rcode.SERVFAIL);
+            }
+            catch (Exception e) {
+                logger.error("failed to send query", e);
+                return ValidatingResolver.errorMessage(state.request, Rcode.SERVFAIL);
+            }
+        }
+
+        return this.resolver.sendRequest(state.request, state.trace);
+    }
+
+    /**
+     * Sends the pending request of a FINDKEY phase and processes the response
+     * to a key entry. If an identical request of another phase is already in
+     * flight, its key entry is awaited and used instead.
+     * 
+     * @param state The state associated with the current key finding phase.
+     * @return The key entry that resulted from {@link FindKeyState#request}.
+     */
+    private KeyEntry fetchKeyEntry(FindKeyState state) {
+        Message request = state.request;
+        InFlightKeyRequests.Flight flight;
+        while ((flight = this.resolver.keyRequests.join(request)) != null) {
+            try {
+                if (!flight.await(this.resolver.getTimeout())) {
+                    logger.debug("identical query " + request.getQuestion() + " did not complete in time");
+                    this.resolver.keyRequests.expire(request, flight);
+                    return this.processFindKeyResponse(request, ValidatingResolver.errorMessage(request, Rcode.SERVFAIL), state);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return this.processFindKeyResponse(request, ValidatingResolver.errorMessage(request, Rcode.SERVFAIL), state);
+            }
+
+            if (!flight.isFailed()) {
+                return flight.getKeyEntry();
+            }
+        }
+
+        boolean completed = false;
+        try {
+            KeyEntry ke = this.processFindKeyResponse(request, this.sendFindKeyRequest(state), state);
+            if (!ValidationBudget.isExhausted(state.budget)) {
+                // else the entry might be bad for lack of budget, don't share
+                this.resolver.keyRequests.complete(request, ke);
+                completed = true;
+            }
+
+            return ke;
+        }
+        finally {
+            if (!completed) {
+                // release the waiting phases on any exception or error
+                this.resolver.keyRequests.fail(request);
+            }
+        }
+    }
+
+    /**
+     * Process the FINDKEY state. Generally this just calculates the next name
+     * to query and either creates a DS or a DNSKEY query. It will check to see
+     * if the correct key has already been reached, in which case the FINDKEY
+     * phase has ended.
+     * 
+     * @param state The state associated with the current key finding phase.
+     * @return The next query to send, or <code>null</code> if the FINDKEY
+     *         phase has ended.
+     */
+    private Message processFindKey(FindKeyState state) {
+        // We know that state.keyEntry is not a null or bad key -- if it were,
+        // then previous processing should have directed this event to a
+        // different state.
+        int qclass = state.qclass;
+        Name targetKeyName = state.signerName;
+        Name currentKeyName = Name.empty;
+        if (state.keyEntry != null) {
+            currentKeyName = state.keyEntry.getName();
+        }
+
+        if (state.currentDSKeyName != null) {
+            currentKeyName = state.currentDSKeyName;
+            state.currentDSKeyName = null;
+        }
+
+        // If our current key entry matches our target, then we are done.
+        if (currentKeyName.equals(targetKeyName)) {
+            return null;
+        }
+
+        if (state.emptyDSName != null) {
+            currentKeyName = state.emptyDSName;
+        }
+
+        // Calculate the next lookup name.
+        int targetLabels = targetKeyName.labels();
+        int currentLabels = currentKeyName.labels();
+        int l = targetLabels - currentLabels - 1;
+
+        // the next key name would be trying to invent a name, so we stop here
+        if (l < 0) {
+            return null;
+        }
+
+        Name nextKeyName = new Name(targetKeyName, l);
+        logger.trace("findKey: targetKeyName = " + targetKeyName + ", currentKeyName = " + currentKeyName + ", nextKeyName = " + nextKeyName);
+
+        if (!ValidationBudget.spend(state.budget, ValidationBudget.Resource.QUERY)) {
+            state.keyEntry = KeyEntry.newBadKeyEntry(targetKeyName, qclass, DEFAULT_TA_BAD_KEY_TTL);
+            state.keyEntry.setBadReason(state.budget.getBadReason());
+            return null;
+        }
+
+        // The next step is either to query for the next DS, or to query for the
+        // next DNSKEY.
+        if (state.dsRRset == null || !state.dsRRset.getName().equals(nextKeyName)) {
+            return Message.newQuery(Record.newRecord(nextKeyName, Type.DS, qclass));
+        }
+
+        // Otherwise, it is time to query for the DNSKEY
+        return Message.newQuery(Record.newRecord(state.dsRRset.getName(), Type.DNSKEY, qclass));
+    }
+
+    /**
+     * Processes the response to the pending request of a FINDKEY phase into a
+     * key entry. The state is not modified, so the key entry can be shared
+     * with other phases that need the same request.
+     * 
+     * @param request The DS or DNSKEY request.
+     * @param response The response to the request.
+     * @param state The state associated with the current key finding phase.
+     * @return The key entry that resulted from the response, see
+     *         {@link #dsResponseToKE(SMessage, Message, KeyEntry, FindKeyState)} for DS
+     *         requests.
+     */
+    KeyEntry processFindKeyResponse(Message request, SMessage response, FindKeyState state) {
+        KeyEntry ke;
+        if (request.getQuestion().getType() == Type.DS) {
+            ke = this.processDSResponse(request, response, state);
+        }
+        else {
+            ke = this.processDNSKEYResponse(request, response, state);
+        }
+
+        // a SERVFAIL is also what a timeout or send error turns into
+        if (ke != null && ke.isBad() && response.getRcode() == Rcode.SERVFAIL) {
+            ke.setUpstreamFailure();
+        }
+
+        return ke;
+    }
+
+    /**
+     * Applies the key entry that resulted from the pending request of a
+     * FINDKEY phase and calculates the next request, if any.
+     * 
+     * @param request The DS or DNSKEY request.
+     * @param ke The key entry that resulted from the request.
+     * @param state The state associated with the current key finding phase.
+     */
+    void processFindKeyResult(Message request, KeyEntry ke, FindKeyState state) {
+        state.depth++;
+        this.applyFindKeyResult(request, ke, state);
+        if (state.request == null) {
+            this.resolver.getMetrics().keySearched(state.depth);
+        }
+    }
+
+    private void applyFindKeyResult(Message request, KeyEntry ke, FindKeyState state) {
+        state.request = null;
+        if (request.getQuestion().getType() == Type.DS) {
+            state.emptyDSName = null;
+            state.dsRRset = null;
+            if (ke == null) {
+                // DS response indicated that we aren't on a delegation point.
+                state.emptyDSName = request.getQuestion().getName();
+            }
+            else if (ke.isGood()) {
+                state.dsRRset = ke.getRRset();
+                state.currentDSKeyName = new Name(ke.getRRset().getName(), 1);
+            }
+            else {
+                // The FINDKEY phase has ended, so move on.
+                state.keyEntry = ke;
+                this.useStaleKeyEntry(state);
+                return;
+            }
+        }
+        else {
+            state.keyEntry = ke;
+
+            // If the key entry isBad or isNull, then we can move on to the
+            // next state.
+            if (!ke.isGood()) {
+                this.useStaleKeyEntry(state);
+                return;
+            }
+        }
+
+        // If good, we stay in the FINDKEY state.
+        state.request = this.processFindKey(state);
+    }
+
+    /**
+     * Replaces a missing key entry, or a bad one that the upstream resolver
+     * caused, with the stale entry from the key cache, if there is one. A key
+     * entry that is bad because a response did not validate is kept.
+     * 
+     * @param state The state associated with the current key finding phase.
+     */
+    private void useStaleKeyEntry(FindKeyState state) {
+        if (state.staleKeyEntry != null
+                && (state.keyEntry == null || (state.keyEntry.isBad() && state.keyEntry.isUpstreamFailure()))) {
+            logger.debug("serving stale key entry for " + state.staleKeyEntry.getName());
+            state.keyEntry = state.staleKeyEntry;
+        }
+    }
+
+    /**
+     * Given a DS response, the DS request, and the current key rrset, validate
+     * the DS response, returning a KeyEntry.
+     * 
+     * @param response The DS response.
+     * @param request The DS request.
+     * @param ke The current key entry from the forEvent state.
+     * @param state The state of the FINDKEY phase, with the trace and budget
+     *            of the validation.
+     * 
+     * @return A KeyEntry, bad if the DS response fails to validate, null if the
+     *         DS response indicated an end to secure space, good if the DS
+     *         validated. It returns null if the DS response indicated that the
+     *         request wasn't a delegation point.
+     */
+    private KeyEntry dsResponseToKE(SMessage response, Message request, KeyEntry ke, FindKeyState state) {
+        Name qname = request.getQuestion().getName();
+        int qclass = request.getQuestion().getDClass();
+
+        SecurityStatus status;
+        ResponseClassification subtype = ValUtils.classifyResponse(request, response);
+
+        KeyEntry bogusKE = KeyEntry.newBadKeyEntry(qname, qclass, DEFAULT_TA_BAD_KEY_TTL);
+        switch (subtype) {
+            case POSITIVE:
+                // Verify only returns BOGUS or SECURE. If the rrset is bogus,
+                // then we are done.
+                SRRset dsRrset = response.findAnswerRRset(qname, Type.DS, qclass);
+                status = this.resolver.verifySRRset(dsRrset, ke, state.trace, state.budget);
+                if (status != SecurityStatus.SECURE) {
+                    bogusKE.setBadReason(R.get("failed.ds"));
+                    return bogusKE;
+                }
+
+                if (!ValUtils.atLeastOneSupportedAlgorithm(dsRrset)) {
+                    KeyEntry nullKey = KeyEntry.newNullKeyEntry(qname, qclass, dsRrset.getTTL());
+                    nullKey.setBadReason(R.get("insecure.ds.noalgorithms", qname));
+                    return nullKey;
+                }
+
+                // Otherwise, we return the positive response.
+                logger.trace("DS rrset was good.");
+                return KeyEntry.newKeyEntry(dsRrset);
+
+            case CNAME:
+                // Verify only returns BOGUS or SECURE. If the rrset is bogus,
+                // then we are done.
+                SRRset cnameRrset = response.findAnswerRRset(qname, Type.CNAME, qclass);
+                status = this.resolver.verifySRRset(cnameRrset, ke, state.trace, state.budget);
+                if (status == SecurityStatus.SECURE) {
+                    return null;
+                }
+
+                bogusKE.setBadReason(R.get("failed.ds.cname"));
+                return bogusKE;
+
+            case NODATA:
+            case NAMEERROR:
+                return this.dsReponseToKeForNodata(response, request, ke, state);
+
+            default:
+                // We've encountered an unhandled classification for this
+                // response.
+                bogusKE.setBadReason(R.get("failed.ds.notype", subtype));
+                return bogusKE;
+        }
+    }
+
+    /**
+     * Given a DS response, the DS request, and the current key rrset, validate
+     * the DS response for the NODATA case, returning a KeyEntry.
+     * 
+     * @param response The DS response.
+     * @param request The DS request.
+     * @param ke The current key entry from the forEvent state.
+     * @param state The state of the FINDKEY phase, with the trace and budget
+     *            of the validation.
+     * 
+     * @return A KeyEntry, bad if the DS response fails to validate, null if the
+     *         DS response indicated an end to secure space, good if the DS
+     *         validated. It returns null if the DS response indicated that the
+     *         request wasn't a delegation point.
+     */
+    private KeyEntry dsReponseToKeForNodata(SMessage response, Message request, KeyEntry ke, FindKeyState state) {
+        Name qname = request.getQuestion().getName();
+        int qclass = request.getQuestion().getDClass();
+        KeyEntry bogusKE = KeyEntry.newBadKeyEntry(qname, qclass, DEFAULT_TA_BAD_KEY_TTL);
+
+        if (!this.valUtils.hasSignedNsecs(response)) {
+            bogusKE.setBadReason(R.get("failed.ds.nonsec", qname));
+            return bogusKE;
+        }
+
+        // Try to prove absence of the DS with NSEC
+        JustifiedSecStatus status = this.valUtils.nsecProvesNodataDsReply(request, response, ke, state.budget);
+        switch (status.status) {
+            case SECURE:
+                KeyEntry nullKey = KeyEntry.newNullKeyEntry(qname, qclass, DEFAULT_TA_BAD_KEY_TTL);
+                nullKey.setBadReason(R.get("insecure.ds.nsec"));
+                return nullKey;
+            case INSECURE:
+                return null;
+            case BOGUS:
+                bogusKE.setBadReason(status.reason);
+                return bogusKE;
+            default:
+                // NSEC proof did not work, try NSEC3
+                break;
+        }
+
+        // Or it could be using NSEC3.
+        SRRset[] nsec3Rrsets = response.getSectionRRsets(Section.AUTHORITY, Type.NSEC3);
+        List<SRRset> nsec3s = new ArrayList<SRRset>(0);
+        Name nsec3Signer = null;
+        long nsec3TTL = -1;
+        if (nsec3Rrsets.length > 0) {
+            // Attempt to prove no DS with NSEC3s.
+            for (SRRset nsec3set : nsec3Rrsets) {
+                SecurityStatus sstatus = this.resolver.verifySRRset(nsec3set, ke, state.trace, state.budget);
+                if (sstatus != SecurityStatus.SECURE) {
+                    // We could just fail here as there is an invalid rrset, but
+                    // skipping doesn't matter because we might not need it or
+                    // the proof will fail anyway.
+                    logger.debug("skipping bad nsec3");
+                    continue;
+                }
+
+                nsec3Signer = nsec3set.getSignerName();
+                if (nsec3TTL < 0 || nsec3set.getTTL() < nsec3TTL) {
+                    nsec3TTL = nsec3set.getTTL();
+                }
+
+                nsec3s.add(nsec3set);
+            }
+
+            long start = ValidationTrace.now(state.trace);
+            SecurityStatus proof = this.n3valUtils.proveNoDS(nsec3s, qname, nsec3Signer, state.budget);
+            ValidationTrace.add(state.trace, ValidationTrace.SpanType.NSEC3_PROOF, qname, Type.DS, start, proof.name());
+            switch (proof) {
+                case INSECURE:
+                    // case insecure also continues to unsigned space. 
+                    // If nsec3-iter-count too high or optout, then treat below as unsigned
+                case SECURE:
+                    KeyEntry nullKey = KeyEntry.newNullKeyEntry(qname, qclass, nsec3TTL);
+                    nullKey.setBadReason(R.get("insecure.ds.nsec3"));
+                    return nullKey;
+                case INDETERMINATE:
+                    logger.debug("nsec3s for the referral proved no delegation.");
+                    return null;
+                case BOGUS:
+                    bogusKE.setBadReason(R.get("failed.ds.nsec3"));
+                    return bogusKE;
+                default:
+                    bogusKE.setBadReason(R.get("unknown.ds.nsec3"));
+                    return bogusKE;
+            }
+        }
+
+        // Apparently, no available NSEC/NSEC3 proved NODATA, so this is
+        // BOGUS.
+        bogusKE.setBadReason(R.get("failed.ds.unknown"));
+        return bogusKE;
+    }
+
+    /**
+     * This handles the responses to locally generated DS queries.
+     * 
+     * @param request The request for which the response is processed.
+     * @param response The response to process.
+     * @param state The state associated with the current key finding phase.
+     * @return The DS key entry, <code>null</code> if the response indicated
+     *         that the queried name is not a delegation point.
+     */
+    private KeyEntry processDSResponse(Message request, SMessage response, FindKeyState state) {
+        // The reason for the DS to be not good (that is, either bad
+        // or null) should have been logged by dsResponseToKE.
+        KeyEntry dsKE = this.dsResponseToKE(response, request, state.keyEntry, state);
+        if (dsKE != null && dsKE.isNull()) {
+            this.keyCache.store(dsKE);
+        }
+
+        return dsKE;
+    }
+
+    private KeyEntry processDNSKEYResponse(Message request, SMessage response, FindKeyState state) {
+        Name qname = request.getQuestion().getName();
+        int qclass = request.getQuestion().getDClass();
+
+        SRRset dnskeyRrset = response.findAnswerRRset(qname, Type.DNSKEY, qclass);
+        if (dnskeyRrset == null) {
+            // If the DNSKEY rrset was missing, this is the end of the line.
+            KeyEntry ke = KeyEntry.newBadKeyEntry(qname, qclass, DEFAULT_TA_BAD_KEY_TTL);
+            ke.setBadReason(R.get("dnskey.no_rrset", qname));
+            return ke;
+        }
+
+        long start = ValidationTrace.now(state.trace);
+        KeyEntry ke = this.valUtils.verifyNewDNSKEYs(dnskeyRrset, state.dsRRset, DEFAULT_TA_BAD_KEY_TTL, state.budget);
+        SecurityStatus status = ke.isGood() ? SecurityStatus.SECURE : (ke.isBad() ? SecurityStatus.BOGUS : SecurityStatus.INSECURE);
+        ValidationTrace.add(state.trace, ValidationTrace.SpanType.VERIFY_DNSKEYS, qname, Type.DNSKEY, start, status.name());
+
+        // The DNSKEY validated, so cache it as a trusted key rrset.
+        if (ke.isGood()) {
+            this.keyCache.store(ke);
+        }
+
+        return ke;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jitsi.dnssec.SRRset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.TextParseException;
+
+/**
+ * Fetches and validates the DNSKEY sets of all trust anchors and of a list of
+ * frequently used zones into the key cache, so that the first queries don't
+ * have to walk the chain of trust. The trust anchors are read when the task
+ * runs, not when it is created.
+ */
+final class KeyPrimer implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(KeyPrimer.class);
+
+    private final ValidatingResolver resolver;
+    private final TrustAnchorStore trustAnchors;
+    private final List<Name> zones;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Creates a new instance of this class.
+     * 
+     * @param resolver The resolver that looks up the keys.
+     * @param trustAnchors The trust anchors to prime.
+     * @param zones The additional zones (class IN) to prime, ordered from the
+     *            root down.
+     */
+    KeyPrimer(ValidatingResolver resolver, TrustAnchorStore trustAnchors, List<Name> zones) {
+        this.resolver = resolver;
+        this.trustAnchors = trustAnchors;
+        this.zones = zones;
+    }
+
+    /**
+     * Parses a comma separated list of zone names and orders them from the
+     * root down, so that the keys of parent zones are primed first and can be
+     * used for their children.
+     * 
+     * @param list The list of zones, possibly <code>null</code> or empty.
+     * @return The zones.
+     * @throws TextParseException if a name is invalid.
+     */
+    static List<Name> parseZones(String list) throws TextParseException {
+        List<Name> zones = new ArrayList<Name>();
+        if (list == null) {
+            return zones;
+        }
+
+        for (String zone : list.split(",")) {
+            if (zone.trim().length() > 0) {
+                zones.add(Name.fromString(zone.trim(), Name.root));
+            }
+        }
+
+        Collections.sort(zones, new Comparator<Name>() {
+            public int compare(Name a, Name b) {
+                return a.labels() - b.labels();
+            }
+        });
+
+        return zones;
+    }
+
+    /**
+     * Primes the keys of the trust anchors, then those of the zones.
+     */
+    public void run() {
+        this.started.set(true);
+        try {
+            for (SRRset anchor : this.trustAnchors.values()) {
+                this.prime(anchor.getName(), anchor.getDClass());
+            }
+
+            for (Name zone : this.zones) {
+                this.prime(zone, DClass.IN);
+            }
+
+            logger.debug("priming completed");
+        }
+        finally {
+            this.done.countDown();
+        }
+    }
+
+    /**
+     * Indicates whether the task has started to run.
+     * 
+     * @return <code>true</code> if the task has started.
+     */
+    boolean isStarted() {
+        return this.started.get();
+    }
+
+    /**
+     * Indicates whether the task has completed, successfully or not.
+     * 
+     * @return <code>true</code> if the task has completed.
+     */
+    boolean isDone() {
+        return this.done.getCount() == 0;
+    }
+
+    /**
+     * Waits until the task has completed.
+     * 
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return <code>true</code> if the task has completed.
+     * @throws InterruptedException if the waiting thread was interrupted.
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.done.await(timeout, unit);
+    }
+
+    private void prime(Name name, int dclass) {
+        try {
+            KeyEntry ke = this.resolver.keyFinder.lookupKey(name, dclass);
+            if (ke == null || ke.isBad()) {
+                logger.warn("failed to prime key of " + name + (ke == null ? "" : ": " + ke.getBadReason()));
+            }
+        }
+        catch (RuntimeException e) {
+            logger.error("failed to prime key of " + name, e);
+        }
+    }
+}
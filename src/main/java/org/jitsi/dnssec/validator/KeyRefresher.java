@@ -0,0 +1,181 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.Name;
+
+/**
+ * Looks up keys in the background. These are the keys that the
+ * {@link KeyCache} wants to have refreshed ahead of their expiration, where
+ * the current entry keeps serving until the lookup stores the new one, and
+ * expired keys that a validation waits for only for a limited time before it
+ * serves the stale entry. There is at most one pending lookup of an expired
+ * key per name; while it runs, further validations serve the stale entry
+ * right away. The refreshes run on the background thread of the resolver,
+ * the lookups of expired keys on threads of their own so that their timeout
+ * is not spent waiting behind other background tasks.
+ */
+final class KeyRefresher implements KeyCache.RefreshListener {
+    private static final Logger logger = LoggerFactory.getLogger(KeyRefresher.class);
+
+    private final ValidatingResolver resolver;
+    private final ConcurrentMap<String, FutureTask<KeyEntry>> pending = new ConcurrentHashMap<String, FutureTask<KeyEntry>>();
+    private ExecutorService executor;
+
+    /**
+     * Receives the result of a lookup that does not block the caller.
+     */
+    interface Callback {
+        /**
+         * Called once with the result of the lookup.
+         * 
+         * @param ke The key entry, or <code>null</code> if the lookup failed,
+         *            did not complete in time or was already pending.
+         */
+        void found(KeyEntry ke);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     * 
+     * @param resolver The resolver that looks up the keys.
+     */
+    KeyRefresher(ValidatingResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Looks up a key in the background and waits for the result for a limited
+     * time. The lookup continues after the timeout and stores its result in
+     * the key cache. If a lookup of the key is already pending, it is not
+     * waited for.
+     * 
+     * @param name The name of the key.
+     * @param dclass The class of the key.
+     * @param timeout The time [ms] to wait for the result.
+     * @return The key entry, or <code>null</code> if the lookup failed, did
+     *         not complete in time or was already pending.
+     */
+    KeyEntry lookup(final Name name, final int dclass, long timeout) {
+        final String key = name + "/" + dclass;
+        if (this.pending.containsKey(key)) {
+            logger.debug("lookup of key " + name + " is already pending");
+            return null;
+        }
+
+        FutureTask<KeyEntry> f = new FutureTask<KeyEntry>(new Callable<KeyEntry>() {
+            public KeyEntry call() {
+                try {
+                    return KeyRefresher.this.resolver.keyFinder.lookupKey(name, dclass);
+                }
+                finally {
+                    KeyRefresher.this.pending.remove(key);
+                }
+            }
+        });
+
+        if (this.pending.putIfAbsent(key, f) != null) {
+            logger.debug("lookup of key " + name + " is already pending");
+            return null;
+        }
+
+        try {
+            this.getExecutor().execute(f);
+        }
+        catch (RejectedExecutionException e) {
+            this.pending.remove(key, f);
+            throw e;
+        }
+
+        try {
+            return f.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            logger.debug("lookup of key " + name + " did not complete in " + timeout + "ms");
+        }
+        catch (ExecutionException e) {
+            logger.error("failed to look up key of " + name, e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return null;
+    }
+
+    /**
+     * Looks up a key in the background like
+     * {@link #lookup(Name, int, long)}, but passes the result to a callback
+     * instead of blocking the caller.
+     * 
+     * @param name The name of the key.
+     * @param dclass The class of the key.
+     * @param timeout The time [ms] to wait for the result.
+     * @param callback Receives the result on a background thread.
+     */
+    void lookup(final Name name, final int dclass, final long timeout, final Callback callback) {
+        this.getExecutor().execute(new Runnable() {
+            public void run() {
+                callback.found(KeyRefresher.this.lookup(name, dclass, timeout));
+            }
+        });
+    }
+
+    /**
+     * Schedules the lookup of the key of the given entry.
+     * 
+     * @param ke The key entry to refresh.
+     */
+    public void refresh(final KeyEntry ke) {
+        logger.trace("refreshing key of " + ke.getName());
+        this.resolver.getScheduler().execute(new Runnable() {
+            public void run() {
+                try {
+                    KeyEntry refreshed = KeyRefresher.this.resolver.keyFinder.lookupKey(ke.getName(), ke.getDClass());
+                    if (refreshed == null || !refreshed.getName().equals(ke.getName())) {
+                        logger.debug("refresh of key " + ke.getName() + " did not yield a new entry");
+                    }
+                }
+                catch (RuntimeException e) {
+                    logger.error("failed to refresh key of " + ke.getName(), e);
+                }
+            }
+        });
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (this.executor == null) {
+            this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "dnssecjava-key-lookup");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        return this.executor;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.xbill.DNS.NSEC3Record;
+import org.xbill.DNS.Name;
+
+/**
+ * The NSEC3 hashes of owner names, shared by the proofs of all responses. The
+ * zone apex, the closest encloser and its wildcard are hashed for almost
+ * every proof of a zone, and at high iteration counts this is the most
+ * expensive part of the validation of negative responses.
+ * <p>
+ * The least recently used hash is evicted. These shared hashes are read by
+ * nearly every proof of their zone, so a flood of queries for random names,
+ * whose hashes are needed only once, cannot push them out.
+ */
+final class NSEC3HashCache {
+    /**
+     * Name of the property that configures the maximum number of cached
+     * hashes, 0 disables the cache.
+     */
+    static final String MAX_SIZE_CONFIG = "org.jitsi.dnssec.nsec3.hashcache.max_size";
+
+    private static final int DEFAULT_MAX_SIZE = 1000;
+    private static final int HASH_PRIME = 31;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The name and NSEC3 parameters from which a hash is computed.
+     */
+    static final class Key {
+        private final Name name;
+        private final int algorithm;
+        private final int iterations;
+        private final byte[] salt;
+        private final int hashCode;
+
+        /**
+         * Creates a new instance of this class.
+         * 
+         * @param nsec3 The NSEC3 record with the hash parameters.
+         * @param name The name to hash.
+         */
+        Key(NSEC3Record nsec3, Name name) {
+            this.name = name;
+            this.algorithm = nsec3.getHashAlgorithm();
+            this.iterations = nsec3.getIterations();
+            this.salt = nsec3.getSalt();
+            int h = name.hashCode();
+            h = h * HASH_PRIME + this.algorithm;
+            h = h * HASH_PRIME + this.iterations;
+            this.hashCode = h * HASH_PRIME + Arrays.hashCode(this.salt);
+        }
+
+        /**
+         * Gets the name to hash.
+         * 
+         * @return The name to hash.
+         */
+        Name getName() {
+            return this.name;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key)obj;
+            return this.hashCode == other.hashCode && this.algorithm == other.algorithm && this.iterations == other.iterations
+                    && Arrays.equals(this.salt, other.salt) && this.name.equals(other.name);
+        }
+    }
+
+    private final Map<Key, byte[]> hashes;
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Creates a new instance of this class.
+     */
+    NSEC3HashCache() {
+        this.hashes = Collections.synchronizedMap(new LinkedHashMap<Key, byte[]>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+                return size() > NSEC3HashCache.this.maxSize;
+            }
+        });
+    }
+
+    /**
+     * Initialize the cache. The recognized configuration value is
+     * {@link #MAX_SIZE_CONFIG}.
+     * 
+     * @param config The configuration data.
+     */
+    void init(Properties config) {
+        String s = config.getProperty(MAX_SIZE_CONFIG);
+        if (s != null) {
+            this.maxSize = Integer.parseInt(s);
+            this.hashes.clear();
+        }
+    }
+
+    /**
+     * Gets a cached hash.
+     * 
+     * @param key The name and NSEC3 parameters.
+     * @return The hash, or <code>null</code> if it is not cached. The array
+     *         must not be modified.
+     */
+    byte[] get(Key key) {
+        return this.hashes.get(key);
+    }
+
+    /**
+     * Caches a hash.
+     * 
+     * @param key The name and NSEC3 parameters.
+     * @param hash The hash, which must not be modified afterwards.
+     */
+    void put(Key key, byte[] hash) {
+        if (this.maxSize > 0) {
+            this.hashes.put(key, hash);
+        }
+    }
+}
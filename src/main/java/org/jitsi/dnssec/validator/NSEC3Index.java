@@ -0,0 +1,252 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jitsi.dnssec.SRRset;
+import org.xbill.DNS.NSEC3Record;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.utils.base32;
+
+/**
+ * The NSEC3 records of a response, grouped by zone and hash parameters. The
+ * owner hashes are decoded once and sorted, so that finding the record that
+ * matches or covers a hash is a binary search without allocations. Each group
+ * also remembers the hashes that were computed with its parameters.
+ */
+final class NSEC3Index {
+    private static final ByteArrayComparator COMPARATOR = new ByteArrayComparator();
+
+    /**
+     * The NSEC3 records of one zone that share the same hash algorithm,
+     * iterations and salt.
+     */
+    static final class Group {
+        private final Name zone;
+        private final NSEC3Record parameters;
+        private final Map<Name, byte[]> hashes = new HashMap<Name, byte[]>();
+        private byte[][] owners;
+        private byte[][] nexts;
+        private NSEC3Record[] records;
+
+        private Group(Name zone, List<NSEC3Record> records, List<byte[]> owners) {
+            this.zone = zone;
+            this.parameters = records.get(0);
+            final byte[][] unsortedOwners = owners.toArray(new byte[owners.size()][]);
+            Integer[] order = new Integer[unsortedOwners.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return COMPARATOR.compare(unsortedOwners[a], unsortedOwners[b]);
+                }
+            });
+
+            this.owners = new byte[order.length][];
+            this.nexts = new byte[order.length][];
+            this.records = new NSEC3Record[order.length];
+            for (int i = 0; i < order.length; i++) {
+                this.owners[i] = unsortedOwners[order[i]];
+                this.records[i] = records.get(order[i]);
+                this.nexts[i] = this.records[i].getNext();
+            }
+        }
+
+        /**
+         * Gets the zone of the records.
+         * 
+         * @return The name of the zone.
+         */
+        Name getZone() {
+            return this.zone;
+        }
+
+        /**
+         * Gets a record of this group to hash names with its parameters.
+         * 
+         * @return A record with the hash parameters of this group.
+         */
+        NSEC3Record getParameters() {
+            return this.parameters;
+        }
+
+        /**
+         * Gets a hash that was already computed with the parameters of this
+         * group.
+         * 
+         * @param name The hashed name.
+         * @return The hash, or <code>null</code> if it wasn't computed yet.
+         */
+        byte[] getHash(Name name) {
+            return this.hashes.get(name);
+        }
+
+        /**
+         * Remembers a hash that was computed with the parameters of this
+         * group.
+         * 
+         * @param name The hashed name.
+         * @param hash The hash of the name.
+         */
+        void putHash(Name name, byte[] hash) {
+            this.hashes.put(name, hash);
+        }
+
+        /**
+         * Finds the record whose owner is a hash.
+         * 
+         * @param hash The hash computed with the parameters of this group.
+         * @return The matching record, or <code>null</code>.
+         */
+        NSEC3Record findMatching(byte[] hash) {
+            int i = this.search(hash);
+            return i >= 0 ? this.records[i] : null;
+        }
+
+        /**
+         * Finds the record that covers a hash, i.e. the hash lies strictly
+         * between the owner and next hash of the record. In a chain only the
+         * record with the preceding owner can cover a hash, or the last
+         * record, which wraps around to the start of the chain.
+         * 
+         * @param hash The hash computed with the parameters of this group.
+         * @return The covering record, or <code>null</code>.
+         */
+        NSEC3Record findCovering(byte[] hash) {
+            int i = this.search(hash);
+            int preceding = i >= 0 ? i - 1 : -i - 2;
+            if (preceding >= 0 && this.covers(preceding, hash)) {
+                return this.records[preceding];
+            }
+
+            int last = this.records.length - 1;
+            if (last != preceding && this.covers(last, hash)) {
+                return this.records[last];
+            }
+
+            return null;
+        }
+
+        private boolean covers(int i, byte[] hash) {
+            byte[] owner = this.owners[i];
+            byte[] next = this.nexts[i];
+
+            // This is the "normal case: owner < next and owner < hash < next
+            if (COMPARATOR.compare(owner, hash) < 0 && COMPARATOR.compare(hash, next) < 0) {
+                return true;
+            }
+
+            // this is the end of zone case:
+            // next <= owner && (hash > owner || hash < next)
+            return COMPARATOR.compare(next, owner) <= 0
+                    && (COMPARATOR.compare(hash, owner) > 0 || COMPARATOR.compare(hash, next) < 0);
+        }
+
+        private int search(byte[] hash) {
+            int low = 0;
+            int high = this.owners.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = COMPARATOR.compare(this.owners[mid], hash);
+                if (c < 0) {
+                    low = mid + 1;
+                }
+                else if (c > 0) {
+                    high = mid - 1;
+                }
+                else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+    }
+
+    private final List<Group> groups;
+    private final ValidationBudget budget;
+
+    /**
+     * Creates the index of NSEC3 RRsets. Records whose owner label is not a
+     * base32hex encoded hash are ignored.
+     * 
+     * @param nsec3s The verified NSEC3 RRsets of a response.
+     * @param budget The budget of the validation that pays for the hashes of
+     *            the proof, can be <code>null</code>.
+     */
+    NSEC3Index(List<SRRset> nsec3s, ValidationBudget budget) {
+        this.budget = budget;
+        base32 b32 = new base32(base32.Alphabet.BASE32HEX, false, false);
+        Map<NSEC3HashCache.Key, List<NSEC3Record>> records = new LinkedHashMap<NSEC3HashCache.Key, List<NSEC3Record>>();
+        Map<NSEC3HashCache.Key, List<byte[]>> owners = new HashMap<NSEC3HashCache.Key, List<byte[]>>();
+        for (SRRset set : nsec3s) {
+            for (Iterator<?> it = set.rrs(); it.hasNext();) {
+                NSEC3Record nsec3 = (NSEC3Record)it.next();
+                if (nsec3.getName().labels() < 2) {
+                    continue;
+                }
+
+                byte[] owner = b32.fromString(nsec3.getName().getLabelString(0));
+                if (owner == null) {
+                    continue;
+                }
+
+                NSEC3HashCache.Key key = new NSEC3HashCache.Key(nsec3, new Name(nsec3.getName(), 1));
+                List<NSEC3Record> l = records.get(key);
+                if (l == null) {
+                    l = new ArrayList<NSEC3Record>();
+                    records.put(key, l);
+                    owners.put(key, new ArrayList<byte[]>());
+                }
+
+                l.add(nsec3);
+                owners.get(key).add(owner);
+            }
+        }
+
+        List<Group> g = new ArrayList<Group>(records.size());
+        for (Map.Entry<NSEC3HashCache.Key, List<NSEC3Record>> e : records.entrySet()) {
+            g.add(new Group(e.getKey().getName(), e.getValue(), owners.get(e.getKey())));
+        }
+
+        this.groups = Collections.unmodifiableList(g);
+    }
+
+    /**
+     * Gets the groups of records, in the order of the first record of each
+     * group in the response.
+     * 
+     * @return The groups.
+     */
+    List<Group> getGroups() {
+        return this.groups;
+    }
+
+    /**
+     * Gets the budget that pays for the hashes of the proof.
+     * 
+     * @return The budget, <code>null</code> if it is unlimited.
+     */
+    ValidationBudget getBudget() {
+        return this.budget;
+    }
+}
@@ -41,9 +41,6 @@
 package org.jitsi.dnssec.validator;
 
 import java.security.NoSuchAlgorithmException;
-import java.security.interfaces.DSAPublicKey;
-import java.security.interfaces.ECPublicKey;
-import java.security.interfaces.RSAPublicKey;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -56,16 +53,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.jitsi.dnssec.SRRset;
 import org.jitsi.dnssec.SecurityStatus;
-import org.xbill.DNS.DNSKEYRecord;
-import org.xbill.DNS.DNSSEC.Algorithm;
-import org.xbill.DNS.DNSSEC.DNSSECException;
 import org.xbill.DNS.NSEC3Record;
 import org.xbill.DNS.NSEC3Record.Flags;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.NameTooLongException;
-import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
-import org.xbill.DNS.utils.base32;
 
 /**
  * NSEC3 non-existence proof utilities.
@@ -80,6 +72,10 @@ final class NSEC3ValUtils {
 
     private TreeMap<Integer, Integer> maxIterations;
 
+    private ValidationMetrics metrics = new NoopValidationMetrics();
+
+    private NSEC3HashCache hashCache = new NSEC3HashCache();
+
     /**
      * Creates a new instance of this class.
      */
@@ -97,11 +93,13 @@ final class NSEC3ValUtils {
      * Loads the configuration data. Supported properties are:
      * <ul>
      * <li>org.jitsi.dnssec.nsec3.iterations.M=N</li>
+     * <li>{@link NSEC3HashCache#MAX_SIZE_CONFIG}</li>
      * </ul>
      * 
      * @param config The configuration data.
      */
     void init(Properties config) {
+        this.hashCache.init(config);
         boolean first = true;
         for (Map.Entry<?, ?> s : config.entrySet()) {
             String key = s.getKey().toString();
@@ -122,6 +120,15 @@ final class NSEC3ValUtils {
         }
     }
 
+    /**
+     * Sets the metrics that receive the computed hashes.
+     * 
+     * @param metrics The metrics.
+     */
+    void setMetrics(ValidationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * This is just a simple class to encapsulate the response to a closest
      * encloser proof.
@@ -200,26 +207,25 @@ final class NSEC3ValUtils {
      * 
      * @param name The name to find.
      * @param zonename The name of the zone that the NSEC3s are from.
-     * @param nsec3s A list of NSEC3Records from a given message.
+     * @param index The NSEC3s of the current proof.
      * 
      * @return The matching NSEC3Record if one is present, null otherwise.
      */
-    private NSEC3Record findMatchingNSEC3(Name name, Name zonename, List<SRRset> nsec3s) {
-        base32 b32 = new base32(base32.Alphabet.BASE32HEX, false, false);
-        for (SRRset set : nsec3s) {
+    private NSEC3Record findMatchingNSEC3(Name name, Name zonename, NSEC3Index index) {
+        for (NSEC3Index.Group group : index.getGroups()) {
+            if (!group.getZone().equals(zonename)) {
+                continue;
+            }
+
             try {
-                NSEC3Record nsec3 = (NSEC3Record)set.first();
-                byte[] hash = nsec3.hashName(name);
-                Name complete = new Name(b32.toString(hash), zonename);
-                if (complete.equals(nsec3.getName())) {
+                byte[] hash = this.hash(index, group, name);
+                NSEC3Record nsec3 = hash == null ? null : group.findMatching(hash);
+                if (nsec3 != null) {
                     return nsec3;
                 }
             }
             catch (NoSuchAlgorithmException e) {
-                logger.debug("Unrecognized NSEC3 in set:" + set, e);
-            }
-            catch (TextParseException e) {
-                logger.debug("Unrecognized NSEC3 in set:" + set, e);
+                logger.debug("Unrecognized NSEC3 in set:" + group.getParameters(), e);
             }
         }
 
@@ -227,65 +233,62 @@ final class NSEC3ValUtils {
     }
 
     /**
-     * Given a hash and a candidate NSEC3Record, determine if that NSEC3Record
-     * covers the hash. Covers specifically means that the hash is in between
-     * the owner and next hashes and does not equal either.
-     * 
-     * @param nsec3 The candidate NSEC3Record.
-     * @param zonename The zone name.
-     * @param hash The precalculated hash.
-     * @return True if the NSEC3Record covers the hash.
-     */
-    private boolean nsec3Covers(NSEC3Record nsec3, Name zonename, byte[] hash) {
-        if (!new Name(nsec3.getName(), 1).equals(zonename)) {
-            return false;
-        }
-
-        byte[] owner = new base32(base32.Alphabet.BASE32HEX, false, false).fromString(nsec3.getName().getLabelString(0));
-        byte[] next = nsec3.getNext();
-
-        // This is the "normal case: owner < next and owner < hash < next
-        ByteArrayComparator bac = new ByteArrayComparator();
-        if (bac.compare(owner, hash) < 0 && bac.compare(hash, next) < 0) {
-            return true;
-        }
-
-        // this is the end of zone case:
-        // next <= owner && (hash > owner || hash < next)
-        if (bac.compare(next, owner) <= 0 && (bac.compare(hash, owner) > 0 || bac.compare(hash, next) < 0)) {
-            return true;
-        }
-
-        // Otherwise, the NSEC3 does not cover the hash.
-        return false;
-    }
-
-    /**
-     * Given a pre-hashed name, find a covering NSEC3 from among a list of
-     * NSEC3s.
+     * Given a name, find a covering NSEC3 from among a list of NSEC3s.
      * 
      * @param name The name to consider.
      * @param zonename The name of the zone.
-     * @param nsec3s The list of NSEC3s present in a message.
+     * @param index The NSEC3s of the current proof.
      * @return A covering NSEC3 if one is present, null otherwise.
      */
-    private NSEC3Record findCoveringNSEC3(Name name, Name zonename, List<SRRset> nsec3s) {
-        for (SRRset set : nsec3s) {
+    private NSEC3Record findCoveringNSEC3(Name name, Name zonename, NSEC3Index index) {
+        for (NSEC3Index.Group group : index.getGroups()) {
+            if (!group.getZone().equals(zonename)) {
+                continue;
+            }
+
             try {
-                NSEC3Record nsec3 = (NSEC3Record)set.first();
-                byte[] hash = nsec3.hashName(name);
-                if (this.nsec3Covers(nsec3, zonename, hash)) {
+                byte[] hash = this.hash(index, group, name);
+                NSEC3Record nsec3 = hash == null ? null : group.findCovering(hash);
+                if (nsec3 != null) {
                     return nsec3;
                 }
             }
             catch (NoSuchAlgorithmException e) {
-                logger.debug("Unrecognized NSEC3 in set:" + set, e);
+                logger.debug("Unrecognized NSEC3 in set:" + group.getParameters(), e);
             }
         }
 
         return null;
     }
 
+    /**
+     * Hashes a name with the parameters of a group of NSEC3s. Each distinct
+     * hash is computed at most once per proof, even if it was evicted from
+     * the shared cache in the meantime. Computing a hash is paid from the
+     * budget of the proof, <code>null</code> is returned when it is exhausted.
+     */
+    private byte[] hash(NSEC3Index index, NSEC3Index.Group group, Name name) throws NoSuchAlgorithmException {
+        byte[] hash = group.getHash(name);
+        if (hash == null) {
+            NSEC3HashCache.Key key = new NSEC3HashCache.Key(group.getParameters(), name);
+            hash = this.hashCache.get(key);
+            if (hash == null) {
+                if (!ValidationBudget.spend(index.getBudget(), ValidationBudget.Resource.NSEC3_HASH)) {
+                    logger.debug("Not hashing " + name + ": the validation budget is exhausted");
+                    return null;
+                }
+
+                hash = group.getParameters().hashName(name);
+                this.metrics.nsec3Hashed(group.getParameters().getIterations());
+                this.hashCache.put(key, hash);
+            }
+
+            group.putHash(name, hash);
+        }
+
+        return hash;
+    }
+
     /**
      * Given a name and a list of NSEC3s, find the candidate closest encloser.
      * This will be the first ancestor of 'name' (including itself) to have a
@@ -293,18 +296,18 @@ final class NSEC3ValUtils {
      * 
      * @param name The name the start with.
      * @param zonename The name of the zone that the NSEC3s came from.
-     * @param nsec3s The list of NSEC3s.
+     * @param index The NSEC3s of the current proof.
      * 
      * @return A CEResponse containing the closest encloser name and the NSEC3
      *         RR that matched it, or null if there wasn't one.
      */
-    private CEResponse findClosestEncloser(Name name, Name zonename, List<SRRset> nsec3s) {
+    private CEResponse findClosestEncloser(Name name, Name zonename, NSEC3Index index) {
         // This scans from longest name to shortest, so the first match we find
         // is the only viable candidate.
         // FIXME: modify so that the NSEC3 matching the zone apex need not be
         // present.
         while (name.labels() >= zonename.labels()) {
-            NSEC3Record nsec3 = this.findMatchingNSEC3(name, zonename, nsec3s);
+            NSEC3Record nsec3 = this.findMatchingNSEC3(name, zonename, index);
             if (nsec3 != null) {
                 return new CEResponse(name, nsec3);
             }
@@ -320,13 +323,12 @@ final class NSEC3ValUtils {
      * 
      * @param qname The qname in question.
      * @param zonename The name of the zone that the NSEC3 RRs come from.
-     * @param nsec3s The list of NSEC3s found the this response (already
-     *            verified).
+     * @param index The NSEC3s found the this response (already verified).
      * @return A CEResponse object which contains the closest encloser name and
      *         the NSEC3 that matches it.
      */
-    private CEResponse proveClosestEncloser(Name qname, Name zonename, List<SRRset> nsec3s) {
-        CEResponse candidate = this.findClosestEncloser(qname, zonename, nsec3s);
+    private CEResponse proveClosestEncloser(Name qname, Name zonename, NSEC3Index index) {
+        CEResponse candidate = this.findClosestEncloser(qname, zonename, index);
         if (candidate == null) {
             logger.debug("proveClosestEncloser: could not find a candidate for the closest encloser.");
             candidate = new CEResponse(Name.empty, null);
@@ -362,7 +364,7 @@ final class NSEC3ValUtils {
 
         // Otherwise, we need to show that the next closer name is covered.
         Name nextClosest = this.nextClosest(qname, candidate.closestEncloser);
-        candidate.ncNsec3 = this.findCoveringNSEC3(nextClosest, zonename, nsec3s);
+        candidate.ncNsec3 = this.findCoveringNSEC3(nextClosest, zonename, index);
         if (candidate.ncNsec3 == null) {
             logger.debug("Could not find proof that the closest encloser was the closest encloser");
             candidate.status = SecurityStatus.BOGUS;
@@ -374,51 +376,26 @@ final class NSEC3ValUtils {
     }
 
     private boolean validIterations(SRRset nsec, KeyCache keyCache) {
-        SRRset dnskeyRrset = keyCache.find(nsec.getSignerName(), nsec.getDClass()).getRRset();
         // for now, we return the maximum iterations based simply on the key
         // algorithms that may have been used to sign the NSEC3 RRsets.
-        try {
-            for (Iterator<?> i = dnskeyRrset.rrs(); i.hasNext();) {
-                DNSKEYRecord dnskey = (DNSKEYRecord)i.next();
-                int keysize;
-                switch (dnskey.getAlgorithm()) {
-                    case Algorithm.RSAMD5:
-                        return false; // obsoleted by rfc6944
-                    case Algorithm.RSASHA1:
-                    case Algorithm.RSASHA256:
-                    case Algorithm.RSASHA512:
-                    case Algorithm.RSA_NSEC3_SHA1:
-                        keysize = ((RSAPublicKey)dnskey.getPublicKey()).getModulus().bitLength();
-                        break;
-                    case Algorithm.DSA:
-                    case Algorithm.DSA_NSEC3_SHA1:
-                        keysize = ((DSAPublicKey)dnskey.getPublicKey()).getParams().getP().bitLength();
-                        break;
-                    case Algorithm.ECDSAP256SHA256:
-                    case Algorithm.ECDSAP384SHA384:
-                        keysize = ((ECPublicKey)dnskey.getPublicKey()).getParams().getCurve().getField().getFieldSize();
-                        break;
-                    default:
-                        return false;
-                }
-
-                Integer keyIters = this.maxIterations.floorKey(keysize);
-                if (keyIters == null) {
-                    keyIters = this.maxIterations.firstKey();
-                }
+        int iterations = ((NSEC3Record)nsec.first()).getIterations();
+        for (int keysize : keyCache.find(nsec.getSignerName(), nsec.getDClass()).getKeySizes()) {
+            if (keysize < 0) {
+                return false;
+            }
 
-                keyIters = this.maxIterations.get(keyIters);
-                if (((NSEC3Record)nsec.first()).getIterations() > keyIters) {
-                    return false;
-                }
+            Integer keyIters = this.maxIterations.floorKey(keysize);
+            if (keyIters == null) {
+                keyIters = this.maxIterations.firstKey();
             }
 
-            return true;
-        }
-        catch (DNSSECException e) {
-            logger.error("Could not get public key from NSEC3 record", e);
-            return false;
+            keyIters = this.maxIterations.get(keyIters);
+            if (iterations > keyIters) {
+                return false;
+            }
         }
+
+        return true;
     }
 
     /**
@@ -484,19 +461,24 @@ final class NSEC3ValUtils {
      * @param zonename This is the name of the zone that the NSEC3s belong to.
      *            This may be discovered in any number of ways. A good one is to
      *            use the signerName from the NSEC3 record's RRSIG.
+     * @param budget The budget of the validation that pays for the
+     *            hashes, can be <code>null</code>. The proof fails if the
+     *            budget is exhausted.
      * @return {@link SecurityStatus#SECURE} of the Name Error is proven by the
      *         NSEC3 RRs, {@link SecurityStatus#BOGUS} if not,
      *         {@link SecurityStatus#INSECURE} if all of the NSEC3s could be
      *         validly ignored.
      */
-    public SecurityStatus proveNameError(List<SRRset> nsec3s, Name qname, Name zonename) {
+    public SecurityStatus proveNameError(List<SRRset> nsec3s, Name qname, Name zonename, ValidationBudget budget) {
         if (nsec3s == null || nsec3s.size() == 0) {
             return SecurityStatus.BOGUS;
         }
 
+        NSEC3Index index = new NSEC3Index(nsec3s, budget);
+
         // First locate and prove the closest encloser to qname. We will use the
         // variant that fails if the closest encloser turns out to be qname.
-        CEResponse ce = this.proveClosestEncloser(qname, zonename, nsec3s);
+        CEResponse ce = this.proveClosestEncloser(qname, zonename, index);
 
         if (ce.status != SecurityStatus.SECURE) {
             logger.debug("proveNameError: failed to prove a closest encloser.");
@@ -507,7 +489,7 @@ final class NSEC3ValUtils {
         // prove
         // that the wildcard does not exist.
         Name wc = this.ceWildcard(ce.closestEncloser);
-        NSEC3Record nsec3 = this.findCoveringNSEC3(wc, zonename, nsec3s);
+        NSEC3Record nsec3 = this.findCoveringNSEC3(wc, zonename, index);
         if (nsec3 == null) {
             logger.debug("proveNameError: could not prove that the applicable wildcard did not exist.");
             return SecurityStatus.BOGUS;
@@ -545,16 +527,21 @@ final class NSEC3ValUtils {
      * @param qname The qname in question.
      * @param qtype The qtype in question.
      * @param zonename The name of the zone that the NSEC3s came from.
+     * @param budget The budget of the validation that pays for the
+     *            hashes, can be <code>null</code>. The proof fails if the
+     *            budget is exhausted.
      * @return {@link SecurityStatus#SECURE} if the NSEC3s prove the
      *         proposition, {@link SecurityStatus#INSECURE} if qname is under
      *         opt-out, {@link SecurityStatus#BOGUS} otherwise.
      */
-    public SecurityStatus proveNodata(List<SRRset> nsec3s, Name qname, int qtype, Name zonename) {
+    public SecurityStatus proveNodata(List<SRRset> nsec3s, Name qname, int qtype, Name zonename, ValidationBudget budget) {
         if (nsec3s == null || nsec3s.size() == 0) {
             return SecurityStatus.BOGUS;
         }
 
-        NSEC3Record nsec3 = this.findMatchingNSEC3(qname, zonename, nsec3s);
+        NSEC3Index index = new NSEC3Index(nsec3s, budget);
+
+        NSEC3Record nsec3 = this.findMatchingNSEC3(qname, zonename, index);
         // Cases 1 & 2.
         if (nsec3 != null) {
             if (nsec3.hasType(qtype)) {
@@ -587,7 +574,7 @@ final class NSEC3ValUtils {
         // For cases 3 - 5, we need the proven closest encloser, and it can't
         // match qname. Although, at this point, we know that it won't since we
         // just checked that.
-        CEResponse ce = this.proveClosestEncloser(qname, zonename, nsec3s);
+        CEResponse ce = this.proveClosestEncloser(qname, zonename, index);
 
         // At this point, not finding a match or a proven closest encloser is a
         // problem.
@@ -604,7 +591,7 @@ final class NSEC3ValUtils {
 
         // Case 4:
         Name wc = this.ceWildcard(ce.closestEncloser);
-        nsec3 = this.findMatchingNSEC3(wc, zonename, nsec3s);
+        nsec3 = this.findMatchingNSEC3(wc, zonename, index);
         if (nsec3 != null) {
             if (nsec3.hasType(qtype)) {
                 logger.debug("proveNodata: matching wildcard had qtype!");
@@ -665,13 +652,18 @@ final class NSEC3ValUtils {
      * @param qname The qname that was matched to the wildard
      * @param zonename The name of the zone that the NSEC3s come from.
      * @param wildcard The purported wildcard that matched.
+     * @param budget The budget of the validation that pays for the
+     *            hashes, can be <code>null</code>. The proof fails if the
+     *            budget is exhausted.
      * @return true if the NSEC3 records prove this case.
      */
-    public SecurityStatus proveWildcard(List<SRRset> nsec3s, Name qname, Name zonename, Name wildcard) {
+    public SecurityStatus proveWildcard(List<SRRset> nsec3s, Name qname, Name zonename, Name wildcard, ValidationBudget budget) {
         if (nsec3s == null || nsec3s.size() == 0 || qname == null || wildcard == null) {
             return SecurityStatus.BOGUS;
         }
 
+        NSEC3Index index = new NSEC3Index(nsec3s, budget);
+
         // We know what the (purported) closest encloser is by just looking at
         // the supposed generating wildcard.
         CEResponse candidate = new CEResponse(new Name(wildcard, 1), null);
@@ -679,7 +671,7 @@ final class NSEC3ValUtils {
         // Now we still need to prove that the original data did not exist.
         // Otherwise, we need to show that the next closer name is covered.
         Name nextClosest = this.nextClosest(qname, candidate.closestEncloser);
-        candidate.ncNsec3 = this.findCoveringNSEC3(nextClosest, zonename, nsec3s);
+        candidate.ncNsec3 = this.findCoveringNSEC3(nextClosest, zonename, index);
 
         if (candidate.ncNsec3 == null) {
             logger.debug("proveWildcard: did not find a covering NSEC3 that covered the next closer name to " + qname + " from " + candidate.closestEncloser
@@ -703,6 +695,9 @@ final class NSEC3ValUtils {
      * @param qname The name of the DS in question.
      * @param zonename The name of the zone that the NSEC3 RRs come from.
      * 
+     * @param budget The budget of the validation that pays for the
+     *            hashes, can be <code>null</code>. The proof fails if the
+     *            budget is exhausted.
      * @return SecurityStatus.SECURE if it was proven that there is no DS in a
      *         secure (i.e., not opt-in) way, SecurityStatus.INSECURE if there
      *         was no DS in an insecure (i.e., opt-in) way,
@@ -710,13 +705,15 @@ final class NSEC3ValUtils {
      *         delegation point, and SecurityStatus.BOGUS if the proofs don't
      *         work out.
      */
-    public SecurityStatus proveNoDS(List<SRRset> nsec3s, Name qname, Name zonename) {
+    public SecurityStatus proveNoDS(List<SRRset> nsec3s, Name qname, Name zonename, ValidationBudget budget) {
         if (nsec3s == null || nsec3s.size() == 0) {
             return SecurityStatus.BOGUS;
         }
 
+        NSEC3Index index = new NSEC3Index(nsec3s, budget);
+
         // Look for a matching NSEC3 to qname -- this is the normal NODATA case.
-        NSEC3Record nsec3 = this.findMatchingNSEC3(qname, zonename, nsec3s);
+        NSEC3Record nsec3 = this.findMatchingNSEC3(qname, zonename, index);
 
         if (nsec3 != null) {
             // If the matching NSEC3 has the SOA bit set, it is from the wrong
@@ -737,7 +734,7 @@ final class NSEC3ValUtils {
         }
 
         // Otherwise, we are probably in the opt-out case.
-        CEResponse ce = this.proveClosestEncloser(qname, zonename, nsec3s);
+        CEResponse ce = this.proveClosestEncloser(qname, zonename, index);
         if (ce.status != SecurityStatus.SECURE) {
             return SecurityStatus.BOGUS;
         }
@@ -0,0 +1,289 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xbill.DNS.Name;
+
+/**
+ * Values indexed by name and class in a tree of labels, from the root down, to
+ * find the value of the closest enclosing name without creating a
+ * {@link Name} or a string for every label. Lookups are lock-free, changes
+ * are serialized.
+ *
+ * @param <V> The type of the stored values.
+ */
+final class NameTrie<V> {
+    /**
+     * Decides whether a stored value may be returned from
+     * {@link NameTrie#find(Name, int, Filter)}.
+     *
+     * @param <V> The type of the stored values.
+     */
+    interface Filter<V> {
+        /**
+         * Checks a value found on the way down to the searched name.
+         *
+         * @param value The value to check.
+         * @return <code>true</code> if the value can be returned.
+         */
+        boolean accept(V value);
+    }
+
+    private final Map<Integer, Node<V>> roots = new ConcurrentHashMap<Integer, Node<V>>();
+
+    /**
+     * Stores a value, replacing an existing value of the same name and class.
+     *
+     * @param name The name of the value.
+     * @param dclass The class of the value.
+     * @param value The value to store.
+     * @return The replaced value, or <code>null</code> if there was none.
+     */
+    synchronized V put(Name name, int dclass, V value) {
+        Node<V> node = this.roots.get(dclass);
+        if (node == null) {
+            node = new Node<V>(null, new byte[0]);
+            this.roots.put(dclass, node);
+        }
+
+        byte[] wire = name.toWireCanonical();
+        for (int i = name.labels() - 2; i >= 0; i--) {
+            int pos = labelOffset(wire, i);
+            Node<V> child = node.child(wire, pos);
+            if (child == null) {
+                byte[] label = new byte[wire[pos]];
+                System.arraycopy(wire, pos + 1, label, 0, label.length);
+                child = new Node<V>(node, label);
+                node.add(child);
+            }
+
+            node = child;
+        }
+
+        V old = node.value;
+        node.value = value;
+        return old;
+    }
+
+    /**
+     * Removes a value if it is still the one stored for its name and class.
+     *
+     * @param name The name of the value.
+     * @param dclass The class of the value.
+     * @param expected The value to remove.
+     * @return <code>true</code> if the value was removed.
+     */
+    synchronized boolean remove(Name name, int dclass, V expected) {
+        Node<V> node = this.roots.get(dclass);
+        byte[] wire = name.toWireCanonical();
+        for (int i = name.labels() - 2; i >= 0 && node != null; i--) {
+            node = node.child(wire, labelOffset(wire, i));
+        }
+
+        if (node == null || node.value != expected) {
+            return false;
+        }
+
+        node.value = null;
+        while (node.parent != null && node.value == null && node.children.length == 0) {
+            node.parent.remove(node);
+            node = node.parent;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets all stored values.
+     * 
+     * @return A copy of the values, in no particular order.
+     */
+    synchronized List<V> values() {
+        List<V> values = new ArrayList<V>();
+        for (Node<V> root : this.roots.values()) {
+            collect(root, values);
+        }
+
+        return values;
+    }
+
+    /**
+     * Removes all values.
+     */
+    synchronized void clear() {
+        this.roots.clear();
+    }
+
+    /**
+     * Finds the value of the closest enclosing name, including the name
+     * itself. The only allocation is the canonical wire format of the name.
+     *
+     * @param name The name to start the search.
+     * @param dclass The class of the value.
+     * @param filter Decides whether a value on the way is usable.
+     * @return The value of the closest accepted enclosing name, or
+     *         <code>null</code> if there is none.
+     */
+    V find(Name name, int dclass, Filter<V> filter) {
+        Node<V> node = this.roots.get(dclass);
+        if (node == null) {
+            return null;
+        }
+
+        V best = null;
+        V value = node.value;
+        if (value != null && filter.accept(value)) {
+            best = value;
+        }
+
+        byte[] wire = name.toWireCanonical();
+        for (int i = name.labels() - 2; i >= 0; i--) {
+            node = node.child(wire, labelOffset(wire, i));
+            if (node == null) {
+                break;
+            }
+
+            value = node.value;
+            if (value != null && filter.accept(value)) {
+                best = value;
+            }
+        }
+
+        return best;
+    }
+
+    private static <V> void collect(Node<V> node, List<V> values) {
+        if (node.value != null) {
+            values.add(node.value);
+        }
+
+        for (Node<V> child : node.children) {
+            collect(child, values);
+        }
+    }
+
+    /**
+     * Gets the position of the length byte of a label in the wire format of a
+     * name.
+     */
+    private static int labelOffset(byte[] wire, int label) {
+        int pos = 0;
+        for (int i = 0; i < label; i++) {
+            pos += wire[pos] + 1;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Compares a label of a node with a label in a wire format name by length
+     * first, then byte by byte. Any total order works for the binary search.
+     */
+    private static int compare(byte[] label, byte[] wire, int pos) {
+        int length = wire[pos];
+        if (label.length != length) {
+            return label.length - length;
+        }
+
+        for (int i = 0; i < length; i++) {
+            int diff = label[i] - wire[pos + 1 + i];
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * A label in the tree with its child labels sorted by
+     * {@link NameTrie#compare(byte[], byte[], int)}. The children are
+     * replaced as a whole, so that lookups can run without a lock.
+     *
+     * @param <V> The type of the stored values.
+     */
+    private static final class Node<V> {
+        private final Node<V> parent;
+        private final byte[] label;
+        private volatile Node<V>[] children;
+        private volatile V value;
+
+        @SuppressWarnings("unchecked")
+        Node(Node<V> parent, byte[] label) {
+            this.parent = parent;
+            this.label = label;
+            this.children = (Node<V>[])new Node<?>[0];
+        }
+
+        Node<V> child(byte[] wire, int pos) {
+            Node<V>[] c = this.children;
+            int index = search(c, wire, pos);
+            return index < 0 ? null : c[index];
+        }
+
+        void add(Node<V> child) {
+            Node<V>[] c = this.children;
+            int index = -search(c, child.wire(), 0) - 1;
+            @SuppressWarnings("unchecked")
+            Node<V>[] n = (Node<V>[])new Node<?>[c.length + 1];
+            System.arraycopy(c, 0, n, 0, index);
+            n[index] = child;
+            System.arraycopy(c, index, n, index + 1, c.length - index);
+            this.children = n;
+        }
+
+        void remove(Node<V> child) {
+            Node<V>[] c = this.children;
+            int index = search(c, child.wire(), 0);
+            if (index < 0) {
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            Node<V>[] n = (Node<V>[])new Node<?>[c.length - 1];
+            System.arraycopy(c, 0, n, 0, index);
+            System.arraycopy(c, index + 1, n, index, n.length - index);
+            this.children = n;
+        }
+
+        private byte[] wire() {
+            byte[] w = new byte[this.label.length + 1];
+            w[0] = (byte)this.label.length;
+            System.arraycopy(this.label, 0, w, 1, this.label.length);
+            return w;
+        }
+
+        private static <V> int search(Node<V>[] c, byte[] wire, int pos) {
+            int low = 0;
+            int high = c.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(c[mid].label, wire, pos);
+                if (cmp < 0) {
+                    low = mid + 1;
+                }
+                else if (cmp > 0) {
+                    high = mid - 1;
+                }
+                else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import org.jitsi.dnssec.SecurityStatus;
+
+/**
+ * Metrics that discard all measurements. This is the default of the
+ * validation engine.
+ */
+public class NoopValidationMetrics implements ValidationMetrics {
+    /**
+     * {@inheritDoc}
+     */
+    public void roundTrip(int qtype, long nanos) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void keySearched(int depth) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void keyCacheHit() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void keyCacheMiss() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void keyCacheEviction() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void signatureVerified(int algorithm, boolean valid) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void nsec3Hashed(int iterations) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void budgetExhausted() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void validated(SecurityStatus status) {
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.jitsi.dnssec.SMessage;
+import org.jitsi.dnssec.SRRset;
+import org.jitsi.dnssec.SecurityStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.ExtendedFlags;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * Cache for validated responses with a limited size and respect for the TTL
+ * values and signature expirations of the contained RRsets. Only secure and
+ * insecure responses are cached. The TTLs of the returned records are
+ * decremented by the time the response spent in the cache; the original TTL
+ * of the signatures is left as is.
+ */
+class ResponseCache {
+    /** Name of the property that configures the maximum cache TTL. */
+    public static final String MAX_TTL_CONFIG = "org.jitsi.dnssec.responsecache.max_ttl";
+
+    /**
+     * Name of the property that configures the maximum cache size. The cache
+     * is disabled when the size is zero.
+     */
+    public static final String MAX_CACHE_SIZE_CONFIG = "org.jitsi.dnssec.responsecache.max_size";
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseCache.class);
+    private static final int MILLISECONDS_PER_SECOND = 1000;
+    private static final int DEFAULT_MAX_TTL = 900;
+
+    /** The length of the type, class, TTL and RDLENGTH of a record. */
+    private static final int RR_FIXED_LENGTH = 10;
+
+    /** This is the main caching data structure. */
+    private Map<String, CacheEntry> cache;
+
+    /** This is the maximum TTL [s] that all cache entries will have. */
+    private long maxTtl = DEFAULT_MAX_TTL;
+
+    /** This is the maximum number of entries that the cache will hold. */
+    private int maxCacheSize;
+
+    /**
+     * Creates a new instance of this class. The cache is disabled until a
+     * size is configured.
+     */
+    ResponseCache() {
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, CacheEntry>() {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<String, CacheEntry> eldest) {
+                return size() > ResponseCache.this.maxCacheSize;
+            }
+        });
+    }
+
+    /**
+     * Initialize the cache. This implementation recognizes the following
+     * configuration parameters:
+     * <dl>
+     * <dt>org.jitsi.dnssec.responsecache.max_ttl
+     * <dd>The maximum TTL to apply to any cache entry.
+     * <dt>org.jitsi.dnssec.responsecache.max_size
+     * <dd>The maximum number of entries that the cache will hold.
+     * </dl>
+     *
+     * @param config The configuration information.
+     */
+    void init(Properties config) {
+        if (config == null) {
+            return;
+        }
+
+        String s = config.getProperty(MAX_TTL_CONFIG);
+        if (s != null) {
+            this.maxTtl = Long.parseLong(s);
+        }
+
+        s = config.getProperty(MAX_CACHE_SIZE_CONFIG);
+        if (s != null) {
+            this.maxCacheSize = Integer.parseInt(s);
+        }
+
+        this.cache.clear();
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Gets the cached response to a query.
+     *
+     * @param query The query for which the response is searched.
+     * @return A copy of the cached response with the ID of the query, or
+     *         <code>null</code> if there is none or it has expired.
+     */
+    Message get(Message query) {
+        if (this.maxCacheSize <= 0) {
+            return null;
+        }
+
+        String k = key(query);
+        CacheEntry centry = this.cache.get(k);
+        if (centry == null) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if (now - centry.expiration >= 0) {
+            this.cache.remove(k);
+            return null;
+        }
+
+        logger.trace("response cache hit for " + k + ": " + centry.status + (centry.reason == null ? "" : ", " + centry.reason));
+        Message m = (Message)centry.response.clone();
+        long age = TimeUnit.NANOSECONDS.toSeconds(now - centry.stored);
+        if (age > 0) {
+            for (int section = Section.ANSWER; section <= Section.ADDITIONAL; section++) {
+                Record[] records = m.getSectionArray(section);
+                m.removeAllRecords(section);
+                for (Record r : records) {
+                    m.addRecord(r.getType() == Type.OPT ? r : withTTL(r, Math.max(0, r.getTTL() - age)), section);
+                }
+            }
+        }
+
+        m.getHeader().setID(query.getHeader().getID());
+        return m;
+    }
+
+    /**
+     * Stores a validated response in the cache. The response is ignored if it
+     * is neither secure nor insecure or if it doesn't contain any RRsets.
+     *
+     * @param query The query to which the response belongs.
+     * @param validated The validated response, used for the status and the
+     *            expiration.
+     * @param response The response message that is returned to the caller.
+     */
+    void store(Message query, SMessage validated, Message response) {
+        if (this.maxCacheSize <= 0) {
+            return;
+        }
+
+        SecurityStatus status = validated.getStatus();
+        if (status != SecurityStatus.SECURE && status != SecurityStatus.INSECURE) {
+            return;
+        }
+
+        long wallNow = System.currentTimeMillis();
+        long expiration = this.getExpiration(validated, wallNow);
+        if (expiration <= wallNow) {
+            return;
+        }
+
+        CacheEntry ce = new CacheEntry();
+        ce.stored = System.nanoTime();
+        ce.expiration = ce.stored + TimeUnit.MILLISECONDS.toNanos(expiration - wallNow);
+        ce.status = status;
+        ce.reason = validated.getBogusReason();
+        ce.response = (Message)response.clone();
+        this.cache.put(key(query), ce);
+    }
+
+    /**
+     * Calculates the time at which a response expires: the smallest TTL of
+     * all RRsets, the earliest expiration of their signatures, or the maximum
+     * TTL, whichever comes first.
+     *
+     * @param validated The response for which the expiration is calculated.
+     * @param now The current time in milliseconds.
+     * @return The expiration in milliseconds, or <code>now</code> if the
+     *         response has no RRsets.
+     */
+    private long getExpiration(SMessage validated, long now) {
+        long expiration = Long.MAX_VALUE;
+        for (int section = Section.ANSWER; section <= Section.ADDITIONAL; section++) {
+            for (SRRset set : validated.getSectionRRsets(section)) {
+                expiration = Math.min(expiration, now + set.getTTL() * MILLISECONDS_PER_SECOND);
+                for (Iterator<?> i = set.sigs(); i.hasNext();) {
+                    expiration = Math.min(expiration, ((RRSIGRecord)i.next()).getExpire().getTime());
+                }
+            }
+        }
+
+        if (expiration == Long.MAX_VALUE) {
+            return now;
+        }
+
+        return Math.min(expiration, now + this.maxTtl * MILLISECONDS_PER_SECOND);
+    }
+
+    /**
+     * Copies a record with another TTL. The RDATA, including the original TTL
+     * of a signature, is kept as is.
+     */
+    private static Record withTTL(Record r, long ttl) {
+        byte[] wire = r.toWire(Section.ANSWER);
+        int rdataOffset = r.getName().length() + RR_FIXED_LENGTH;
+        byte[] rdata = new byte[wire.length - rdataOffset];
+        System.arraycopy(wire, rdataOffset, rdata, 0, rdata.length);
+        return Record.newRecord(r.getName(), r.getType(), r.getDClass(), ttl, rdata);
+    }
+
+    private static String key(Message query) {
+        Record q = query.getQuestion();
+        OPTRecord opt = query.getOPT();
+        boolean dnssecOk = opt != null && (opt.getFlags() & ExtendedFlags.DO) != 0;
+        boolean checkingDisabled = query.getHeader().getFlag(Flags.CD);
+        return q.getName() + "/" + q.getType() + "/" + q.getDClass() + "/" + dnssecOk + "/" + checkingDisabled;
+    }
+
+    /**
+     * Utility class to cache validated responses with an expiration date.
+     */
+    private static class CacheEntry {
+        /** The {@link System#nanoTime()} at which the entry was stored. */
+        private long stored;
+
+        /** The {@link System#nanoTime()} at which the entry expires. */
+        private long expiration;
+        private SecurityStatus status;
+        private String reason;
+        private Message response;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
+
+/**
+ * Measures the round trip of an asynchronous query to the head resolver
+ * before passing the response or error on.
+ */
+class RoundTripListener implements ResolverListener {
+    private final ResolverListener delegate;
+    private final ValidationMetrics metrics;
+    private final ValidationTrace trace;
+    private final Record question;
+    private final long start;
+
+    /**
+     * Creates a new instance of this class and starts the measurement.
+     * 
+     * @param delegate The listener that receives the response or error.
+     * @param metrics The metrics that receive the round trip.
+     * @param trace The trace that receives the round trip, can be
+     *            <code>null</code>.
+     * @param query The query that is about to be sent.
+     */
+    RoundTripListener(ResolverListener delegate, ValidationMetrics metrics, ValidationTrace trace, Message query) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.trace = trace;
+        this.question = query.getQuestion();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void receiveMessage(Object id, Message m) {
+        this.measure(Rcode.string(m.getRcode()));
+        this.delegate.receiveMessage(id, m);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handleException(Object id, Exception e) {
+        this.measure(e.getClass().getSimpleName());
+        this.delegate.handleException(id, e);
+    }
+
+    private void measure(String result) {
+        this.metrics.roundTrip(this.question.getType(), System.nanoTime() - this.start);
+        ValidationTrace.add(this.trace, ValidationTrace.SpanType.QUERY, this.question.getName(),
+                this.question.getType(), this.start, result);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.Date;
+import java.util.List;
+
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.RRset;
+
+/**
+ * Chooses which signatures of an RRset the {@link DnsSecVerifier} tries, and
+ * in which order. The verification stops at the first valid signature, so
+ * trying the cheapest promising signature first saves public key operations,
+ * e.g. when a zone is signed with several algorithms during a rollover.
+ * Implementations must be thread-safe.
+ *
+ * @see ValidatingResolver#setSignatureSelector(SignatureSelector)
+ * @see DnsSecVerifier#setSignatureSelector(SignatureSelector)
+ * @see CostBasedSignatureSelector
+ */
+public interface SignatureSelector {
+    /**
+     * Selects the signatures to verify.
+     *
+     * @param rrset The RRset that is verified.
+     * @param sigs The signatures of the RRset for which the key set has a key
+     *            with the signer name, algorithm and key tag of the
+     *            signature, in the order of the response. The list may be
+     *            modified and returned.
+     * @param now The time of the verification.
+     * @return The signatures to try, in the order in which they are tried.
+     *         Signatures that are left out are considered invalid.
+     */
+    List<RRSIGRecord> select(RRset rrset, List<RRSIGRecord> sigs, Date now);
+}
@@ -0,0 +1,84 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import org.jitsi.dnssec.SRRset;
+import org.jitsi.dnssec.SecurityStatus;
+import org.xbill.DNS.Name;
+
+/**
+ * Checks the DNSKEY sets that were loaded from a key cache snapshot. The keys
+ * of a trust anchor must match the anchor. All others must match the DS set
+ * that was saved with them, and that DS set must be signed by the keys of
+ * the parent zone, which are checked the same way when they are looked up
+ * from the cache. A key is thus only used again if its chain of trust still
+ * leads to a trust anchor with currently valid signatures.
+ */
+final class SnapshotKeyVerifier implements KeyCache.Verifier {
+    private final TrustAnchorStore trustAnchors;
+    private final ValUtils valUtils;
+    private final KeyCache keyCache;
+
+    /**
+     * Creates a new instance of this class.
+     * 
+     * @param trustAnchors The trust anchors of the resolver.
+     * @param valUtils The validation utilities of the resolver.
+     * @param keyCache The key cache that holds the keys of the parent zones.
+     */
+    SnapshotKeyVerifier(TrustAnchorStore trustAnchors, ValUtils valUtils, KeyCache keyCache) {
+        this.trustAnchors = trustAnchors;
+        this.valUtils = valUtils;
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * Verifies the DNSKEY set of a loaded key entry.
+     * 
+     * @param ke The key entry to check.
+     * @return <code>true</code> if the DNSKEY set is secure.
+     */
+    public boolean verify(KeyEntry ke) {
+        SRRset rrset = ke.getRRset();
+        SRRset anchor = this.trustAnchors.find(ke.getName(), ke.getDClass());
+        if (anchor == null) {
+            return false;
+        }
+
+        if (anchor.getName().equals(ke.getName())) {
+            return this.valUtils.verifyNewDNSKEYs(rrset, anchor, 0).isGood();
+        }
+
+        // the DS set must be signed by the parent, which is below the anchor
+        SRRset ds = ke.getDSRRset();
+        if (ds == null || !ds.getName().equals(ke.getName())) {
+            return false;
+        }
+
+        Name signer = ds.getSignerName();
+        if (signer == null || signer.equals(ke.getName()) || !ke.getName().subdomain(signer)
+                || !signer.subdomain(anchor.getName())) {
+            return false;
+        }
+
+        // looking up the parent verifies it first if it was loaded as well
+        KeyEntry parent = this.keyCache.find(signer, ke.getDClass());
+        if (parent == null || !parent.isGood() || !parent.getName().equals(signer)) {
+            return false;
+        }
+
+        if (this.valUtils.verifySRRset(ds, parent, null) != SecurityStatus.SECURE) {
+            return false;
+        }
+
+        return this.valUtils.verifyNewDNSKEYs(rrset, ds, 0).isGood();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hashed timer wheel with a resolution of one second, based on the
+ * monotonic {@link System#nanoTime()}. It has no thread of its own: the owner
+ * calls {@link #advance(long)} on regular operations and the timeouts of all
+ * seconds that passed since the last call are processed at once.
+ *
+ * @param <T> The type of the scheduled items.
+ */
+final class TimerWheel<T extends TimerWheel.Timeout> {
+    /** The length of one tick of the wheel. */
+    static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int SLOTS = 512;
+
+    /**
+     * An item that is scheduled on the wheel.
+     */
+    interface Timeout {
+        /**
+         * Gets the time at which the item expires.
+         *
+         * @return The expiration in the time base of {@link System#nanoTime()}.
+         */
+        long getDeadline();
+
+        /**
+         * Gets the slot in which the item is scheduled.
+         *
+         * @return The slot index.
+         */
+        int getSlot();
+
+        /**
+         * Sets the slot in which the item is scheduled.
+         *
+         * @param slot The slot index.
+         */
+        void setSlot(int slot);
+    }
+
+    /**
+     * Receives the expired items.
+     *
+     * @param <T> The type of the scheduled items.
+     */
+    interface Listener<T> {
+        /**
+         * Called for every item whose deadline has passed.
+         *
+         * @param item The expired item.
+         */
+        void expired(T item);
+    }
+
+    private final Set<T>[] slots;
+    private final Listener<T> listener;
+    private final long origin;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long lastTick;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param listener The listener that receives the expired items.
+     * @param now The current time in the time base of
+     *            {@link System#nanoTime()}.
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(Listener<T> listener, long now) {
+        this.listener = listener;
+        this.origin = now;
+        this.slots = (Set<T>[])new Set<?>[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            this.slots[i] = new LinkedHashSet<T>();
+        }
+    }
+
+    /**
+     * Schedules an item to expire at its deadline. The item is put into the
+     * slot of the first tick that starts at or after the deadline, so that
+     * every item in the slot of a passed tick is due.
+     *
+     * @param item The item to schedule.
+     */
+    void schedule(T item) {
+        // under the lock, a running advance cannot sweep the slot between
+        // reading lastTick and adding the item
+        this.lock.lock();
+        try {
+            long tick = Math.max(this.tick(item.getDeadline() + TICK_NANOS - 1), this.lastTick + 1);
+            int slot = (int)(tick & (SLOTS - 1));
+            item.setSlot(slot);
+            Set<T> s = this.slots[slot];
+            synchronized (s) {
+                s.add(item);
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes an item from the wheel before it expired.
+     *
+     * @param item The item to remove.
+     */
+    void cancel(T item) {
+        Set<T> s = this.slots[item.getSlot()];
+        synchronized (s) {
+            s.remove(item);
+        }
+    }
+
+    /**
+     * Processes the slots of all ticks that passed since the last call. Does
+     * nothing if another thread is already doing so.
+     *
+     * @param now The current time in the time base of
+     *            {@link System#nanoTime()}.
+     */
+    void advance(long now) {
+        long tick = this.tick(now);
+        if (tick <= this.lastTick || !this.lock.tryLock()) {
+            return;
+        }
+
+        List<T> expired = new ArrayList<T>();
+        try {
+            long last = Math.min(tick, this.lastTick + SLOTS);
+            for (long t = this.lastTick + 1; t <= last; t++) {
+                Set<T> s = this.slots[(int)(t & (SLOTS - 1))];
+                synchronized (s) {
+                    for (Iterator<T> it = s.iterator(); it.hasNext();) {
+                        T item = it.next();
+                        // items of a later revolution stay in the slot
+                        if (now - item.getDeadline() >= 0) {
+                            it.remove();
+                            expired.add(item);
+                        }
+                    }
+                }
+            }
+
+            this.lastTick = tick;
+        }
+        finally {
+            this.lock.unlock();
+        }
+
+        // outside of the lock, the listener may take locks that are held
+        // while scheduling
+        for (T item : expired) {
+            this.listener.expired(item);
+        }
+    }
+
+    private long tick(long time) {
+        return (time - this.origin) / TICK_NANOS;
+    }
+}
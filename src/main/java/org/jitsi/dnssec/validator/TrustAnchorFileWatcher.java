@@ -0,0 +1,78 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically checks the modification time of the trust anchor file and
+ * reloads the trust anchors of a resolver when it changed. A file that cannot
+ * be read or parsed leaves the current trust anchors in place.
+ */
+final class TrustAnchorFileWatcher implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(TrustAnchorFileWatcher.class);
+
+    private final File file;
+    private final ValidatingResolver resolver;
+    private long lastModified;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param file The trust anchor file to watch.
+     * @param resolver The resolver whose trust anchors are reloaded.
+     */
+    TrustAnchorFileWatcher(File file, ValidatingResolver resolver) {
+        this.file = file;
+        this.resolver = resolver;
+        this.lastModified = file.lastModified();
+    }
+
+    /**
+     * Reloads the trust anchors if the file was modified since the last run.
+     */
+    public void run() {
+        long modified = this.file.lastModified();
+        if (modified == 0 || modified == this.lastModified) {
+            return;
+        }
+
+        this.lastModified = modified;
+        logger.info("reloading trust anchor file: " + this.file);
+        InputStream in = null;
+        try {
+            in = new FileInputStream(this.file);
+            this.resolver.reloadTrustAnchors(in);
+        }
+        catch (IOException e) {
+            logger.error("failed to reload trust anchor file " + this.file, e);
+        }
+        catch (RuntimeException e) {
+            logger.error("failed to reload trust anchor file " + this.file, e);
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    logger.debug("failed to close trust anchor file", e);
+                }
+            }
+        }
+    }
+}
@@ -40,31 +40,49 @@
 
 package org.jitsi.dnssec.validator;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jitsi.dnssec.SRRset;
 import org.jitsi.dnssec.SecurityStatus;
 import org.xbill.DNS.DNSKEYRecord;
 import org.xbill.DNS.DSRecord;
+import org.xbill.DNS.Master;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.Type;
 
 /**
  * Storage for DS or DNSKEY records that are known to be trusted.
+ * <p>
+ * The trust anchors are held in an immutable snapshot that is replaced as a
+ * whole on every change, so that lookups never lock and never see a partially
+ * loaded set of anchors.
  * 
  * @author davidb
  */
 public class TrustAnchorStore {
-    private Map<String, SRRset> map;
+    private static final NameTrie.Filter<SRRset> ALL = new NameTrie.Filter<SRRset>() {
+        public boolean accept(SRRset value) {
+            return true;
+        }
+    };
+
+    private final AtomicReference<Snapshot> snapshot;
 
     /**
      * Creates a new instance of this class.
      */
     public TrustAnchorStore() {
-        this.map = new HashMap<String, SRRset>();
+        this.snapshot = new AtomicReference<Snapshot>(new Snapshot(new HashMap<String, SRRset>()));
     }
 
     /**
@@ -74,31 +92,27 @@ public class TrustAnchorStore {
      * @param rrset The key set to store as trusted.
      */
     public void store(SRRset rrset) {
-        if (rrset.getType() != Type.DS && rrset.getType() != Type.DNSKEY) {
-            throw new IllegalArgumentException("Trust anchors can only be DS or DNSKEY records");
-        }
-
-        if (rrset.getType() == Type.DNSKEY) {
-            SRRset temp = new SRRset();
-            Iterator<?> it = rrset.rrs();
-            while (it.hasNext()) {
-                DNSKEYRecord key = (DNSKEYRecord)it.next();
-                DSRecord r = new DSRecord(key.getName(), key.getDClass(), key.getTTL(), DSRecord.Digest.SHA384, key);
-                temp.addRR(r);
-            }
+        this.storeAll(Collections.singletonList(rrset));
+    }
 
-            rrset = temp;
-        }
+    /**
+     * Stores the given RRsets as known trusted keys in a single step. Existing
+     * keys for the same name and class are overwritten.
+     * 
+     * @param rrsets The key sets to store as trusted.
+     */
+    public synchronized void storeAll(Collection<SRRset> rrsets) {
+        this.snapshot.set(this.merge(this.snapshot.get().anchors, rrsets));
+    }
 
-        String k = this.key(rrset.getName(), rrset.getDClass());
-        rrset.setSecurityStatus(SecurityStatus.SECURE);
-        SRRset previous = this.map.put(k, rrset);
-        if (previous != null) {
-            Iterator<?> rrs = previous.rrs();
-            while (rrs.hasNext()) {
-                rrset.addRR((Record)rrs.next());
-            }
-        }
+    /**
+     * Replaces all stored trust anchors with the given RRsets in a single
+     * step.
+     * 
+     * @param rrsets The key sets to store as trusted.
+     */
+    public synchronized void replace(Collection<SRRset> rrsets) {
+        this.snapshot.set(this.merge(Collections.<String, SRRset>emptyMap(), rrsets));
     }
 
     /**
@@ -110,31 +124,138 @@ public class TrustAnchorStore {
      * @return The closest found key for <code>name</code> or <code>null</code>.
      */
     public SRRset find(Name name, int dclass) {
-        while (name.labels() > 0) {
-            String k = this.key(name, dclass);
-            SRRset r = this.lookup(k);
-            if (r != null) {
-                return r;
-            }
-
-            name = new Name(name, 1);
-        }
+        return this.snapshot.get().index.find(name, dclass, ALL);
+    }
 
-        return null;
+    /**
+     * Gets all stored trust anchors.
+     * 
+     * @return An unmodifiable view of the current trust anchors.
+     */
+    Collection<SRRset> values() {
+        return this.snapshot.get().anchors.values();
     }
 
     /**
      * Removes all stored trust anchors.
      */
-    public void clear() {
-        this.map.clear();
+    public synchronized void clear() {
+        this.snapshot.set(new Snapshot(new HashMap<String, SRRset>()));
     }
 
-    private SRRset lookup(String key) {
-        return this.map.get(key);
+    /**
+     * Reads trust anchors in zone file format and groups them into RRsets.
+     * Records other than DS and DNSKEY are skipped.
+     * 
+     * @param data The trust anchor data.
+     * @return The DS and DNSKEY RRsets.
+     * @throws IOException when the trust anchor data could not be read.
+     */
+    @SuppressWarnings("unchecked")
+    static List<SRRset> read(InputStream data) throws IOException {
+        // First read in the whole trust anchor file.
+        Master master = new Master(data, Name.root, 0);
+        List<Record> records = new ArrayList<Record>();
+        Record mr;
+
+        while ((mr = master.nextRecord()) != null) {
+            records.add(mr);
+        }
+
+        // Record.compareTo() should sort them into DNSSEC canonical order.
+        // Don't care about canonical order per se, but do want them to be
+        // formable into RRsets.
+        Collections.sort(records);
+
+        List<SRRset> rrsets = new ArrayList<SRRset>();
+        SRRset currentRrset = new SRRset();
+        for (Record r : records) {
+            // Skip RR types that cannot be used as trust anchors.
+            if (r.getType() != Type.DNSKEY && r.getType() != Type.DS) {
+                continue;
+            }
+
+            // If our current set is empty, we can just add it.
+            if (currentRrset.size() == 0) {
+                currentRrset.addRR(r);
+                continue;
+            }
+
+            // If this record matches our current RRset, we can just add it.
+            if (currentRrset.getName().equals(r.getName()) && currentRrset.getType() == r.getType() && currentRrset.getDClass() == r.getDClass()) {
+                currentRrset.addRR(r);
+                continue;
+            }
+
+            // Otherwise, we add the rrset to our set of trust anchors and begin
+            // a new set
+            rrsets.add(currentRrset);
+            currentRrset = new SRRset();
+            currentRrset.addRR(r);
+        }
+
+        // add the last rrset (if it was not empty)
+        if (currentRrset.size() > 0) {
+            rrsets.add(currentRrset);
+        }
+
+        return rrsets;
+    }
+
+    private Snapshot merge(Map<String, SRRset> anchors, Collection<SRRset> rrsets) {
+        List<SRRset> converted = new ArrayList<SRRset>(rrsets.size());
+        for (SRRset rrset : rrsets) {
+            if (rrset.getType() != Type.DS && rrset.getType() != Type.DNSKEY) {
+                throw new IllegalArgumentException("Trust anchors can only be DS or DNSKEY records");
+            }
+
+            if (rrset.getType() == Type.DNSKEY) {
+                SRRset temp = new SRRset();
+                Iterator<?> it = rrset.rrs();
+                while (it.hasNext()) {
+                    DNSKEYRecord key = (DNSKEYRecord)it.next();
+                    DSRecord r = new DSRecord(key.getName(), key.getDClass(), key.getTTL(), DSRecord.Digest.SHA384, key);
+                    temp.addRR(r);
+                }
+
+                rrset = temp;
+            }
+
+            converted.add(rrset);
+        }
+
+        Map<String, SRRset> map = new HashMap<String, SRRset>(anchors);
+        for (SRRset rrset : converted) {
+            String k = this.key(rrset.getName(), rrset.getDClass());
+            rrset.setSecurityStatus(SecurityStatus.SECURE);
+            SRRset previous = map.put(k, rrset);
+            if (previous != null) {
+                Iterator<?> rrs = previous.rrs();
+                while (rrs.hasNext()) {
+                    rrset.addRR((Record)rrs.next());
+                }
+            }
+        }
+
+        return new Snapshot(map);
     }
 
     private String key(Name n, int dclass) {
         return "T" + dclass + "/" + n;
     }
+
+    /**
+     * An immutable set of trust anchors with an index by name.
+     */
+    private static final class Snapshot {
+        private final Map<String, SRRset> anchors;
+        private final NameTrie<SRRset> index = new NameTrie<SRRset>();
+
+        Snapshot(Map<String, SRRset> anchors) {
+            this.anchors = Collections.unmodifiableMap(anchors);
+            for (SRRset rrset : anchors.values()) {
+                this.index.put(rrset.getName(), rrset.getDClass(), rrset);
+            }
+        }
+    }
 }
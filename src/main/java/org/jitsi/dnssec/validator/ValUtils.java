@@ -50,7 +50,6 @@ import org.jitsi.dnssec.SMessage;
 import org.jitsi.dnssec.SRRset;
 import org.jitsi.dnssec.SecurityStatus;
 import org.xbill.DNS.DClass;
-import org.xbill.DNS.DNSKEYRecord;
 import org.xbill.DNS.DNSSEC.Algorithm;
 import org.xbill.DNS.DSRecord;
 import org.xbill.DNS.DSRecord.Digest;
@@ -95,11 +94,13 @@ public class ValUtils {
      * <ul>
      *     <li>{@link #DIGEST_PREFERENCE}</li>
      *     <li>{@link #DIGEST_HARDEN_DOWNGRADE}</li>
+     *     <li>{@link DnsSecVerifier#SIG_CACHE_SIZE_CONFIG}</li>
      * </ul>.
      * 
      * @param config The configuration data for this module.
      */
     public void init(Properties config) {
+        this.verifier.init(config);
         String dp = config.getProperty(DIGEST_PREFERENCE);
         if (dp != null) {
             String[] dpdata = dp.split(",");
@@ -115,6 +116,26 @@ public class ValUtils {
         this.digestHardenDowngrade = Boolean.parseBoolean(config.getProperty(DIGEST_HARDEN_DOWNGRADE));
     }
 
+    /**
+     * Sets the metrics that receive the signature verifications.
+     * 
+     * @param metrics The metrics.
+     */
+    public void setMetrics(ValidationMetrics metrics) {
+        this.verifier.setMetrics(metrics);
+    }
+
+    /**
+     * Sets the strategy that chooses which signatures of an RRset are
+     * verified, see {@link DnsSecVerifier#setSignatureSelector(SignatureSelector)}.
+     * 
+     * @param selector The signature selector, or <code>null</code> for the
+     *            default.
+     */
+    public void setSignatureSelector(SignatureSelector selector) {
+        this.verifier.setSignatureSelector(selector);
+    }
+
     /**
      * Given a response, classify ANSWER responses into a subtype.
      * 
@@ -231,6 +252,22 @@ public class ValUtils {
      *         checked before fetching the matching DNSKEY rrset.
      */
     public KeyEntry verifyNewDNSKEYs(SRRset dnskeyRrset, SRRset dsRrset, long badKeyTTL) {
+        return this.verifyNewDNSKEYs(dnskeyRrset, dsRrset, badKeyTTL, null);
+    }
+
+    /**
+     * Given a DS rrset and a DNSKEY rrset, match the DS to a DNSKEY and verify
+     * the DNSKEY rrset with that key, within the budget of a validation.
+     * 
+     * @param dnskeyRrset The DNSKEY rrset to match against.
+     * @param dsRrset The trusted DS rrset to match with.
+     * @param badKeyTTL The TTL [s] for keys determined to be bad.
+     * @param budget The budget of the validation, can be <code>null</code>.
+     * @return a KeyEntry, see
+     *         {@link #verifyNewDNSKEYs(SRRset, SRRset, long)}. The entry is
+     *         bad if the budget is exhausted.
+     */
+    KeyEntry verifyNewDNSKEYs(SRRset dnskeyRrset, SRRset dsRrset, long badKeyTTL, ValidationBudget budget) {
         if (!atLeastOneDigestSupported(dsRrset)) {
             KeyEntry ke = KeyEntry.newNullKeyEntry(dsRrset.getName(), dsRrset.getDClass(), dsRrset.getTTL());
             ke.setBadReason(R.get("failed.ds.nodigest", dsRrset.getName()));
@@ -244,44 +281,28 @@ public class ValUtils {
         }
 
         int favoriteDigestID = this.favoriteDSDigestID(dsRrset);
+        DNSKEYIndex index = new DNSKEYIndex(dnskeyRrset);
         for (Iterator<?> i = dsRrset.rrs(); i.hasNext();) {
             DSRecord ds = (DSRecord)i.next();
             if (this.digestHardenDowngrade && ds.getDigestID() != favoriteDigestID) {
                 continue;
             }
 
-            DNSKEY: for (Iterator<?> j = dnskeyRrset.rrs(); j.hasNext();) {
-                DNSKEYRecord dnskey = (DNSKEYRecord)j.next();
-
-                // Skip DNSKEYs that don't match the basic criteria.
-                if (ds.getFootprint() != dnskey.getFootprint() || ds.getAlgorithm() != dnskey.getAlgorithm()) {
-                    continue;
-                }
-
-                // Convert the candidate DNSKEY into a hash using the same DS
-                // hash algorithm.
-                DSRecord keyDigest = new DSRecord(Name.root, ds.getDClass(), 0, ds.getDigestID(), dnskey);
-                byte[] keyHash = keyDigest.getDigest();
-                byte[] dsHash = ds.getDigest();
-
-                // see if there is a length mismatch (unlikely)
-                if (keyHash.length != dsHash.length) {
+            // Only DNSKEYs that match the basic criteria are candidates.
+            for (DNSKEYIndex.Key key : index.find(ds.getAlgorithm(), ds.getFootprint())) {
+                // Compare the hash of the candidate DNSKEY, using the same DS
+                // hash algorithm, with the DS.
+                if (!this.verifier.matches(ds, key)) {
                     continue;
                 }
 
-                for (int k = 0; k < keyHash.length; k++) {
-                    if (keyHash[k] != dsHash[k]) {
-                        continue DNSKEY;
-                    }
-                }
-
                 // Otherwise, we have a match! Make sure that the DNSKEY
                 // verifies *with this key*.
-                SecurityStatus res = this.verifier.verify(dnskeyRrset, dnskey);
+                SecurityStatus res = this.verifier.verify(dnskeyRrset, key.getRecord(), budget);
                 if (res == SecurityStatus.SECURE) {
                     logger.trace("DS matched DNSKEY.");
                     dnskeyRrset.setSecurityStatus(SecurityStatus.SECURE);
-                    return KeyEntry.newKeyEntry(dnskeyRrset);
+                    return KeyEntry.newKeyEntry(dnskeyRrset, index, dsRrset.getType() == Type.DS ? dsRrset : null);
                 }
 
                 // If it didn't validate with the DNSKEY, try the next one!
@@ -342,6 +363,24 @@ public class ValUtils {
      * @return The status (BOGUS or SECURE).
      */
     public SecurityStatus verifySRRset(SRRset rrset, SRRset keyRrset) {
+        return this.verifySRRset(rrset, new DNSKEYIndex(keyRrset), null);
+    }
+
+    /**
+     * Given an SRRset that is signed by a DNSKEY of a key entry, verify it with
+     * the index of the entry. This will return the status (either BOGUS or
+     * SECURE) and set that status in rrset.
+     * 
+     * @param rrset The SRRset to verify.
+     * @param ke The good key entry to verify against.
+     * @param budget The budget of the validation, can be <code>null</code>.
+     * @return The status (BOGUS or SECURE). BOGUS if the budget is exhausted.
+     */
+    SecurityStatus verifySRRset(SRRset rrset, KeyEntry ke, ValidationBudget budget) {
+        return this.verifySRRset(rrset, ke.getKeyIndex(), budget);
+    }
+
+    private SecurityStatus verifySRRset(SRRset rrset, DNSKEYIndex keys, ValidationBudget budget) {
         String rrsetName = rrset.getName() + "/" + Type.string(rrset.getType()) + "/" + DClass.string(rrset.getDClass());
 
         if (rrset.getSecurityStatus() == SecurityStatus.SECURE) {
@@ -349,7 +388,7 @@ public class ValUtils {
             return SecurityStatus.SECURE;
         }
 
-        SecurityStatus status = this.verifier.verify(rrset, keyRrset);
+        SecurityStatus status = this.verifier.verify(rrset, keys, budget);
         if (status != SecurityStatus.SECURE) {
             logger.debug("verifySRRset: rrset <" + rrsetName + "> found to be BAD");
             status = SecurityStatus.BOGUS;
@@ -679,6 +718,25 @@ public class ValUtils {
      * @return The NODATA proof along with the reason of the result.
      */
     public JustifiedSecStatus nsecProvesNodataDsReply(Message request, SMessage response, SRRset keyRrset) {
+        return this.nsecProvesNodataDsReply(request, response, new DNSKEYIndex(keyRrset), null);
+    }
+
+    /**
+     * Check DS absence like
+     * {@link #nsecProvesNodataDsReply(Message, SMessage, SRRset)}, with the
+     * key index of a key entry and within the budget of a validation.
+     * 
+     * @param request The request that generated this response.
+     * @param response The response to validate.
+     * @param ke The key entry that validates the NSECs.
+     * @param budget The budget of the validation, can be <code>null</code>.
+     * @return The NODATA proof along with the reason of the result.
+     */
+    JustifiedSecStatus nsecProvesNodataDsReply(Message request, SMessage response, KeyEntry ke, ValidationBudget budget) {
+        return this.nsecProvesNodataDsReply(request, response, ke.getKeyIndex(), budget);
+    }
+
+    private JustifiedSecStatus nsecProvesNodataDsReply(Message request, SMessage response, DNSKEYIndex keys, ValidationBudget budget) {
         Name qname = request.getQuestion().getName();
         int qclass = request.getQuestion().getDClass();
 
@@ -690,7 +748,7 @@ public class ValUtils {
         SRRset nsecRrset = response.findRRset(qname, Type.NSEC, qclass, Section.AUTHORITY);
         if (nsecRrset != null) {
             // The NSEC must verify, first of all.
-            SecurityStatus status = this.verifySRRset(nsecRrset, keyRrset);
+            SecurityStatus status = this.verifySRRset(nsecRrset, keys, budget);
             if (status != SecurityStatus.SECURE) {
                 return new JustifiedSecStatus(SecurityStatus.BOGUS, R.get("failed.ds.nsec"));
             }
@@ -714,7 +772,7 @@ public class ValUtils {
         boolean hasValidNSEC = false;
         NSECRecord wcNsec = null;
         for (SRRset set : response.getSectionRRsets(Section.AUTHORITY, Type.NSEC)) {
-            SecurityStatus status = this.verifySRRset(set, keyRrset);
+            SecurityStatus status = this.verifySRRset(set, keys, budget);
             if (status != SecurityStatus.SECURE) {
                 return new JustifiedSecStatus(status, R.get("failed.ds.nsec.ent"));
             }
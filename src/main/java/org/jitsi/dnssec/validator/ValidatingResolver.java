@@ -40,6 +40,7 @@
 
 package org.jitsi.dnssec.validator;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -47,12 +48,17 @@ import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,7 +73,6 @@ import org.xbill.DNS.DNAMERecord;
 import org.xbill.DNS.ExtendedFlags;
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Header;
-import org.xbill.DNS.Master;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.NSECRecord;
 import org.xbill.DNS.Name;
@@ -91,13 +96,74 @@ public class ValidatingResolver implements Resolver {
      */
     public static final int VALIDATION_REASON_QCLASS = 65280;
 
+    /**
+     * Name of the property that enables sending the DS and DNSKEY queries
+     * along the chain of trust concurrently.
+     */
+    public static final String PREFETCH_CHAIN_CONFIG = "org.jitsi.dnssec.prefetch_chain";
+
+    /**
+     * Name of the property that configures the interval in seconds in which
+     * the trust anchor file is checked for changes and reloaded.
+     */
+    public static final String TRUST_ANCHOR_RELOAD_CONFIG = "org.jitsi.dnssec.trust_anchor_reload_interval";
+
+    /**
+     * Name of the property that configures how long [ms] a validation waits
+     * for an expired key to be looked up again before it uses the stale entry
+     * from the key cache.
+     */
+    public static final String STALE_KEY_TIMEOUT_CONFIG = "org.jitsi.dnssec.stale_key_timeout";
+
+    /**
+     * Name of the property that configures the file in which the key cache is
+     * saved and from which it is loaded in {@link #init(Properties)}.
+     */
+    public static final String KEY_CACHE_SNAPSHOT_CONFIG = "org.jitsi.dnssec.keycache.snapshot_file";
+
+    /**
+     * Name of the property that configures the interval in seconds in which
+     * the key cache is saved to the snapshot file.
+     */
+    public static final String KEY_CACHE_SNAPSHOT_INTERVAL_CONFIG = "org.jitsi.dnssec.keycache.snapshot_interval";
+
+    /**
+     * Name of the property that enables priming the keys of the trust anchors
+     * in the background after they are loaded.
+     */
+    public static final String PRIME_CONFIG = "org.jitsi.dnssec.prime";
+
+    /**
+     * Name of the property that configures a comma separated list of zones
+     * whose keys are primed together with those of the trust anchors.
+     */
+    public static final String PRIME_ZONES_CONFIG = "org.jitsi.dnssec.prime_zones";
+
     private static final Logger logger = LoggerFactory.getLogger(ValidatingResolver.class);
 
+    /** The default timeout of the dnsjava resolvers, in milliseconds. */
+    private static final long DEFAULT_TIMEOUT = 10000;
+
+    /**
+     * The resolver that performs the actual DNS lookups.
+     */
+    Resolver headResolver;
+
+    /**
+     * The DS and DNSKEY queries that are currently in flight, shared by all
+     * concurrent FINDKEY phases.
+     */
+    InFlightKeyRequests keyRequests = new InFlightKeyRequests();
+
+    /**
+     * This is a cache of validated responses, disabled by default.
+     */
+    ResponseCache responseCache = new ResponseCache();
+
     /**
-     * This is the TTL to use when a trust anchor priming query failed to
-     * validate.
+     * Runs the FINDKEY phases of the validations.
      */
-    private static final long DEFAULT_TA_BAD_KEY_TTL = 60;
+    KeyFinder keyFinder;
 
     /**
      * This is a cache of validated, but expirable DNSKEY rrsets.
@@ -121,9 +187,62 @@ public class ValidatingResolver implements Resolver {
     private NSEC3ValUtils n3valUtils;
 
     /**
-     * The resolver that performs the actual DNS lookups.
+     * The source of the identifiers returned by
+     * {@link #sendAsync(Message, ResolverListener)}.
+     */
+    private AtomicInteger asyncId = new AtomicInteger();
+
+    /**
+     * Saves the key cache to the snapshot file, if one is configured.
+     */
+    private KeyCacheSnapshotTask keyCacheSnapshot;
+
+    /**
+     * The task that periodically saves the key cache, if enabled.
+     */
+    private ScheduledFuture<?> keyCacheSnapshotTask;
+
+    /**
+     * The zones to prime in addition to the trust anchors, <code>null</code>
+     * if priming is disabled.
      */
-    private Resolver headResolver;
+    private List<Name> primeZones;
+
+    /**
+     * The most recent priming task, if any.
+     */
+    private volatile KeyPrimer primer;
+
+    /**
+     * Runs the background tasks of this resolver, created when first needed.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The task that reloads the trust anchor file, if enabled.
+     */
+    private ScheduledFuture<?> trustAnchorWatch;
+
+    /**
+     * Receives the measurements of the validation.
+     */
+    private ValidationMetrics metrics = new NoopValidationMetrics();
+
+    /**
+     * The limits from which each validation gets its own budget.
+     */
+    private ValidationBudget budgetLimits = new ValidationBudget(new Properties());
+
+    /**
+     * Selects the traced queries and receives their traces, if any.
+     */
+    private volatile ValidationTrace.Listener traceListener;
+
+    /**
+     * The time [ms] that the head resolver waits for a response, as last set
+     * through this resolver.
+     */
+    private volatile long timeout = DEFAULT_TIMEOUT;
 
     /**
      * Creates a new instance of this class.
@@ -140,12 +259,23 @@ public class ValidatingResolver implements Resolver {
         this.valUtils = new ValUtils();
         this.n3valUtils = new NSEC3ValUtils();
         this.trustAnchors = new TrustAnchorStore();
+        this.keyCache.setTrustAnchors(this.trustAnchors);
+        KeyRefresher keyRefresher = new KeyRefresher(this);
+        this.keyCache.setRefreshListener(keyRefresher);
+        this.keyFinder = new KeyFinder(this, this.keyCache, this.trustAnchors, this.valUtils, this.n3valUtils, keyRefresher);
+        this.keyCache.setVerifier(new SnapshotKeyVerifier(this.trustAnchors, this.valUtils, this.keyCache));
     }
 
     // ---------------- Module Initialization -------------------
     /**
-     * Initialize the module. The only recognized configuration value is
-     * <tt>org.jitsi.dnssec.trust_anchor_file</tt>.
+     * Initialize the module. The recognized configuration values are
+     * <tt>org.jitsi.dnssec.trust_anchor_file</tt>,
+     * {@link #TRUST_ANCHOR_RELOAD_CONFIG}, {@link #PREFETCH_CHAIN_CONFIG},
+     * {@link #STALE_KEY_TIMEOUT_CONFIG}, {@link #KEY_CACHE_SNAPSHOT_CONFIG},
+     * {@link #KEY_CACHE_SNAPSHOT_INTERVAL_CONFIG}, {@link #PRIME_CONFIG},
+     * {@link #PRIME_ZONES_CONFIG} and those of the key and response caches
+     * and of the {@link ValidationBudget}. A key cache snapshot that cannot be
+     * loaded is ignored.
      * 
      * @param config The configuration data for this module.
      * @throws IOException When the file specified in the config does not exist
@@ -153,8 +283,11 @@ public class ValidatingResolver implements Resolver {
      */
     public void init(Properties config) throws IOException {
         this.keyCache.init(config);
+        this.responseCache.init(config);
         this.n3valUtils.init(config);
         this.valUtils.init(config);
+        this.budgetLimits = new ValidationBudget(config);
+        this.keyFinder.init(config);
 
         // Load trust anchors
         String s = config.getProperty("org.jitsi.dnssec.trust_anchor_file");
@@ -162,70 +295,287 @@ public class ValidatingResolver implements Resolver {
             logger.debug("reading trust anchor file file: " + s);
             this.loadTrustAnchors(new FileInputStream(s));
         }
+
+        if (this.trustAnchorWatch != null) {
+            this.trustAnchorWatch.cancel(false);
+            this.trustAnchorWatch = null;
+        }
+
+        long reloadInterval = Long.parseLong(config.getProperty(TRUST_ANCHOR_RELOAD_CONFIG, "0"));
+        if (s != null && reloadInterval > 0) {
+            TrustAnchorFileWatcher watcher = new TrustAnchorFileWatcher(new File(s), this);
+            this.trustAnchorWatch = this.getScheduler().scheduleWithFixedDelay(watcher, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+        }
+
+        this.initKeyCacheSnapshot(config);
+        if (Boolean.parseBoolean(config.getProperty(PRIME_CONFIG))) {
+            this.primeZones = KeyPrimer.parseZones(config.getProperty(PRIME_ZONES_CONFIG));
+            this.prime();
+        }
+        else {
+            this.primeZones = null;
+        }
+    }
+
+    /**
+     * Schedules the priming of the keys of the trust anchors and the
+     * configured zones, unless a priming task is already waiting to run.
+     */
+    private synchronized void prime() {
+        if (this.primeZones == null || (this.primer != null && !this.primer.isStarted())) {
+            return;
+        }
+
+        this.primer = new KeyPrimer(this, this.trustAnchors, this.primeZones);
+        this.getScheduler().execute(this.primer);
+    }
+
+    /**
+     * Indicates whether the resolver is ready to serve queries without
+     * walking the chains of trust of the primed zones. This is always the case
+     * if priming is disabled with {@link #PRIME_CONFIG}, otherwise once the
+     * most recent priming completed, successfully or not.
+     * 
+     * @return <code>true</code> if the resolver is ready.
+     */
+    public boolean isReady() {
+        KeyPrimer p = this.primer;
+        return p == null || p.isDone();
+    }
+
+    /**
+     * Waits until the resolver is ready, see {@link #isReady()}.
+     * 
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return <code>true</code> if the resolver is ready.
+     * @throws InterruptedException if the waiting thread was interrupted.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        KeyPrimer p = this.primer;
+        return p == null || p.await(timeout, unit);
+    }
+
+    private void initKeyCacheSnapshot(Properties config) {
+        if (this.keyCacheSnapshotTask != null) {
+            this.keyCacheSnapshotTask.cancel(false);
+            this.keyCacheSnapshotTask = null;
+        }
+
+        String s = config.getProperty(KEY_CACHE_SNAPSHOT_CONFIG);
+        this.keyCacheSnapshot = s == null ? null : new KeyCacheSnapshotTask(new File(s), this.keyCache);
+        if (this.keyCacheSnapshot == null) {
+            return;
+        }
+
+        this.keyCacheSnapshot.load();
+        long interval = Long.parseLong(config.getProperty(KEY_CACHE_SNAPSHOT_INTERVAL_CONFIG, "0"));
+        if (interval > 0) {
+            this.keyCacheSnapshotTask = this.getScheduler().scheduleWithFixedDelay(this.keyCacheSnapshot, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Saves the key cache to the file configured with
+     * {@link #KEY_CACHE_SNAPSHOT_CONFIG}, e.g. when the application shuts
+     * down. Does nothing if no file is configured.
+     * 
+     * @throws IOException when the file could not be written.
+     */
+    public void saveKeyCache() throws IOException {
+        KeyCacheSnapshotTask snapshot = this.keyCacheSnapshot;
+        if (snapshot != null) {
+            snapshot.save();
+        }
+    }
+
+    /**
+     * Gets the executor for background tasks, creating it if necessary. Its
+     * threads are daemon threads, so they don't prevent the JVM from exiting.
+     * 
+     * @return The executor for background tasks.
+     */
+    synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "dnssecjava-background");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        return this.scheduler;
     }
 
     /**
      * Load the trust anchor file into the trust anchor store. The trust anchors
      * are currently stored in a zone file format list of DNSKEY or DS records.
+     * If priming is enabled, the keys of the trust anchors are primed in the
+     * background.
      * 
      * @param data The trust anchor data.
      * @throws IOException when the trust anchor data could not be read.
      */
-    @SuppressWarnings("unchecked")
     public void loadTrustAnchors(InputStream data) throws IOException {
-        // First read in the whole trust anchor file.
-        Master master = new Master(data, Name.root, 0);
-        List<Record> records = new ArrayList<Record>();
-        Record mr;
+        this.trustAnchors.storeAll(TrustAnchorStore.read(data));
+        this.prime();
+    }
 
-        while ((mr = master.nextRecord()) != null) {
-            records.add(mr);
-        }
+    /**
+     * Replaces all trust anchors in the trust anchor store with those from the
+     * given data in a single step. Validations that are running concurrently
+     * use either the old or the new trust anchors. The cached keys and
+     * responses are discarded, as they were validated with the old trust
+     * anchors.
+     * 
+     * @param data The trust anchor data, in the same format as for
+     *            {@link #loadTrustAnchors(InputStream)}.
+     * @throws IOException when the trust anchor data could not be read. The
+     *             current trust anchors are kept in this case.
+     */
+    public void reloadTrustAnchors(InputStream data) throws IOException {
+        this.trustAnchors.replace(TrustAnchorStore.read(data));
+        this.keyCache.clear();
+        this.responseCache.clear();
+        this.prime();
+    }
 
-        // Record.compareTo() should sort them into DNSSEC canonical order.
-        // Don't care about canonical order per se, but do want them to be
-        // formable into RRsets.
-        Collections.sort(records);
+    /**
+     * Gets the store with the loaded trust anchors.
+     * 
+     * @return The store with the loaded trust anchors.
+     */
+    public TrustAnchorStore getTrustAnchors() {
+        return this.trustAnchors;
+    }
 
-        SRRset currentRrset = new SRRset();
-        for (Record r : records) {
-            // Skip RR types that cannot be used as trust anchors.
-            if (r.getType() != Type.DNSKEY && r.getType() != Type.DS) {
-                continue;
-            }
+    /**
+     * Gets the number of DS and DNSKEY queries that were sent to the head
+     * resolver while searching keys.
+     * 
+     * @return The number of DS and DNSKEY queries sent.
+     */
+    public long getKeyRequestCount() {
+        return this.keyRequests.getSentCount();
+    }
 
-            // If our current set is empty, we can just add it.
-            if (currentRrset.size() == 0) {
-                currentRrset.addRR(r);
-                continue;
-            }
+    /**
+     * Gets the number of DS and DNSKEY queries that were not sent because an
+     * identical query of a concurrent validation was already in flight. Such
+     * queries share the response and the resulting key entry.
+     * 
+     * @return The number of coalesced DS and DNSKEY queries.
+     */
+    public long getCoalescedKeyRequestCount() {
+        return this.keyRequests.getCoalescedCount();
+    }
 
-            // If this record matches our current RRset, we can just add it.
-            if (currentRrset.getName().equals(r.getName()) && currentRrset.getType() == r.getType() && currentRrset.getDClass() == r.getDClass()) {
-                currentRrset.addRR(r);
-                continue;
-            }
+    /**
+     * Sets the metrics that receive the measurements of the validation, e.g.
+     * {@link HistogramValidationMetrics}. By default, all measurements are
+     * discarded.
+     * 
+     * @param metrics The metrics, or <code>null</code> to discard the
+     *            measurements.
+     */
+    public void setMetrics(ValidationMetrics metrics) {
+        this.metrics = metrics == null ? new NoopValidationMetrics() : metrics;
+        this.keyCache.setMetrics(this.metrics);
+        this.valUtils.setMetrics(this.metrics);
+        this.n3valUtils.setMetrics(this.metrics);
+    }
+
+    /**
+     * Sets the strategy that chooses which signatures of an RRset are
+     * verified, and in which order. By default, a
+     * {@link CostBasedSignatureSelector} with the algorithm preference of
+     * {@link DnsSecVerifier#ALGORITHM_PREFERENCE_CONFIG} is used. Call this
+     * after {@link #init(Properties)}, which replaces the selector if an
+     * algorithm preference is configured.
+     * 
+     * @param selector The signature selector, or <code>null</code> for the
+     *            default without algorithm preference.
+     */
+    public void setSignatureSelector(SignatureSelector selector) {
+        this.valUtils.setSignatureSelector(selector);
+    }
 
-            // Otherwise, we add the rrset to our set of trust anchors and begin
-            // a new set
-            this.trustAnchors.store(currentRrset);
-            currentRrset = new SRRset();
-            currentRrset.addRR(r);
+    /**
+     * Gets the metrics that receive the measurements of the validation.
+     * 
+     * @return The metrics, never <code>null</code>.
+     */
+    public ValidationMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Sets the listener that selects the queries whose validation is traced
+     * and receives the traces together with the responses. Queries that are
+     * answered from the response cache are not traced.
+     * 
+     * @param listener The listener, or <code>null</code> to disable tracing.
+     */
+    public void setTraceListener(ValidationTrace.Listener listener) {
+        this.traceListener = listener;
+    }
+
+    /**
+     * Creates the budget for the validation of a query.
+     * 
+     * @return An unused budget with the configured limits.
+     */
+    ValidationBudget newBudget() {
+        return new ValidationBudget(this.budgetLimits);
+    }
+
+    /**
+     * Starts the trace of a query if the trace listener asks for it.
+     * 
+     * @param query The query that is about to be sent.
+     * @return The trace, or <code>null</code> if the query is not traced.
+     */
+    ValidationTrace startTrace(Message query) {
+        ValidationTrace.Listener listener = this.traceListener;
+        if (listener == null || !listener.isTraced(query)) {
+            return null;
         }
 
-        // add the last rrset (if it was not empty)
-        if (currentRrset.size() > 0) {
-            this.trustAnchors.store(currentRrset);
+        return new ValidationTrace(query);
+    }
+
+    /**
+     * Ends the trace of a query and passes it to the trace listener.
+     * 
+     * @param trace The trace, can be <code>null</code> to do nothing.
+     * @param query The traced query.
+     * @param response The response that is returned for the query.
+     */
+    void finishTrace(ValidationTrace trace, Message query, Message response) {
+        ValidationTrace.Listener listener = this.traceListener;
+        if (trace != null && listener != null) {
+            trace.finish();
+            listener.traced(query, response, trace);
         }
     }
 
     /**
-     * Gets the store with the loaded trust anchors.
+     * Verifies an RRset within the budget of the validation and adds the
+     * verification to the trace.
      * 
-     * @return The store with the loaded trust anchors.
+     * @param rrset The RRset to verify.
+     * @param ke The key entry with the DNSKEY set of the signer.
+     * @param trace The trace of the validation, can be <code>null</code>.
+     * @param budget The budget of the validation, can be <code>null</code>.
+     * @return The security status of the RRset.
      */
-    public TrustAnchorStore getTrustAnchors() {
-        return this.trustAnchors;
+    SecurityStatus verifySRRset(SRRset rrset, KeyEntry ke, ValidationTrace trace, ValidationBudget budget) {
+        long start = ValidationTrace.now(trace);
+        SecurityStatus status = this.valUtils.verifySRRset(rrset, ke, budget);
+        ValidationTrace.add(trace, ValidationTrace.SpanType.VERIFY_RRSET, rrset.getName(), rrset.getType(), start, status.name());
+        return status;
     }
 
     /**
@@ -237,11 +587,11 @@ public class ValidatingResolver implements Resolver {
      * not remove it if it removes the last record from the answer+authority
      * sections.
      *
-     * @param response: the chased reply, we have a key for this contents, so we
+     * @param response the chased reply, we have a key for this contents, so we
      *            should have signatures for these rrsets and not having
      *            signatures means it will be bogus.
      */
-    private void removeSpuriousAuthority(SMessage response) {
+    void removeSpuriousAuthority(SMessage response) {
         // if no answer and only 1 auth RRset, do not remove that one
         if (response.getSectionRRsets(Section.ANSWER).size() == 0 && response.getSectionRRsets(Section.AUTHORITY).size() == 1) {
             return;
@@ -282,21 +632,21 @@ public class ValidatingResolver implements Resolver {
      * 
      * @param request The request that generated this response.
      * @param response The response to validate.
+     * @param state The state of the validation of this response.
      */
-    private void validatePositiveResponse(Message request, SMessage response) {
+    private void validatePositiveResponse(Message request, SMessage response, ValidationState state) {
         int qtype = request.getQuestion().getType();
 
         Map<Name, Name> wcs = new HashMap<Name, Name>(1);
         List<SRRset> nsec3s = new ArrayList<SRRset>(0);
         List<SRRset> nsecs = new ArrayList<SRRset>(0);
 
-        if (!this.validateAnswerAndGetWildcards(response, qtype, wcs)) {
+        if (!this.validateAnswerAndGetWildcards(response, qtype, wcs, state)) {
             return;
         }
 
         // validate the AUTHORITY section as well - this will generally be the
         // NS rrset (which could be missing, no problem)
-        SRRset keyRrset;
         int[] sections;
         if (request.getQuestion().getType() == Type.ANY) {
             sections = new int[] { Section.ANSWER, Section.AUTHORITY };
@@ -307,13 +657,12 @@ public class ValidatingResolver implements Resolver {
 
         for (int section : sections) {
             for (SRRset set : response.getSectionRRsets(section)) {
-                KeyEntry ke = this.prepareFindKey(set);
+                KeyEntry ke = this.keyFinder.findKey(set, state);
                 if (!this.processKeyValidate(response, set.getSignerName(), ke)) {
                     return;
                 }
 
-                keyRrset = ke.getRRset();
-                SecurityStatus status = this.valUtils.verifySRRset(set, keyRrset);
+                SecurityStatus status = this.verifySRRset(set, ke, state.trace, state.budget);
                 // If anything in the authority section fails to be secure, we
                 // have a bad message.
                 if (status != SecurityStatus.SECURE) {
@@ -370,7 +719,9 @@ public class ValidatingResolver implements Resolver {
                         return;
                     }
 
-                    SecurityStatus status = this.n3valUtils.proveWildcard(nsec3s, wc.getKey(), nsec3s.get(0).getSignerName(), wc.getValue());
+                    long start = ValidationTrace.now(state.trace);
+                    SecurityStatus status = this.n3valUtils.proveWildcard(nsec3s, wc.getKey(), nsec3s.get(0).getSignerName(), wc.getValue(), state.budget);
+                    ValidationTrace.add(state.trace, ValidationTrace.SpanType.NSEC3_PROOF, wc.getKey(), qtype, start, status.name());
                     if (status == SecurityStatus.INSECURE) {
                         response.setStatus(status);
                         return;
@@ -392,7 +743,7 @@ public class ValidatingResolver implements Resolver {
         response.setStatus(SecurityStatus.SECURE);
     }
 
-    private boolean validateAnswerAndGetWildcards(SMessage response, int qtype, Map<Name, Name> wcs) {
+    private boolean validateAnswerAndGetWildcards(SMessage response, int qtype, Map<Name, Name> wcs, ValidationState state) {
         // validate the ANSWER section - this will be the answer itself
         DNAMERecord dname = null;
         for (SRRset set : response.getSectionRRsets(Section.ANSWER)) {
@@ -423,12 +774,12 @@ public class ValidatingResolver implements Resolver {
             }
 
             // Verify the answer rrset.
-            KeyEntry ke = this.prepareFindKey(set);
+            KeyEntry ke = this.keyFinder.findKey(set, state);
             if (!this.processKeyValidate(response, set.getSignerName(), ke)) {
                 return false;
             }
 
-            SecurityStatus status = this.valUtils.verifySRRset(set, ke.getRRset());
+            SecurityStatus status = this.verifySRRset(set, ke, state.trace, state.budget);
             // If the answer rrset failed to validate, then this message is BAD
             if (status != SecurityStatus.SECURE) {
                 response.setBogus(R.get("failed.answer.positive", set));
@@ -479,8 +830,9 @@ public class ValidatingResolver implements Resolver {
      * 
      * @param request The request that generated this response.
      * @param response The response to validate.
+     * @param state The state of the validation of this response.
      */
-    private void validateNodataResponse(Message request, SMessage response) {
+    private void validateNodataResponse(Message request, SMessage response, ValidationState state) {
         Name qname = request.getQuestion().getName();
         int qtype = request.getQuestion().getType();
 
@@ -517,12 +869,12 @@ public class ValidatingResolver implements Resolver {
 
         // validate the AUTHORITY section
         for (SRRset set : response.getSectionRRsets(Section.AUTHORITY)) {
-            KeyEntry ke = this.prepareFindKey(set);
+            KeyEntry ke = this.keyFinder.findKey(set, state);
             if (!this.processKeyValidate(response, set.getSignerName(), ke)) {
                 return;
             }
 
-            SecurityStatus status = this.valUtils.verifySRRset(set, ke.getRRset());
+            SecurityStatus status = this.verifySRRset(set, ke, state.trace, state.budget);
             if (status != SecurityStatus.SECURE) {
                 response.setBogus(R.get("failed.authority.nodata", set));
                 return;
@@ -566,7 +918,9 @@ public class ValidatingResolver implements Resolver {
             }
 
             // try to prove NODATA with our NSEC3 record(s)
-            SecurityStatus status = this.n3valUtils.proveNodata(nsec3s, qname, qtype, nsec3Signer);
+            long start = ValidationTrace.now(state.trace);
+            SecurityStatus status = this.n3valUtils.proveNodata(nsec3s, qname, qtype, nsec3Signer, state.budget);
+            ValidationTrace.add(state.trace, ValidationTrace.SpanType.NSEC3_PROOF, qname, qtype, start, status.name());
             if (status == SecurityStatus.INSECURE) {
                 response.setStatus(SecurityStatus.INSECURE);
                 return;
@@ -597,8 +951,9 @@ public class ValidatingResolver implements Resolver {
      * 
      * @param request The request to be proved to not exist.
      * @param response The response to validate.
+     * @param state The state of the validation of this response.
      */
-    private void validateNameErrorResponse(Message request, SMessage response) {
+    private void validateNameErrorResponse(Message request, SMessage response, ValidationState state) {
         Name qname = request.getQuestion().getName();
 
         // The ANSWER section is either empty OR it contains an xNAME chain that
@@ -623,16 +978,14 @@ public class ValidatingResolver implements Resolver {
         boolean hasValidWCNSEC = false;
         List<SRRset> nsec3s = new ArrayList<SRRset>(0);
         Name nsec3Signer = null;
-        SRRset keyRrset;
 
         for (SRRset set : response.getSectionRRsets(Section.AUTHORITY)) {
-            KeyEntry ke = this.prepareFindKey(set);
+            KeyEntry ke = this.keyFinder.findKey(set, state);
             if (!this.processKeyValidate(response, set.getSignerName(), ke)) {
                 return;
             }
 
-            keyRrset = ke.getRRset();
-            SecurityStatus status = this.valUtils.verifySRRset(set, keyRrset);
+            SecurityStatus status = this.verifySRRset(set, ke, state.trace, state.budget);
             if (status != SecurityStatus.SECURE) {
                 response.setBogus(R.get("failed.nxdomain.authority", set));
                 return;
@@ -665,7 +1018,9 @@ public class ValidatingResolver implements Resolver {
                 return;
             }
 
-            SecurityStatus status = this.n3valUtils.proveNameError(nsec3s, qname, nsec3Signer);
+            long start = ValidationTrace.now(state.trace);
+            SecurityStatus status = this.n3valUtils.proveNameError(nsec3s, qname, nsec3Signer, state.budget);
+            ValidationTrace.add(state.trace, ValidationTrace.SpanType.NSEC3_PROOF, qname, request.getQuestion().getType(), start, status.name());
             if (status != SecurityStatus.SECURE) {
                 if (status == SecurityStatus.INSECURE) {
                     response.setStatus(status, R.get("failed.nxdomain.nsec3_insecure"));
@@ -699,341 +1054,58 @@ public class ValidatingResolver implements Resolver {
         response.setStatus(SecurityStatus.SECURE);
     }
 
-    private SMessage sendRequest(Message request) {
+    /**
+     * Sends a request to the head resolver and measures the round trip.
+     * 
+     * @param request The request to send.
+     * @param trace The trace that receives the round trip, can be
+     *            <code>null</code>.
+     * @return The response, or a SERVFAIL response if the request failed.
+     */
+    SMessage sendRequest(Message request, ValidationTrace trace) {
         Record q = request.getQuestion();
         logger.trace("sending request: <" + q.getName() + "/" + Type.string(q.getType()) + "/" + DClass.string(q.getDClass()) + ">");
 
         // Send the request along by using a local copy of the request
-        Message localRequest = (Message)request.clone();
-        localRequest.getHeader().setFlag(Flags.CD);
+        Message localRequest = this.prepareRequest(request);
+        long start = System.nanoTime();
+        SMessage response;
         try {
-            Message resp = this.headResolver.send(localRequest);
-            return new SMessage(resp);
+            response = new SMessage(this.headResolver.send(localRequest));
         }
         catch (SocketTimeoutException e) {
             logger.error("Query timed out, returning fail", e);
-            return ValidatingResolver.errorMessage(localRequest, Rcode.SERVFAIL);
+            response = ValidatingResolver.errorMessage(localRequest, Rcode.SERVFAIL);
         }
         catch (UnknownHostException e) {
             logger.error("failed to send query", e);
-            return ValidatingResolver.errorMessage(localRequest, Rcode.SERVFAIL);
+            response = ValidatingResolver.errorMessage(localRequest, Rcode.SERVFAIL);
         }
         catch (IOException e) {
             logger.error("failed to send query", e);
-            return ValidatingResolver.errorMessage(localRequest, Rcode.SERVFAIL);
-        }
-    }
-
-    private KeyEntry prepareFindKey(SRRset rrset) {
-        FindKeyState state = new FindKeyState();
-        state.signerName = rrset.getSignerName();
-        state.qclass = rrset.getDClass();
-
-        if (state.signerName == null) {
-            state.signerName = rrset.getName();
-        }
-
-        SRRset trustAnchorRRset = this.trustAnchors.find(state.signerName, rrset.getDClass());
-        if (trustAnchorRRset == null) {
-            // response isn't under a trust anchor, so we cannot validate.
-            return KeyEntry.newNullKeyEntry(rrset.getSignerName(), rrset.getDClass(), DEFAULT_TA_BAD_KEY_TTL);
-        }
-
-        state.keyEntry = this.keyCache.find(state.signerName, rrset.getDClass());
-        if (state.keyEntry == null || (!state.keyEntry.getName().equals(state.signerName) && state.keyEntry.isGood())) {
-            // start the FINDKEY phase with the trust anchor
-            state.dsRRset = trustAnchorRRset;
-            state.keyEntry = null;
-            state.currentDSKeyName = new Name(trustAnchorRRset.getName(), 1);
-
-            // and otherwise, don't continue processing this event.
-            // (it will be reactivated when the priming query returns).
-            this.processFindKey(state);
-        }
-
-        return state.keyEntry;
-    }
-
-    /**
-     * Process the FINDKEY state. Generally this just calculates the next name
-     * to query and either issues a DS or a DNSKEY query. It will check to see
-     * if the correct key has already been reached, in which case it will
-     * advance the event to the next state.
-     * 
-     * @param state The state associated with the current key finding phase.
-     */
-    private void processFindKey(FindKeyState state) {
-        // We know that state.keyEntry is not a null or bad key -- if it were,
-        // then previous processing should have directed this event to a
-        // different state.
-        int qclass = state.qclass;
-        Name targetKeyName = state.signerName;
-        Name currentKeyName = Name.empty;
-        if (state.keyEntry != null) {
-            currentKeyName = state.keyEntry.getName();
-        }
-
-        if (state.currentDSKeyName != null) {
-            currentKeyName = state.currentDSKeyName;
-            state.currentDSKeyName = null;
-        }
-
-        // If our current key entry matches our target, then we are done.
-        if (currentKeyName.equals(targetKeyName)) {
-            return;
-        }
-
-        if (state.emptyDSName != null) {
-            currentKeyName = state.emptyDSName;
-        }
-
-        // Calculate the next lookup name.
-        int targetLabels = targetKeyName.labels();
-        int currentLabels = currentKeyName.labels();
-        int l = targetLabels - currentLabels - 1;
-
-        // the next key name would be trying to invent a name, so we stop here
-        if (l < 0) {
-            return;
-        }
-
-        Name nextKeyName = new Name(targetKeyName, l);
-        logger.trace("findKey: targetKeyName = " + targetKeyName + ", currentKeyName = " + currentKeyName + ", nextKeyName = " + nextKeyName);
-
-        // The next step is either to query for the next DS, or to query for the
-        // next DNSKEY.
-        if (state.dsRRset == null || !state.dsRRset.getName().equals(nextKeyName)) {
-            Message dsRequest = Message.newQuery(Record.newRecord(nextKeyName, Type.DS, qclass));
-            SMessage dsResponse = this.sendRequest(dsRequest);
-            this.processDSResponse(dsRequest, dsResponse, state);
-            return;
-        }
-
-        // Otherwise, it is time to query for the DNSKEY
-        Message dnskeyRequest = Message.newQuery(Record.newRecord(state.dsRRset.getName(), Type.DNSKEY, qclass));
-        SMessage dnskeyResponse = this.sendRequest(dnskeyRequest);
-        this.processDNSKEYResponse(dnskeyRequest, dnskeyResponse, state);
-    }
-
-    /**
-     * Given a DS response, the DS request, and the current key rrset, validate
-     * the DS response, returning a KeyEntry.
-     * 
-     * @param response The DS response.
-     * @param request The DS request.
-     * @param keyRrset The current DNSKEY rrset from the forEvent state.
-     * 
-     * @return A KeyEntry, bad if the DS response fails to validate, null if the
-     *         DS response indicated an end to secure space, good if the DS
-     *         validated. It returns null if the DS response indicated that the
-     *         request wasn't a delegation point.
-     */
-    private KeyEntry dsResponseToKE(SMessage response, Message request, SRRset keyRrset) {
-        Name qname = request.getQuestion().getName();
-        int qclass = request.getQuestion().getDClass();
-
-        SecurityStatus status;
-        ResponseClassification subtype = ValUtils.classifyResponse(request, response);
-
-        KeyEntry bogusKE = KeyEntry.newBadKeyEntry(qname, qclass, DEFAULT_TA_BAD_KEY_TTL);
-        switch (subtype) {
-            case POSITIVE:
-                // Verify only returns BOGUS or SECURE. If the rrset is bogus,
-                // then we are done.
-                SRRset dsRrset = response.findAnswerRRset(qname, Type.DS, qclass);
-                status = this.valUtils.verifySRRset(dsRrset, keyRrset);
-                if (status != SecurityStatus.SECURE) {
-                    bogusKE.setBadReason(R.get("failed.ds"));
-                    return bogusKE;
-                }
-
-                if (!ValUtils.atLeastOneSupportedAlgorithm(dsRrset)) {
-                    KeyEntry nullKey = KeyEntry.newNullKeyEntry(qname, qclass, dsRrset.getTTL());
-                    nullKey.setBadReason(R.get("insecure.ds.noalgorithms", qname));
-                    return nullKey;
-                }
-
-                // Otherwise, we return the positive response.
-                logger.trace("DS rrset was good.");
-                return KeyEntry.newKeyEntry(dsRrset);
-
-            case CNAME:
-                // Verify only returns BOGUS or SECURE. If the rrset is bogus,
-                // then we are done.
-                SRRset cnameRrset = response.findAnswerRRset(qname, Type.CNAME, qclass);
-                status = this.valUtils.verifySRRset(cnameRrset, keyRrset);
-                if (status == SecurityStatus.SECURE) {
-                    return null;
-                }
-
-                bogusKE.setBadReason(R.get("failed.ds.cname"));
-                return bogusKE;
-
-            case NODATA:
-            case NAMEERROR:
-                return this.dsReponseToKeForNodata(response, request, keyRrset);
-
-            default:
-                // We've encountered an unhandled classification for this
-                // response.
-                bogusKE.setBadReason(R.get("failed.ds.notype", subtype));
-                return bogusKE;
+            response = ValidatingResolver.errorMessage(localRequest, Rcode.SERVFAIL);
         }
-    }
-
-    /**
-     * Given a DS response, the DS request, and the current key rrset, validate
-     * the DS response for the NODATA case, returning a KeyEntry.
-     * 
-     * @param response The DS response.
-     * @param request The DS request.
-     * @param keyRrset The current DNSKEY rrset from the forEvent state.
-     * 
-     * @return A KeyEntry, bad if the DS response fails to validate, null if the
-     *         DS response indicated an end to secure space, good if the DS
-     *         validated. It returns null if the DS response indicated that the
-     *         request wasn't a delegation point.
-     */
-    private KeyEntry dsReponseToKeForNodata(SMessage response, Message request, SRRset keyRrset) {
-        Name qname = request.getQuestion().getName();
-        int qclass = request.getQuestion().getDClass();
-        KeyEntry bogusKE = KeyEntry.newBadKeyEntry(qname, qclass, DEFAULT_TA_BAD_KEY_TTL);
-
-        if (!this.valUtils.hasSignedNsecs(response)) {
-            bogusKE.setBadReason(R.get("failed.ds.nonsec", qname));
-            return bogusKE;
+        finally {
+            this.metrics.roundTrip(q.getType(), System.nanoTime() - start);
         }
 
-        // Try to prove absence of the DS with NSEC
-        JustifiedSecStatus status = this.valUtils.nsecProvesNodataDsReply(request, response, keyRrset);
-        switch (status.status) {
-            case SECURE:
-                KeyEntry nullKey = KeyEntry.newNullKeyEntry(qname, qclass, DEFAULT_TA_BAD_KEY_TTL);
-                nullKey.setBadReason(R.get("insecure.ds.nsec"));
-                return nullKey;
-            case INSECURE:
-                return null;
-            case BOGUS:
-                bogusKE.setBadReason(status.reason);
-                return bogusKE;
-            default:
-                // NSEC proof did not work, try NSEC3
-                break;
+        if (trace != null) {
+            ValidationTrace.add(trace, ValidationTrace.SpanType.QUERY, q.getName(), q.getType(), start, Rcode.string(response.getRcode()));
         }
 
-        // Or it could be using NSEC3.
-        SRRset[] nsec3Rrsets = response.getSectionRRsets(Section.AUTHORITY, Type.NSEC3);
-        List<SRRset> nsec3s = new ArrayList<SRRset>(0);
-        Name nsec3Signer = null;
-        long nsec3TTL = -1;
-        if (nsec3Rrsets.length > 0) {
-            // Attempt to prove no DS with NSEC3s.
-            for (SRRset nsec3set : nsec3Rrsets) {
-                SecurityStatus sstatus = this.valUtils.verifySRRset(nsec3set, keyRrset);
-                if (sstatus != SecurityStatus.SECURE) {
-                    // We could just fail here as there is an invalid rrset, but
-                    // skipping doesn't matter because we might not need it or
-                    // the proof will fail anyway.
-                    logger.debug("skipping bad nsec3");
-                    continue;
-                }
-
-                nsec3Signer = nsec3set.getSignerName();
-                if (nsec3TTL < 0 || nsec3set.getTTL() < nsec3TTL) {
-                    nsec3TTL = nsec3set.getTTL();
-                }
-
-                nsec3s.add(nsec3set);
-            }
-
-            switch (this.n3valUtils.proveNoDS(nsec3s, qname, nsec3Signer)) {
-                case INSECURE:
-                    // case insecure also continues to unsigned space. 
-                    // If nsec3-iter-count too high or optout, then treat below as unsigned
-                case SECURE:
-                    KeyEntry nullKey = KeyEntry.newNullKeyEntry(qname, qclass, nsec3TTL);
-                    nullKey.setBadReason(R.get("insecure.ds.nsec3"));
-                    return nullKey;
-                case INDETERMINATE:
-                    logger.debug("nsec3s for the referral proved no delegation.");
-                    return null;
-                case BOGUS:
-                    bogusKE.setBadReason(R.get("failed.ds.nsec3"));
-                    return bogusKE;
-                default:
-                    bogusKE.setBadReason(R.get("unknown.ds.nsec3"));
-                    return bogusKE;
-            }
-        }
-
-        // Apparently, no available NSEC/NSEC3 proved NODATA, so this is
-        // BOGUS.
-        bogusKE.setBadReason(R.get("failed.ds.unknown"));
-        return bogusKE;
+        return response;
     }
 
     /**
-     * This handles the responses to locally generated DS queries.
+     * Creates the local copy of a request that is sent to the head resolver.
      * 
-     * @param request The request for which the response is processed.
-     * @param response The response to process.
-     * @param state The state associated with the current key finding phase.
+     * @param request The request to send.
+     * @return A copy of the request with the CD flag set.
      */
-    private void processDSResponse(Message request, SMessage response, FindKeyState state) {
-        Name qname = request.getQuestion().getName();
-
-        state.emptyDSName = null;
-        state.dsRRset = null;
-
-        KeyEntry dsKE = this.dsResponseToKE(response, request, state.keyEntry.getRRset());
-        if (dsKE == null) {
-            // DS response indicated that we aren't on a delegation point.
-            state.emptyDSName = qname;
-        }
-        else if (dsKE.isGood()) {
-            state.dsRRset = dsKE.getRRset();
-            state.currentDSKeyName = new Name(dsKE.getRRset().getName(), 1);
-        }
-        else {
-            // The reason for the DS to be not good (that is, either bad
-            // or null) should have been logged by dsResponseToKE.
-            state.keyEntry = dsKE;
-            if (dsKE.isNull()) {
-                this.keyCache.store(dsKE);
-            }
-
-            // The FINDKEY phase has ended, so move on.
-            return;
-        }
-
-        this.processFindKey(state);
-    }
-
-    private void processDNSKEYResponse(Message request, SMessage response, FindKeyState state) {
-        Name qname = request.getQuestion().getName();
-        int qclass = request.getQuestion().getDClass();
-
-        SRRset dnskeyRrset = response.findAnswerRRset(qname, Type.DNSKEY, qclass);
-        if (dnskeyRrset == null) {
-            // If the DNSKEY rrset was missing, this is the end of the line.
-            state.keyEntry = KeyEntry.newBadKeyEntry(qname, qclass, DEFAULT_TA_BAD_KEY_TTL);
-            state.keyEntry.setBadReason(R.get("dnskey.no_rrset", qname));
-            return;
-        }
-
-        state.keyEntry = this.valUtils.verifyNewDNSKEYs(dnskeyRrset, state.dsRRset, DEFAULT_TA_BAD_KEY_TTL);
-
-        // If the key entry isBad or isNull, then we can move on to the next
-        // state.
-        if (!state.keyEntry.isGood()) {
-            return;
-        }
-
-        // The DNSKEY validated, so cache it as a trusted key rrset.
-        this.keyCache.store(state.keyEntry);
-
-        // If good, we stay in the FINDKEY state.
-        this.processFindKey(state);
+    Message prepareRequest(Message request) {
+        Message localRequest = (Message)request.clone();
+        localRequest.getHeader().setFlag(Flags.CD);
+        return localRequest;
     }
 
     private boolean processKeyValidate(SMessage response, Name signerName, KeyEntry keyEntry) {
@@ -1079,7 +1151,16 @@ public class ValidatingResolver implements Resolver {
         return true;
     }
 
-    private SMessage processValidate(Message request, SMessage response) {
+    /**
+     * Validates a response with the keys that were found for its RRsets and
+     * sets its security status.
+     * 
+     * @param request The request that was sent.
+     * @param response The response to validate.
+     * @param state The state of the validation, with the found keys.
+     * @return The validated response.
+     */
+    SMessage processValidate(Message request, SMessage response, ValidationState state) {
         ResponseClassification subtype = ValUtils.classifyResponse(request, response);
         if (subtype != ResponseClassification.REFERRAL) {
             this.removeSpuriousAuthority(response);
@@ -1090,35 +1171,35 @@ public class ValidatingResolver implements Resolver {
             case CNAME:
             case ANY:
                 logger.trace("Validating a positive response");
-                this.validatePositiveResponse(request, response);
+                this.validatePositiveResponse(request, response, state);
                 break;
 
             case NODATA:
                 logger.trace("Validating a nodata response");
-                this.validateNodataResponse(request, response);
+                this.validateNodataResponse(request, response, state);
                 break;
 
             case CNAME_NODATA:
                 logger.trace("Validating a CNAME_NODATA response");
-                this.validatePositiveResponse(request, response);
+                this.validatePositiveResponse(request, response, state);
                 if (response.getStatus() != SecurityStatus.INSECURE) {
                     response.setStatus(SecurityStatus.UNCHECKED);
-                    this.validateNodataResponse(request, response);
+                    this.validateNodataResponse(request, response, state);
                 }
 
                 break;
 
             case NAMEERROR:
                 logger.trace("Validating a nxdomain response");
-                this.validateNameErrorResponse(request, response);
+                this.validateNameErrorResponse(request, response, state);
                 break;
 
             case CNAME_NAMEERROR:
                 logger.trace("Validating a cname_nxdomain response");
-                this.validatePositiveResponse(request, response);
+                this.validatePositiveResponse(request, response, state);
                 if (response.getStatus() != SecurityStatus.INSECURE) {
                     response.setStatus(SecurityStatus.UNCHECKED);
-                    this.validateNameErrorResponse(request, response);
+                    this.validateNameErrorResponse(request, response, state);
                 }
 
                 break;
@@ -1127,7 +1208,16 @@ public class ValidatingResolver implements Resolver {
                 response.setStatus(SecurityStatus.BOGUS, R.get("validate.response.unknown", subtype));
         }
 
-        return this.processFinishedState(request, response);
+        if (ValidationBudget.isExhausted(state.budget)) {
+            // whatever was proven until then, the response cannot be trusted
+            logger.debug("validation budget exhausted: " + state.budget.getBadReason());
+            response.setBogus(state.budget.getBadReason());
+            this.metrics.budgetExhausted();
+        }
+
+        SMessage validated = this.processFinishedState(request, response);
+        this.metrics.validated(validated.getStatus());
+        return validated;
     }
 
     /**
@@ -1240,6 +1330,7 @@ public class ValidatingResolver implements Resolver {
      */
     public void setTimeout(int secs, int msecs) {
         this.headResolver.setTimeout(secs, msecs);
+        this.timeout = TimeUnit.SECONDS.toMillis(secs) + msecs;
     }
 
     /**
@@ -1250,7 +1341,17 @@ public class ValidatingResolver implements Resolver {
      * @param secs The number of seconds to wait.
      */
     public void setTimeout(int secs) {
-        this.headResolver.setTimeout(secs);
+        this.setTimeout(secs, 0);
+    }
+
+    /**
+     * Gets the time to wait for a response of the head resolver. A validation
+     * that waits for a query of another does not wait longer.
+     * 
+     * @return The timeout [ms].
+     */
+    long getTimeout() {
+        return this.timeout;
     }
 
     /**
@@ -1262,25 +1363,80 @@ public class ValidatingResolver implements Resolver {
      * @throws IOException An error occurred while sending or receiving.
      */
     public Message send(Message query) throws IOException {
-        SMessage response = this.sendRequest(query);
+        Message cached = this.responseCache.get(query);
+        if (cached != null) {
+            return cached;
+        }
+
+        ValidationTrace trace = this.startTrace(query);
+        SMessage response = this.sendRequest(query, trace);
+        if (!this.isValidationRequired(query, response)) {
+            Message m = response.getMessage();
+            this.finishTrace(trace, query, m);
+            return m;
+        }
+
+        final SMessage validated = this.processValidate(query, response, new ValidationState(query, trace, this.newBudget()));
+        Message m = this.createResponseMessage(validated);
+        this.responseCache.store(query, validated, m);
+        this.finishTrace(trace, query, m);
+        return m;
+    }
+
+    /**
+     * Sends a message asynchronously and validates the response with DNSSEC
+     * before passing it to the listener. The query and all DS and DNSKEY
+     * queries that are needed to build the chain of trust are sent with
+     * {@link Resolver#sendAsync(Message, ResolverListener)} of the head
+     * resolver, so no thread is blocked while waiting for a response.
+     * 
+     * @param query The query to send
+     * @param listener The object containing the callbacks.
+     * @return An identifier, which is also a parameter in the callback
+     */
+    public Object sendAsync(Message query, ResolverListener listener) {
+        Object id = Integer.valueOf(this.asyncId.incrementAndGet());
+        Message cached = this.responseCache.get(query);
+        if (cached != null) {
+            listener.receiveMessage(id, cached);
+            return id;
+        }
+
+        new AsyncValidation(this, id, query, listener).start();
+        return id;
+    }
+
+    /**
+     * Determines if a response needs to be validated. Responses to queries with
+     * the CD flag set and positive RRSIG responses are returned as is. The AD
+     * flag is removed from the response in any case.
+     * 
+     * @param query The query that was sent.
+     * @param response The response from the head resolver.
+     * @return <code>true</code> if the response must be validated.
+     */
+    boolean isValidationRequired(Message query, SMessage response) {
         response.getHeader().unsetFlag(Flags.AD);
 
         // If the CD bit is set, do not process the (cached) validation status.
         if (query.getHeader().getFlag(Flags.CD)) {
-            return response.getMessage();
+            return false;
         }
 
         // Positive RRSIG responses cannot be validated as there are no
         // signatures on signatures. Negative answers CAN be validated.
-        Message rrsigResponse = response.getMessage();
-        if (query.getQuestion().getType() == Type.RRSIG && rrsigResponse.getHeader().getRcode() == Rcode.NOERROR
-                && rrsigResponse.getSectionRRsets(Section.ANSWER).length > 0) {
-            rrsigResponse.getHeader().unsetFlag(Flags.AD);
-            return rrsigResponse;
-        }
-
-        final SMessage validated = this.processValidate(query, response);
+        return !(query.getQuestion().getType() == Type.RRSIG && response.getHeader().getRcode() == Rcode.NOERROR
+                && response.getSectionRRsets(Section.ANSWER).size() > 0);
+    }
 
+    /**
+     * Converts a validated response to the message that is returned to the
+     * caller, including the reason for the validation result.
+     * 
+     * @param validated The validated response.
+     * @return The response message.
+     */
+    Message createResponseMessage(SMessage validated) {
         Message m = validated.getMessage();
         String reason = validated.getBogusReason();
         if (reason != null) {
@@ -1297,18 +1453,6 @@ public class ValidatingResolver implements Resolver {
         return m;
     }
 
-    /**
-     * Not implemented.
-     * 
-     * @param query The query to send
-     * @param listener The object containing the callbacks.
-     * @return An identifier, which is also a parameter in the callback
-     * @throws UnsupportedOperationException Always
-     */
-    public Object sendAsync(Message query, ResolverListener listener) {
-        throw new UnsupportedOperationException("Not implemented");
-    }
-
     /**
      * Creates a response message with the given return code.
      * 
@@ -1316,7 +1460,7 @@ public class ValidatingResolver implements Resolver {
      * @param rcode The response code, @see Rcode
      * @return The response message for <code>request</code>.
      */
-    private static SMessage errorMessage(Message request, int rcode) {
+    static SMessage errorMessage(Message request, int rcode) {
         SMessage m = new SMessage(request.getHeader().getID(), request.getQuestion());
         Header h = m.getHeader();
         h.setRcode(rcode);
@@ -0,0 +1,168 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.jitsi.dnssec.R;
+
+/**
+ * The work that the validation of a single query may cause. A response can
+ * carry many signatures and colliding key tags, or NSEC3 records with many
+ * ancestors to hash, and a chain of trust can be long. Without a limit, a
+ * hostile zone could keep a thread busy with a single query. Once one of the
+ * limits is exceeded, every further limited operation fails, so the
+ * validation ends quickly and the response is bogus.
+ * <p>
+ * Only the operations that are actually performed are counted: signatures
+ * answered from the signature cache and hashes answered from the NSEC3 hash
+ * cache are free.
+ */
+final class ValidationBudget {
+    /**
+     * Name of the property that configures the maximum number of signature
+     * verifications per query, 0 disables the limit.
+     */
+    static final String MAX_VERIFICATIONS_CONFIG = "org.jitsi.dnssec.budget.max_verifications";
+
+    /**
+     * Name of the property that configures the maximum number of NSEC3 hash
+     * computations per query, 0 disables the limit.
+     */
+    static final String MAX_NSEC3_HASHES_CONFIG = "org.jitsi.dnssec.budget.max_nsec3_hashes";
+
+    /**
+     * Name of the property that configures the maximum number of DS and
+     * DNSKEY queries per query, 0 disables the limit.
+     */
+    static final String MAX_QUERIES_CONFIG = "org.jitsi.dnssec.budget.max_queries";
+
+    private static final int DEFAULT_MAX_VERIFICATIONS = 128;
+    private static final int DEFAULT_MAX_NSEC3_HASHES = 512;
+    private static final int DEFAULT_MAX_QUERIES = 64;
+
+    /**
+     * The kinds of work that are limited.
+     */
+    enum Resource {
+        /** A cryptographic signature verification. */
+        VERIFICATION("signature verifications"),
+
+        /** The computation of an NSEC3 hash. */
+        NSEC3_HASH("NSEC3 hashes"),
+
+        /** A DS or DNSKEY query of a FINDKEY phase. */
+        QUERY("DS and DNSKEY queries");
+
+        private final String description;
+
+        /**
+         * Creates a resource.
+         *
+         * @param description The plural of the resource, for bad reasons.
+         */
+        Resource(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return this.description;
+        }
+    }
+
+    private final int[] limits;
+    private final AtomicIntegerArray used;
+    private volatile Resource exhausted;
+
+    /**
+     * Creates a budget with the limits of the configuration. Supported
+     * properties are {@link #MAX_VERIFICATIONS_CONFIG},
+     * {@link #MAX_NSEC3_HASHES_CONFIG} and {@link #MAX_QUERIES_CONFIG}.
+     *
+     * @param config The configuration data.
+     */
+    ValidationBudget(Properties config) {
+        this.limits = new int[Resource.values().length];
+        this.limits[Resource.VERIFICATION.ordinal()] = Integer.parseInt(config.getProperty(MAX_VERIFICATIONS_CONFIG,
+                Integer.toString(DEFAULT_MAX_VERIFICATIONS)));
+        this.limits[Resource.NSEC3_HASH.ordinal()] = Integer.parseInt(config.getProperty(MAX_NSEC3_HASHES_CONFIG,
+                Integer.toString(DEFAULT_MAX_NSEC3_HASHES)));
+        this.limits[Resource.QUERY.ordinal()] = Integer.parseInt(config.getProperty(MAX_QUERIES_CONFIG,
+                Integer.toString(DEFAULT_MAX_QUERIES)));
+        this.used = new AtomicIntegerArray(this.limits.length);
+    }
+
+    /**
+     * Creates an unused budget with the limits of another.
+     *
+     * @param limits The budget whose limits are used.
+     */
+    ValidationBudget(ValidationBudget limits) {
+        this.limits = limits.limits;
+        this.used = new AtomicIntegerArray(this.limits.length);
+    }
+
+    /**
+     * Spends one unit of a resource.
+     *
+     * @param budget The budget, can be <code>null</code> for an unlimited
+     *            budget.
+     * @param resource The kind of work that is about to be done.
+     * @return <code>true</code> if the work may be done, <code>false</code>
+     *         if the budget is exhausted.
+     */
+    static boolean spend(ValidationBudget budget, Resource resource) {
+        if (budget == null || budget.exhausted != null) {
+            return budget == null;
+        }
+
+        int limit = budget.limits[resource.ordinal()];
+        if (limit > 0 && budget.used.incrementAndGet(resource.ordinal()) > limit) {
+            budget.exhausted = resource;
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if a budget is exhausted.
+     *
+     * @param budget The budget, can be <code>null</code> for an unlimited
+     *            budget.
+     * @return <code>true</code> if a limit of the budget was exceeded.
+     */
+    static boolean isExhausted(ValidationBudget budget) {
+        return budget != null && budget.exhausted != null;
+    }
+
+    /**
+     * Gets the resource whose limit was exceeded first.
+     *
+     * @return The resource, or <code>null</code> if the budget is not
+     *         exhausted.
+     */
+    Resource getExhausted() {
+        return this.exhausted;
+    }
+
+    /**
+     * Gets the reason why a validation that exhausted the budget is bogus.
+     *
+     * @return The reason, <code>null</code> if the budget is not exhausted.
+     */
+    String getBadReason() {
+        Resource r = this.exhausted;
+        return r == null ? null : R.get("failed.budget", this.limits[r.ordinal()], r);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import org.jitsi.dnssec.SecurityStatus;
+
+/**
+ * Receives the measurements of the validation engine. The methods are called
+ * on the hot path of the validation, by any thread, and must therefore be
+ * fast and thread-safe. Implementations that are only interested in some of
+ * the measurements can extend {@link NoopValidationMetrics}.
+ *
+ * @see ValidatingResolver#setMetrics(ValidationMetrics)
+ * @see HistogramValidationMetrics
+ */
+public interface ValidationMetrics {
+    /**
+     * Called when the head resolver answered a query, or failed to.
+     *
+     * @param qtype The type of the query.
+     * @param nanos The time between sending the query and receiving the
+     *            response or error.
+     */
+    void roundTrip(int qtype, long nanos);
+
+    /**
+     * Called when a FINDKEY phase, the walk down the chain of trust from a
+     * trust anchor or cached key, has ended.
+     *
+     * @param depth The number of DS and DNSKEY queries of the phase.
+     */
+    void keySearched(int depth);
+
+    /**
+     * Called when a key was found in the key cache.
+     */
+    void keyCacheHit();
+
+    /**
+     * Called when no key was found in the key cache.
+     */
+    void keyCacheMiss();
+
+    /**
+     * Called when a key was evicted from the full key cache.
+     */
+    void keyCacheEviction();
+
+    /**
+     * Called when a signature was verified with a cryptographic operation,
+     * that is not answered from the signature cache.
+     *
+     * @param algorithm The DNSSEC algorithm of the key.
+     * @param valid <code>true</code> if the signature is valid.
+     */
+    void signatureVerified(int algorithm, boolean valid);
+
+    /**
+     * Called when the NSEC3 hash of a name was computed.
+     *
+     * @param iterations The hash iterations of the NSEC3 record.
+     */
+    void nsec3Hashed(int iterations);
+
+    /**
+     * Called when the validation of a response exceeded the work budget of a
+     * query and the response was therefore made bogus.
+     */
+    void budgetExhausted();
+
+    /**
+     * Called when the validation of a response has completed.
+     *
+     * @param status The final security status of the response.
+     */
+    void validated(SecurityStatus status);
+}
@@ -0,0 +1,75 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+
+/**
+ * State-object for the validation of a single query.
+ */
+class ValidationState {
+    /**
+     * The query that is being validated.
+     */
+    Message request;
+
+    /**
+     * The key entries that were found for the signers of the response, keyed
+     * by {@link #key(Name, int)}.
+     */
+    Map<String, KeyEntry> keyEntries = new HashMap<String, KeyEntry>();
+
+    /**
+     * The trace of the validation, <code>null</code> if it is not traced.
+     */
+    ValidationTrace trace;
+
+    /**
+     * The work that the validation may still cause.
+     */
+    ValidationBudget budget;
+
+    /**
+     * Indicates that the keys were collected before the validation, on a
+     * thread that must not block. A key that is still missing is then bad
+     * instead of searched.
+     */
+    boolean keysCollected;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param request The query that is being validated.
+     * @param trace The trace of the validation, can be <code>null</code>.
+     * @param budget The work that the validation may cause.
+     */
+    ValidationState(Message request, ValidationTrace trace, ValidationBudget budget) {
+        this.request = request;
+        this.trace = trace;
+        this.budget = budget;
+    }
+
+    /**
+     * Creates the key under which a key entry is stored in
+     * {@link #keyEntries}.
+     *
+     * @param signerName The name of the signer for which the key was searched.
+     * @param dclass The class of the key.
+     * @return The key for {@link #keyEntries}.
+     */
+    static String key(Name signerName, int dclass) {
+        return dclass + "/" + signerName;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Type;
+
+/**
+ * The steps of the validation of a single query with their durations. A trace
+ * is only created for the queries that a {@link Listener} asked for, so
+ * tracing costs nothing when no listener is set.
+ *
+ * @see ValidatingResolver#setTraceListener(Listener)
+ */
+public final class ValidationTrace {
+    /**
+     * Selects the queries that are traced and receives their traces.
+     */
+    public interface Listener {
+        /**
+         * Called before a query is sent to decide whether it is traced.
+         *
+         * @param query The query that is about to be sent.
+         * @return <code>true</code> to trace the validation of the query.
+         */
+        boolean isTraced(Message query);
+
+        /**
+         * Called with the trace of a query, before the response is returned
+         * or passed to the listener of an asynchronous query.
+         *
+         * @param query The query that was traced.
+         * @param response The response that is returned for the query.
+         * @param trace The trace of the query.
+         */
+        void traced(Message query, Message response, ValidationTrace trace);
+    }
+
+    /**
+     * The kinds of steps that are traced.
+     */
+    public enum SpanType {
+        /** A query to the head resolver. */
+        QUERY,
+
+        /** The verification of an RRset with a DNSKEY set. */
+        VERIFY_RRSET,
+
+        /** The verification of a DNSKEY set with the DS set of its zone. */
+        VERIFY_DNSKEYS,
+
+        /** An NSEC3 proof, including the hashing of the names. */
+        NSEC3_PROOF,
+    }
+
+    /**
+     * A single traced step.
+     */
+    public static final class Span {
+        private final SpanType type;
+        private final Name name;
+        private final int rtype;
+        private final long start;
+        private final long duration;
+        private final String result;
+
+        private Span(SpanType type, Name name, int rtype, long start, long duration, String result) {
+            this.type = type;
+            this.name = name;
+            this.rtype = rtype;
+            this.start = start;
+            this.duration = duration;
+            this.result = result;
+        }
+
+        /**
+         * Gets the kind of the step.
+         *
+         * @return The kind of the step.
+         */
+        public SpanType getType() {
+            return this.type;
+        }
+
+        /**
+         * Gets the owner name of the query, RRset or proof.
+         *
+         * @return The owner name.
+         */
+        public Name getName() {
+            return this.name;
+        }
+
+        /**
+         * Gets the type of the query, RRset or proof.
+         *
+         * @return The record type.
+         */
+        public int getRecordType() {
+            return this.rtype;
+        }
+
+        /**
+         * Gets the start of the step.
+         *
+         * @return The time [ns] between the start of the trace and the step.
+         */
+        public long getStart() {
+            return this.start;
+        }
+
+        /**
+         * Gets the duration of the step.
+         *
+         * @return The duration [ns].
+         */
+        public long getDuration() {
+            return this.duration;
+        }
+
+        /**
+         * Gets the result of the step, the response code of a query or the
+         * security status of a verification or proof.
+         *
+         * @return The result.
+         */
+        public String getResult() {
+            return this.result;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8d us %8d us %-14s %s/%s %s", TimeUnit.NANOSECONDS.toMicros(this.start),
+                    TimeUnit.NANOSECONDS.toMicros(this.duration), this.type, this.name, Type.string(this.rtype),
+                    this.result);
+        }
+    }
+
+    private final Message query;
+    private final long start = System.nanoTime();
+    private final List<Span> spans = new ArrayList<Span>();
+    private volatile long duration = -1;
+
+    /**
+     * Creates a new instance of this class and starts the trace.
+     *
+     * @param query The query that is traced.
+     */
+    ValidationTrace(Message query) {
+        this.query = query;
+    }
+
+    /**
+     * Gets the start time of a step.
+     *
+     * @param trace The trace, can be <code>null</code>.
+     * @return {@link System#nanoTime()}, or 0 if the trace is
+     *         <code>null</code>.
+     */
+    static long now(ValidationTrace trace) {
+        return trace == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Adds a step that has just ended.
+     *
+     * @param trace The trace, can be <code>null</code> to do nothing.
+     * @param type The kind of the step.
+     * @param name The owner name of the query, RRset or proof.
+     * @param rtype The type of the query, RRset or proof.
+     * @param start The start time of the step from {@link #now}.
+     * @param result The result of the step.
+     */
+    static void add(ValidationTrace trace, SpanType type, Name name, int rtype, long start, String result) {
+        if (trace == null) {
+            return;
+        }
+
+        long end = System.nanoTime();
+        Span span = new Span(type, name, rtype, start - trace.start, end - start, result);
+        synchronized (trace.spans) {
+            trace.spans.add(span);
+        }
+    }
+
+    /**
+     * Ends the trace.
+     */
+    void finish() {
+        this.duration = System.nanoTime() - this.start;
+    }
+
+    /**
+     * Gets the query that is traced.
+     *
+     * @return The query.
+     */
+    public Message getQuery() {
+        return this.query;
+    }
+
+    /**
+     * Gets the duration of the whole validation.
+     *
+     * @return The duration [ns], or -1 if the validation is not finished.
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    /**
+     * Gets the steps in the order in which they ended. Queries of a
+     * prefetched chain of trust can overlap with each other.
+     *
+     * @return A copy of the steps.
+     */
+    public List<Span> getSpans() {
+        synchronized (this.spans) {
+            return new ArrayList<Span>(this.spans);
+        }
+    }
+
+    /**
+     * Gets the summed duration of all steps of a kind.
+     *
+     * @param type The kind of the steps.
+     * @return The summed duration [ns].
+     */
+    public long getTotal(SpanType type) {
+        long total = 0;
+        for (Span s : this.getSpans()) {
+            if (s.getType() == type) {
+                total += s.getDuration();
+            }
+        }
+
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.query.getQuestion()).append(": ")
+            .append(TimeUnit.NANOSECONDS.toMicros(this.duration)).append(" us");
+        for (SpanType type : SpanType.values()) {
+            sb.append(", ").append(type).append(' ').append(TimeUnit.NANOSECONDS.toMicros(this.getTotal(type)))
+                .append(" us");
+        }
+
+        for (Span s : this.getSpans()) {
+            sb.append('\n').append(s);
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+
+import org.xbill.DNS.DNSKEYRecord;
+import org.xbill.DNS.DNSSEC;
+import org.xbill.DNS.DNSSEC.DNSSECException;
+import org.xbill.DNS.DSRecord.Digest;
+
+/**
+ * The JCA engines of a {@link DnsSecVerifier}. Looking up an engine at the
+ * security providers for every verification is expensive, so every thread
+ * keeps the engines it used, one per DNSSEC algorithm and DS digest type.
+ * The engines are initialized again before each use.
+ */
+final class VerificationEngines {
+    private static final int ALGORITHMS = 256;
+    private static final int BYTE_BITS = 8;
+
+    private final ThreadLocal<Signature[]> signatures = new ThreadLocal<Signature[]>() {
+        @Override
+        protected Signature[] initialValue() {
+            return new Signature[ALGORITHMS];
+        }
+    };
+
+    private final ThreadLocal<MessageDigest[]> digests = new ThreadLocal<MessageDigest[]>() {
+        @Override
+        protected MessageDigest[] initialValue() {
+            return new MessageDigest[ALGORITHMS];
+        }
+    };
+
+    /**
+     * Gets the signature engine of the current thread for a DNSSEC algorithm.
+     *
+     * @param alg The DNSSEC algorithm.
+     * @return The engine, which must be initialized before use.
+     * @throws DNSSECException when the algorithm is unknown.
+     * @throws NoSuchAlgorithmException when no provider supports the
+     *             algorithm.
+     */
+    Signature getSignature(int alg) throws DNSSECException, NoSuchAlgorithmException {
+        Signature[] engines = this.signatures.get();
+        Signature s = engines[alg & (ALGORITHMS - 1)];
+        if (s == null) {
+            s = Signature.getInstance(DNSSEC.algString(alg));
+            engines[alg & (ALGORITHMS - 1)] = s;
+        }
+
+        return s;
+    }
+
+    /**
+     * Gets the reset message digest of the current thread for a DS digest
+     * type.
+     *
+     * @param digestId The DS digest type, see {@link Digest}.
+     * @return The message digest.
+     * @throws NoSuchAlgorithmException when the digest type is unknown or no
+     *             provider supports it.
+     */
+    MessageDigest getDigest(int digestId) throws NoSuchAlgorithmException {
+        MessageDigest[] engines = this.digests.get();
+        MessageDigest md = engines[digestId & (ALGORITHMS - 1)];
+        if (md == null) {
+            md = MessageDigest.getInstance(digestName(digestId));
+            engines[digestId & (ALGORITHMS - 1)] = md;
+        }
+        else {
+            md.reset();
+        }
+
+        return md;
+    }
+
+    /**
+     * Computes the DS digest of a DNSKEY, without creating a DS record.
+     *
+     * @param dnskey The DNSKEY record.
+     * @param digestId The DS digest type, see {@link Digest}.
+     * @return The digest, <code>null</code> if the digest type is not
+     *         supported.
+     */
+    byte[] digest(DNSKEYRecord dnskey, int digestId) {
+        MessageDigest md;
+        try {
+            md = this.getDigest(digestId);
+        }
+        catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        md.update(dnskey.getName().toWireCanonical());
+        md.update((byte)(dnskey.getFlags() >>> BYTE_BITS));
+        md.update((byte)dnskey.getFlags());
+        md.update((byte)dnskey.getProtocol());
+        md.update((byte)dnskey.getAlgorithm());
+        md.update(dnskey.getKey());
+        return md.digest();
+    }
+
+    private static String digestName(int digestId) throws NoSuchAlgorithmException {
+        switch (digestId) {
+            case Digest.SHA1:
+                return "SHA-1";
+            case Digest.SHA256:
+                return "SHA-256";
+            case Digest.SHA384:
+                return "SHA-384";
+            default:
+                throw new NoSuchAlgorithmException("Unsupported DS digest type " + digestId);
+        }
+    }
+}
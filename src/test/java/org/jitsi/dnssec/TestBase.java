@@ -23,8 +23,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.LogManager;
 
+import org.jitsi.dnssec.validator.DnsSecVerifier;
 import org.jitsi.dnssec.validator.ValidatingResolver;
 import org.joda.time.DateTime;
 import org.joda.time.format.ISODateTimeFormat;
@@ -53,6 +56,7 @@ import org.xbill.DNS.Message;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.RRset;
 import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
 import org.xbill.DNS.Section;
 import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.TXTRecord;
@@ -61,7 +65,7 @@ import org.xbill.DNS.Type;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({DNSSEC.class, TestInvalid.class})
+@PrepareForTest({DNSSEC.class, DnsSecVerifier.class, TestInvalid.class})
 public abstract class TestBase {
     private static final Logger logger = LoggerFactory.getLogger(TestBase.class);
 
@@ -229,6 +233,32 @@ public abstract class TestBase {
         queryResponsePairs.clear();
     }
 
+    protected Message sendAsync(Message query) throws Exception {
+        final Message[] response = new Message[1];
+        final Exception[] error = new Exception[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        resolver.sendAsync(query, new ResolverListener() {
+            @Override
+            public void receiveMessage(Object id, Message m) {
+                response[0] = m;
+                done.countDown();
+            }
+
+            @Override
+            public void handleException(Object id, Exception e) {
+                error[0] = e;
+                done.countDown();
+            }
+        });
+
+        Assert.assertTrue("No async response received", done.await(10, TimeUnit.SECONDS));
+        if (error[0] != null) {
+            throw error[0];
+        }
+
+        return response[0];
+    }
+
     protected Message createMessage(String query) throws IOException {
         return Message.newQuery(Record.newRecord(Name.fromString(query.split("/")[0]), Type.value(query.split("/")[1]), DClass.IN));
     }
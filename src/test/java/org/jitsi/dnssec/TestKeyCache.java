@@ -12,12 +12,18 @@ package org.jitsi.dnssec;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 import org.jitsi.dnssec.SRRset;
 import org.jitsi.dnssec.SecurityStatus;
 import org.jitsi.dnssec.validator.KeyCache;
 import org.jitsi.dnssec.validator.KeyEntry;
+import org.jitsi.dnssec.validator.TrustAnchorStore;
 import org.junit.Test;
 import org.xbill.DNS.DClass;
 import org.xbill.DNS.DNSKEYRecord;
@@ -121,4 +127,196 @@ public class TestKeyCache {
         KeyEntry fromCacheC = kc.find(Name.fromString("c."), DClass.IN);
         assertNull(fromCacheC);
     }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws TextParseException {
+        Properties p = new Properties();
+        p.put(KeyCache.MAX_CACHE_SIZE_CONFIG, "2");
+        KeyCache kc = new KeyCache();
+        kc.init(p);
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("a."), DClass.IN, 60));
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("b."), DClass.IN, 60));
+        assertNotNull(kc.find(Name.fromString("a."), DClass.IN));
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("c."), DClass.IN, 60));
+        assertNotNull(kc.find(Name.fromString("a."), DClass.IN));
+        assertNull(kc.find(Name.fromString("b."), DClass.IN));
+        assertNotNull(kc.find(Name.fromString("c."), DClass.IN));
+    }
+
+    @Test
+    public void testPopularEntrySurvivesScan() throws TextParseException {
+        Properties p = new Properties();
+        p.put(KeyCache.MAX_CACHE_SIZE_CONFIG, "2");
+        KeyCache kc = new KeyCache();
+        kc.init(p);
+        KeyEntry popular = KeyEntry.newNullKeyEntry(Name.fromString("popular."), DClass.IN, 60);
+        kc.store(popular);
+        for (int i = 0; i < 3; i++) {
+            kc.find(Name.fromString("popular."), DClass.IN);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            kc.store(KeyEntry.newNullKeyEntry(Name.fromString("scan" + i + "."), DClass.IN, 60));
+        }
+
+        assertEquals(popular, kc.find(Name.fromString("popular."), DClass.IN));
+    }
+
+    @Test
+    public void testFrequentlyMissedEntryIsAdmitted() throws TextParseException {
+        Properties p = new Properties();
+        p.put(KeyCache.MAX_CACHE_SIZE_CONFIG, "1");
+        KeyCache kc = new KeyCache();
+        kc.init(p);
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("old."), DClass.IN, 60));
+        kc.find(Name.fromString("old."), DClass.IN);
+
+        // each miss is a chain walk for the new zone, which makes it popular
+        for (int i = 0; i < 5; i++) {
+            assertNull(kc.find(Name.fromString("new."), DClass.IN));
+        }
+
+        KeyEntry popular = KeyEntry.newNullKeyEntry(Name.fromString("new."), DClass.IN, 60);
+        kc.store(popular);
+        assertEquals(popular, kc.find(Name.fromString("new."), DClass.IN));
+        assertNull(kc.find(Name.fromString("old."), DClass.IN));
+    }
+
+    @Test
+    public void testTrustAnchorAdjacentEntriesArePinned() throws TextParseException {
+        TrustAnchorStore tas = new TrustAnchorStore();
+        tas.store(new SRRset(new RRset(new DSRecord(Name.root, DClass.IN, 60, 0, 0, 0, new byte[]{0}))));
+        Properties p = new Properties();
+        p.put(KeyCache.MAX_CACHE_SIZE_CONFIG, "1");
+        KeyCache kc = new KeyCache();
+        kc.init(p);
+        kc.setTrustAnchors(tas);
+
+        KeyEntry tld = KeyEntry.newNullKeyEntry(Name.fromString("ch."), DClass.IN, 60);
+        kc.store(tld);
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("a.ch."), DClass.IN, 60));
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("b.ch."), DClass.IN, 60));
+        assertEquals(tld, kc.find(Name.fromString("ch."), DClass.IN));
+
+        // a.ch. was evicted by b.ch., so the closest entry is the pinned one
+        assertEquals(tld, kc.find(Name.fromString("a.ch."), DClass.IN));
+    }
+
+    @Test
+    public void testRefreshAheadNearExpiry() throws TextParseException, InterruptedException {
+        Properties p = new Properties();
+        p.put(KeyCache.REFRESH_AHEAD_CONFIG, "50");
+        KeyCache kc = new KeyCache();
+        kc.init(p);
+        final List<KeyEntry> refreshed = new ArrayList<KeyEntry>();
+        kc.setRefreshListener(new KeyCache.RefreshListener() {
+            public void refresh(KeyEntry ke) {
+                refreshed.add(ke);
+            }
+        });
+
+        KeyEntry nkeA = KeyEntry.newNullKeyEntry(Name.fromString("a."), DClass.IN, 2);
+        kc.store(nkeA);
+        assertEquals(nkeA, kc.find(Name.fromString("a."), DClass.IN));
+        assertTrue(refreshed.isEmpty());
+
+        Thread.sleep(1100);
+        assertEquals(nkeA, kc.find(Name.fromString("a."), DClass.IN));
+        assertEquals(nkeA, kc.find(Name.fromString("a."), DClass.IN));
+        assertEquals(Arrays.asList(nkeA), refreshed);
+    }
+
+    @Test
+    public void testRefreshAheadDisabledByDefault() throws TextParseException {
+        KeyCache kc = new KeyCache();
+        final List<KeyEntry> refreshed = new ArrayList<KeyEntry>();
+        kc.setRefreshListener(new KeyCache.RefreshListener() {
+            public void refresh(KeyEntry ke) {
+                refreshed.add(ke);
+            }
+        });
+
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("a."), DClass.IN, 60));
+        kc.find(Name.fromString("a."), DClass.IN);
+        assertTrue(refreshed.isEmpty());
+    }
+
+    @Test
+    public void testStaleEntryWithinStaleWindow() throws TextParseException, InterruptedException {
+        Properties p = new Properties();
+        p.put(KeyCache.STALE_WINDOW_CONFIG, "60");
+        KeyCache kc = new KeyCache();
+        kc.init(p);
+        KeyEntry nkeA = KeyEntry.newNullKeyEntry(Name.fromString("a."), DClass.IN, 1);
+        kc.store(nkeA);
+        Thread.sleep(1100);
+        assertNull(kc.find(Name.fromString("a."), DClass.IN));
+        assertEquals(nkeA, kc.findStale(Name.fromString("a."), DClass.IN));
+    }
+
+    @Test
+    public void testNoStaleEntryWithoutStaleWindow() throws TextParseException {
+        KeyCache kc = new KeyCache();
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("a."), DClass.IN, 60));
+        assertNull(kc.findStale(Name.fromString("a."), DClass.IN));
+    }
+
+    @Test
+    public void testSnapshotDropsNullKeysAndWithholdsUncheckedKeys() throws IOException {
+        File f = File.createTempFile("keycache", null);
+        f.deleteOnExit();
+
+        KeyCache kc = new KeyCache();
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("a."), DClass.IN, 60));
+        kc.store(KeyEntry.newNullKeyEntry(Name.fromString("b."), DClass.IN, 60));
+        kc.store(KeyEntry.newKeyEntry(secureKeySet()));
+        assertEquals(1, kc.save(f));
+
+        // saving again replaces the previous snapshot
+        assertEquals(1, kc.save(f));
+        assertFalse(new File(f.getPath() + ".old").exists());
+        assertFalse(new File(f.getPath() + ".tmp").exists());
+
+        KeyCache restored = new KeyCache();
+        assertEquals(1, restored.load(f));
+        assertNull(restored.find(Name.fromString("a."), DClass.IN));
+
+        // without a verifier, the unchecked DNSKEY set is never returned
+        assertNull(restored.find(Name.fromString("www.ingotronic.ch."), DClass.IN));
+    }
+
+    @Test
+    public void testSnapshotKeysAreVerifiedOnFirstUse() throws IOException {
+        File f = File.createTempFile("keycache", null);
+        f.deleteOnExit();
+
+        KeyCache kc = new KeyCache();
+        kc.store(KeyEntry.newKeyEntry(secureKeySet()));
+        kc.save(f);
+
+        final List<KeyEntry> verified = new ArrayList<KeyEntry>();
+        KeyCache restored = new KeyCache();
+        restored.setVerifier(new KeyCache.Verifier() {
+            public boolean verify(KeyEntry ke) {
+                verified.add(ke);
+                ke.getRRset().setSecurityStatus(SecurityStatus.SECURE);
+                return true;
+            }
+        });
+        restored.load(f);
+
+        KeyEntry ke = restored.find(Name.fromString("www.ingotronic.ch."), DClass.IN);
+        assertNotNull(ke);
+        assertEquals(Name.fromString("ingotronic.ch."), ke.getName());
+        assertEquals(60, ke.getTTL());
+        restored.find(Name.fromString("www.ingotronic.ch."), DClass.IN);
+        assertEquals(Arrays.asList(ke), verified);
+    }
+
+    private static SRRset secureKeySet() throws TextParseException {
+        Name zone = Name.fromString("ingotronic.ch.");
+        SRRset set = new SRRset(new RRset(new DNSKEYRecord(zone, DClass.IN, 60, 256, 3, 8, new byte[]{0})));
+        set.setSecurityStatus(SecurityStatus.SECURE);
+        return set;
+    }
 }
@@ -12,13 +12,24 @@ package org.jitsi.dnssec;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
+import org.jitsi.dnssec.validator.KeyCache;
+import org.jitsi.dnssec.validator.ValidatingResolver;
 import org.junit.Test;
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
 import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
 
 public class TestKeyCacheUsage extends TestBase {
 
@@ -37,4 +48,122 @@ public class TestKeyCacheUsage extends TestBase {
         assertEquals(localhost, firstA(response));
         assertEquals("insecure.ds.nsec", getReason(response));
     }
+
+    @Test
+    public void testStaleKeysServedWhenUpstreamFails() throws IOException, InterruptedException {
+        Properties config = new Properties();
+        config.put(KeyCache.MAX_TTL_CONFIG, "1");
+        config.put(KeyCache.STALE_WINDOW_CONFIG, "60");
+        resolver.init(config);
+
+        Message response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+
+        // let the keys expire and only answer the query itself, not the DS
+        // and DNSKEY queries of the chain of trust
+        Message a = get(Name.fromString("www.ingotronic.ch."), Type.A);
+        Thread.sleep(1100);
+        clear();
+        add("www.ingotronic.ch./A", a, false);
+
+        response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(localhost, firstA(response));
+        assertNull(getReason(response));
+    }
+
+    @Test
+    public void testStaleKeysServedWhenUpstreamFailsAsync() throws Exception {
+        Properties config = new Properties();
+        config.put(KeyCache.MAX_TTL_CONFIG, "1");
+        config.put(KeyCache.STALE_WINDOW_CONFIG, "60");
+        resolver.init(config);
+
+        Message response = sendAsync(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+
+        Message a = get(Name.fromString("www.ingotronic.ch."), Type.A);
+        Thread.sleep(1100);
+        clear();
+        add("www.ingotronic.ch./A", a, false);
+
+        response = sendAsync(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(localhost, firstA(response));
+        assertNull(getReason(response));
+    }
+
+    @Test
+    public void testStaleKeysNotServedForBogusKeys() throws IOException, InterruptedException {
+        Properties config = new Properties();
+        config.put(KeyCache.MAX_TTL_CONFIG, "1");
+        config.put(KeyCache.STALE_WINDOW_CONFIG, "60");
+        resolver.init(config);
+
+        Message response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+
+        // the upstream answers, but the DNSKEYs no longer validate
+        Message dnskey = messageFromString(get(Name.fromString("ingotronic.ch."), Type.DNSKEY).toString());
+        for (Record r : dnskey.getSectionArray(Section.ANSWER)) {
+            if (r.getType() == Type.RRSIG) {
+                dnskey.removeRecord(r, Section.ANSWER);
+            }
+        }
+
+        Thread.sleep(1100);
+        add("ingotronic.ch./DNSKEY", dnskey, false);
+
+        response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertFalse("AD flag must not be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.SERVFAIL, response.getRcode());
+    }
+
+    @Test
+    public void testKeyCacheSnapshotAvoidsChainOfTrustAfterRestart() throws Exception {
+        File f = File.createTempFile("keycache", null);
+        f.deleteOnExit();
+        Properties config = new Properties();
+        config.put(ValidatingResolver.KEY_CACHE_SNAPSHOT_CONFIG, f.getPath());
+        resolver.init(config);
+
+        Message response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        resolver.saveKeyCache();
+
+        // restart with only the query itself answered by the upstream
+        Message a = get(Name.fromString("www.ingotronic.ch."), Type.A);
+        clear();
+        add("www.ingotronic.ch./A", a, true);
+        resolver.init(config);
+
+        response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(localhost, firstA(response));
+        assertNull(getReason(response));
+    }
+
+    @Test
+    public void testPrimedKeysAvoidChainOfTrust() throws Exception {
+        Message a = get(Name.fromString("www.ingotronic.ch."), Type.A);
+        Properties config = new Properties();
+        config.put(ValidatingResolver.PRIME_CONFIG, "true");
+        config.put(ValidatingResolver.PRIME_ZONES_CONFIG, "ch., ingotronic.ch.");
+        resolver.init(config);
+        assertTrue("priming must complete", resolver.awaitReady(5, TimeUnit.SECONDS));
+        assertTrue(resolver.isReady());
+
+        // only answer the query itself, the keys must come from the cache
+        clear();
+        add("www.ingotronic.ch./A", a, false);
+
+        Message response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(localhost, firstA(response));
+        assertNull(getReason(response));
+    }
 }
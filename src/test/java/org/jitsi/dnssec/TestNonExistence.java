@@ -13,12 +13,22 @@ package org.jitsi.dnssec;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 
+import org.jitsi.dnssec.validator.HistogramValidationMetrics;
+import org.jitsi.dnssec.validator.ValidationTrace;
+import org.jitsi.dnssec.validator.ValidationTrace.Span;
+import org.jitsi.dnssec.validator.ValidationTrace.SpanType;
 import org.junit.Test;
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Rcode;
 import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
 
 public class TestNonExistence extends TestBase {
     @Test
@@ -45,6 +55,48 @@ public class TestNonExistence extends TestBase {
         assertNull(getReason(response));
     }
 
+    @Test
+    public void testSingleLabelABelowSignedNsec3Traced() throws IOException {
+        final List<ValidationTrace> traces = new ArrayList<ValidationTrace>();
+        final List<Message> responses = new ArrayList<Message>();
+        resolver.setTraceListener(new ValidationTrace.Listener() {
+            public boolean isTraced(Message query) {
+                return traces.isEmpty();
+            }
+
+            public void traced(Message query, Message response, ValidationTrace trace) {
+                traces.add(trace);
+                responses.add(response);
+            }
+        });
+
+        Message response = resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(1, traces.size());
+        assertSame(response, responses.get(0));
+
+        ValidationTrace trace = traces.get(0);
+        assertEquals(Type.A, trace.getQuery().getQuestion().getType());
+        assertTrue(trace.getDuration() > 0);
+        Set<SpanType> types = EnumSet.noneOf(SpanType.class);
+        for (Span s : trace.getSpans()) {
+            types.add(s.getType());
+            assertTrue(s.toString(), s.getStart() >= 0 && s.getStart() + s.getDuration() <= trace.getDuration());
+            if (s.getType() == SpanType.NSEC3_PROOF) {
+                assertEquals("gibtsnicht.nsec3.ingotronic.ch.", s.getName().toString());
+                assertEquals("SECURE", s.getResult());
+            }
+        }
+
+        assertEquals(EnumSet.allOf(SpanType.class), types);
+        assertEquals(Type.A, trace.getSpans().get(0).getRecordType());
+        assertTrue(trace.getTotal(SpanType.QUERY) > 0);
+
+        // queries that the listener doesn't select are not traced
+        resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertEquals(1, traces.size());
+    }
+
     @Test
     public void testDoubleLabelABelowSigned() throws IOException {
         Message response = resolver.send(createMessage("gibtsnicht.gibtsnicht.ingotronic.ch./A"));
@@ -171,4 +223,43 @@ public class TestNonExistence extends TestBase {
         assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
         assertEquals(Rcode.NOERROR, response.getRcode());
     }
+
+    @Test
+    public void testNsec3ProofExceedingHashBudgetIsBogus() throws IOException {
+        HistogramValidationMetrics metrics = new HistogramValidationMetrics();
+        resolver.setMetrics(metrics);
+        Properties config = new Properties();
+        config.put("org.jitsi.dnssec.budget.max_nsec3_hashes", "1");
+        resolver.init(config);
+
+        Message response = resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertFalse("AD flag must not be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.SERVFAIL, response.getRcode());
+        assertEquals("failed.budget:1:NSEC3 hashes", getReason(response));
+        assertEquals(1, metrics.getBudgetExhaustions());
+    }
+
+    @Test
+    public void testChainOfTrustExceedingQueryBudgetIsBogus() throws IOException {
+        Properties config = new Properties();
+        config.put("org.jitsi.dnssec.budget.max_queries", "2");
+        resolver.init(config);
+
+        Message response = resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertFalse("AD flag must not be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.SERVFAIL, response.getRcode());
+        assertEquals("failed.budget:2:DS and DNSKEY queries", getReason(response));
+    }
+
+    @Test
+    public void testResponseExceedingVerificationBudgetIsBogus() throws IOException {
+        Properties config = new Properties();
+        config.put("org.jitsi.dnssec.budget.max_verifications", "3");
+        resolver.init(config);
+
+        Message response = resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertFalse("AD flag must not be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.SERVFAIL, response.getRcode());
+        assertEquals("failed.budget:3:signature verifications", getReason(response));
+    }
 }
@@ -16,13 +16,27 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.jitsi.dnssec.validator.HistogramValidationMetrics;
+import org.jitsi.dnssec.validator.SignatureSelector;
+import org.jitsi.dnssec.validator.ValidatingResolver;
 import org.junit.Test;
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.RRset;
 import org.xbill.DNS.Rcode;
 import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
 import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
 
 public class TestPositive extends TestBase {
     @Test
@@ -34,6 +48,100 @@ public class TestPositive extends TestBase {
         assertNull(getReason(response));
     }
 
+    @Test
+    public void testValidExisingAsync() throws Exception {
+        Message response = sendAsync(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(localhost, firstA(response));
+        assertNull(getReason(response));
+    }
+
+    @Test
+    public void testThrowingAsyncListenerGetsNoException() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            resolver.sendAsync(createMessage("www.ingotronic.ch./A"), new ResolverListener() {
+                public void receiveMessage(Object id, Message m) {
+                    received.incrementAndGet();
+                    done.countDown();
+                    throw new IllegalStateException("listener failed");
+                }
+
+                public void handleException(Object id, Exception e) {
+                    failed.incrementAndGet();
+                }
+            });
+        }
+        catch (IllegalStateException e) {
+            // the head resolver may deliver on the calling thread
+        }
+
+        assertTrue("No async response received", done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, received.get());
+        assertEquals(0, failed.get());
+    }
+
+    @Test
+    public void testValidExisingMetrics() throws IOException {
+        HistogramValidationMetrics metrics = new HistogramValidationMetrics();
+        resolver.setMetrics(metrics);
+
+        Message response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(1, metrics.getValidated(SecurityStatus.SECURE));
+        assertEquals(0, metrics.getValidated(SecurityStatus.BOGUS));
+        assertEquals(1, metrics.getRoundTrips(Type.A).getCount());
+        assertTrue(metrics.getRoundTrips(Type.DS).getCount() > 0);
+        assertTrue(metrics.getRoundTrips(Type.DNSKEY).getCount() > 0);
+        assertTrue(metrics.getKeySearchDepth().getMax() > 0);
+        assertTrue(metrics.getKeyCacheMisses() > 0);
+        assertTrue(metrics.getVerificationAlgorithms().size() > 0);
+        for (int alg : metrics.getVerificationAlgorithms()) {
+            assertTrue(metrics.getVerifications(alg, true) > 0);
+            assertEquals(0, metrics.getVerifications(alg, false));
+        }
+
+        // the second validation finds the key in the cache
+        long misses = metrics.getKeyCacheMisses();
+        response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(2, metrics.getValidated(SecurityStatus.SECURE));
+        assertEquals(misses, metrics.getKeyCacheMisses());
+        assertTrue(metrics.getKeyCacheHits() > 0);
+    }
+
+    @Test
+    public void testValidExisingWithChainPrefetch() throws IOException {
+        Properties config = new Properties();
+        config.put(ValidatingResolver.PREFETCH_CHAIN_CONFIG, "true");
+        resolver.init(config);
+
+        Message response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(localhost, firstA(response));
+        assertNull(getReason(response));
+    }
+
+    @Test
+    public void testSignatureSelectorOfResolverIsUsed() throws IOException {
+        resolver.setSignatureSelector(new SignatureSelector() {
+            public List<RRSIGRecord> select(RRset rrset, List<RRSIGRecord> sigs, Date now) {
+                // no signature of the answer is ever tried
+                return rrset.getType() == Type.A ? new ArrayList<RRSIGRecord>() : sigs;
+            }
+        });
+
+        Message response = resolver.send(createMessage("www.ingotronic.ch./A"));
+        assertFalse("AD flag must not be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.SERVFAIL, response.getRcode());
+        assertTrue(getReason(response).startsWith("failed.answer.positive:{ www.ingotronic.ch."));
+    }
+
     @Test
     public void testValidNonExising() throws IOException {
         Message response = resolver.send(createMessage("ingotronic.ch./ANY"));
@@ -18,11 +18,16 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.Iterator;
 import java.util.Properties;
 
+import org.jitsi.dnssec.validator.ValidatingResolver;
 import org.junit.Test;
 import org.xbill.DNS.DClass;
 import org.xbill.DNS.DNSKEYRecord;
@@ -50,6 +55,42 @@ public class TestTrustAnchorLoading extends TestBase {
         assertNotNull(resolver.getTrustAnchors().find(Name.root, DClass.IN));
     }
 
+    @Test
+    public void testReloadTrustAnchorsFromWatchedFile() throws Exception {
+        File f = File.createTempFile("trust_anchors", null);
+        f.deleteOnExit();
+        copy(getClass().getResourceAsStream("/trust_anchors"), f);
+
+        resolver.getTrustAnchors().clear();
+        Properties config = new Properties();
+        config.put("org.jitsi.dnssec.trust_anchor_file", f.getPath());
+        config.put(ValidatingResolver.TRUST_ANCHOR_RELOAD_CONFIG, "1");
+        resolver.init(config);
+        assertNotNull(resolver.getTrustAnchors().find(Name.root, DClass.IN));
+        assertNull(resolver.getTrustAnchors().find(Name.root, DClass.CH));
+
+        copy(getClass().getResourceAsStream("/trust_anchors_test"), f);
+        f.setLastModified(f.lastModified() + 10000);
+        for (int i = 0; i < 50 && resolver.getTrustAnchors().find(Name.root, DClass.CH) == null; i++) {
+            Thread.sleep(100);
+        }
+
+        assertNotNull(resolver.getTrustAnchors().find(Name.root, DClass.CH));
+        resolver.init(new Properties());
+    }
+
+    private void copy(InputStream in, File target) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+
+        out.close();
+        in.close();
+    }
+
     @Test
     public void testInitializingWithEmptyConfigDoesNotFail() throws IOException {
         resolver.getTrustAnchors().clear();
@@ -12,6 +12,8 @@ package org.jitsi.dnssec;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.jitsi.dnssec.SRRset;
 import org.jitsi.dnssec.validator.TrustAnchorStore;
 import org.junit.Test;
@@ -66,4 +68,34 @@ public class TestTrustAnchorStore {
         tas.clear();
         assertNull(tas.find(Name.fromString("asdf.bla."), DClass.IN));
     }
+
+    @Test
+    public void testReplace() throws TextParseException {
+        SRRset bla = new SRRset(new RRset(new DSRecord(Name.fromString("bla."), DClass.IN, 0, 0, 0, 0, new byte[]{0})));
+        SRRset foo = new SRRset(new RRset(new DSRecord(Name.fromString("foo."), DClass.IN, 0, 0, 0, 0, new byte[]{0})));
+        TrustAnchorStore tas = new TrustAnchorStore();
+        tas.store(bla);
+        tas.replace(Arrays.asList(foo));
+        assertNull(tas.find(Name.fromString("asdf.bla."), DClass.IN));
+        assertEquals(foo, tas.find(Name.fromString("asdf.foo."), DClass.IN));
+    }
+
+    @Test
+    public void testInvalidAnchorInStoreAllKeepsExistingAnchors() throws TextParseException {
+        SRRset bla = new SRRset(new RRset(new DSRecord(Name.fromString("bla."), DClass.IN, 0, 0, 0, 0, new byte[]{0})));
+        SRRset foo = new SRRset(new RRset(new DSRecord(Name.fromString("foo."), DClass.IN, 0, 0, 0, 0, new byte[]{0})));
+        SRRset txt = new SRRset(new RRset(new TXTRecord(Name.fromString("bar."), DClass.IN, 0, "root")));
+        TrustAnchorStore tas = new TrustAnchorStore();
+        tas.store(bla);
+        try {
+            tas.replace(Arrays.asList(foo, txt));
+            fail("replacing with an invalid anchor must fail");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertEquals(bla, tas.find(Name.fromString("asdf.bla."), DClass.IN));
+        assertNull(tas.find(Name.fromString("asdf.foo."), DClass.IN));
+    }
 }
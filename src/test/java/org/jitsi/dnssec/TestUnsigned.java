@@ -13,11 +13,13 @@ package org.jitsi.dnssec;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Properties;
 
 import org.junit.Test;
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Section;
 
 public class TestUnsigned extends TestBase {
     @Test
@@ -29,6 +31,53 @@ public class TestUnsigned extends TestBase {
         assertEquals("insecure.ds.nsec", getReason(response));
     }
 
+    @Test
+    public void testUnsignedBelowSignedZoneBindAsync() throws Exception {
+        Message response = sendAsync(createMessage("www.unsigned.ingotronic.ch./A"));
+        assertFalse("AD flag must not be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(localhost, firstA(response));
+        assertEquals("insecure.ds.nsec", getReason(response));
+    }
+
+    @Test
+    public void testUnsignedBelowSignedZoneFromResponseCache() throws IOException {
+        Properties config = new Properties();
+        config.put("org.jitsi.dnssec.responsecache.max_size", "10");
+        resolver.init(config);
+
+        Message query = createMessage("www.unsigned.ingotronic.ch./A");
+        resolver.send(query);
+
+        // no more upstream responses available, must be answered from the cache
+        clear();
+        query.getHeader().setID(query.getHeader().getID() + 1);
+        Message response = resolver.send(query);
+        assertEquals(query.getHeader().getID(), response.getHeader().getID());
+        assertFalse("AD flag must not be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(Rcode.NOERROR, response.getRcode());
+        assertEquals(localhost, firstA(response));
+        assertEquals("insecure.ds.nsec", getReason(response));
+    }
+
+    @Test
+    public void testResponseCacheDecrementsTtls() throws IOException, InterruptedException {
+        Properties config = new Properties();
+        config.put("org.jitsi.dnssec.responsecache.max_size", "10");
+        resolver.init(config);
+
+        Message query = createMessage("www.unsigned.ingotronic.ch./A");
+        Message first = resolver.send(query);
+        Thread.sleep(1100);
+
+        clear();
+        Message response = resolver.send(query);
+        long ttl = first.getSectionArray(Section.ANSWER)[0].getTTL();
+        assertTrue(response.getSectionArray(Section.ANSWER)[0].getTTL() < ttl);
+        assertEquals(localhost, firstA(response));
+        assertEquals("insecure.ds.nsec", getReason(response));
+    }
+
     @Test
     public void testUnsignedBelowSignedTldNsec3NoOptOut() throws IOException {
         Message response = resolver.send(createMessage("20min.ch./A"));
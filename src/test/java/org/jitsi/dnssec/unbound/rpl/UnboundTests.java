@@ -27,6 +27,7 @@ import java.util.Properties;
 
 import org.jitsi.dnssec.SRRset;
 import org.jitsi.dnssec.TestBase;
+import org.jitsi.dnssec.validator.DnsSecVerifier;
 import org.jitsi.dnssec.validator.ValUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -45,7 +46,7 @@ import org.xbill.DNS.Section;
 import org.xbill.DNS.Type;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(DNSSEC.class)
+@PrepareForTest({DNSSEC.class, DnsSecVerifier.class})
 public class UnboundTests extends TestBase {
     public void runUnboundTest() throws ParseException, IOException {
         InputStream data = getClass().getResourceAsStream("/unbound/" + testName + ".rpl");
@@ -0,0 +1,187 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DSRecord;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TSIG;
+import org.xbill.DNS.Type;
+
+public class TestChainPrefetch {
+    private static final Name ANCHOR = Name.fromConstantString("com.");
+    private static final Name SIGNER = Name.fromConstantString("example.com.");
+
+    private ScheduledExecutorService scheduler;
+
+    /** A head resolver that records the queries and never answers by itself. */
+    private static class SilentResolver implements Resolver {
+        private final List<Message> sent = new ArrayList<Message>();
+        private final List<ResolverListener> listeners = new ArrayList<ResolverListener>();
+
+        public void setPort(int port) {
+        }
+
+        public void setTCP(boolean flag) {
+        }
+
+        public void setIgnoreTruncation(boolean flag) {
+        }
+
+        public void setEDNS(int level) {
+        }
+
+        @SuppressWarnings("rawtypes")
+        public void setEDNS(int level, int payloadSize, int flags, List options) {
+        }
+
+        public void setTSIGKey(TSIG key) {
+        }
+
+        public void setTimeout(int secs, int msecs) {
+        }
+
+        public void setTimeout(int secs) {
+        }
+
+        public Message send(Message query) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Object sendAsync(Message query, ResolverListener listener) {
+            this.sent.add(query);
+            this.listeners.add(listener);
+            return query;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduler.shutdownNow();
+    }
+
+    private Message query() {
+        return this.query(Type.DS);
+    }
+
+    private Message query(int type) {
+        Message request = Message.newQuery(Record.newRecord(SIGNER, type, DClass.IN));
+        request.getHeader().setFlag(Flags.CD);
+        return request;
+    }
+
+    @Test
+    public void testListenerTimesOutWithoutResponse() throws InterruptedException {
+        ChainPrefetch prefetch = new ChainPrefetch(new SilentResolver(), new InFlightKeyRequests(), ANCHOR, SIGNER,
+                DClass.IN, new NoopValidationMetrics(), null);
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        assertTrue(prefetch.get(this.query(), new ResolverListener() {
+            public void receiveMessage(Object id, Message m) {
+                calls.incrementAndGet();
+                done.countDown();
+            }
+
+            public void handleException(Object id, Exception e) {
+                calls.incrementAndGet();
+                error.set(e);
+                done.countDown();
+            }
+        }, 50, this.scheduler));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(error.get() instanceof SocketTimeoutException);
+        Thread.sleep(100);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testResponseCancelsTimeout() throws InterruptedException {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        ChainPrefetch prefetch = new ChainPrefetch(new SilentResolver(), requests, ANCHOR, SIGNER, DClass.IN,
+                new NoopValidationMetrics(), null);
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        assertTrue(prefetch.get(this.query(), new ResolverListener() {
+            public void receiveMessage(Object id, Message m) {
+                received.incrementAndGet();
+            }
+
+            public void handleException(Object id, Exception e) {
+                failed.incrementAndGet();
+            }
+        }, 50, this.scheduler));
+
+        ChainPrefetch.Entry shared = requests.prefetch(new ChainPrefetch.Entry(requests, this.query()));
+        shared.receiveMessage(null, this.query());
+        Thread.sleep(150);
+        assertEquals(1, received.get());
+        assertEquals(0, failed.get());
+    }
+
+    @Test
+    public void testPositiveDsPrefetchesDnskey() {
+        SilentResolver head = new SilentResolver();
+        ChainPrefetch prefetch = new ChainPrefetch(head, new InFlightKeyRequests(), ANCHOR, SIGNER, DClass.IN,
+                new NoopValidationMetrics(), null);
+        assertEquals(1, head.sent.size());
+        assertFalse(prefetch.get(this.query(Type.DNSKEY), new ResolverListener() {
+            public void receiveMessage(Object id, Message m) {
+            }
+
+            public void handleException(Object id, Exception e) {
+            }
+        }, 50, this.scheduler));
+
+        Message response = this.query();
+        response.addRecord(new DSRecord(SIGNER, DClass.IN, 60, 1, 8, 2, new byte[]{0}), Section.ANSWER);
+        head.listeners.get(0).receiveMessage(null, response);
+        assertEquals(2, head.sent.size());
+        assertEquals(Type.DNSKEY, head.sent.get(1).getQuestion().getType());
+        assertEquals(SIGNER, head.sent.get(1).getQuestion().getName());
+    }
+
+    @Test
+    public void testNegativeDsDoesNotPrefetchDnskey() {
+        SilentResolver head = new SilentResolver();
+        new ChainPrefetch(head, new InFlightKeyRequests(), ANCHOR, SIGNER, DClass.IN, new NoopValidationMetrics(),
+                null);
+        head.listeners.get(0).receiveMessage(null, this.query());
+        assertEquals(1, head.sent.size());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Type;
+
+public class TestCostBasedSignatureSelector {
+    private static final Name ZONE = Name.fromConstantString("example.com.");
+    private static final Date NOW = new Date(1400000000000L);
+
+    private RRset rrset(String owner) throws Exception {
+        return new RRset(new ARecord(new Name(owner, ZONE), DClass.IN, 3600, InetAddress.getByName("127.0.0.1")));
+    }
+
+    // the labels field of the signature is derived from its owner name
+    private RRSIGRecord sig(Name owner, int alg, int length, Name signer, long inception, long expiration) {
+        return new RRSIGRecord(owner, DClass.IN, 3600, Type.A, alg, 3600, new Date(NOW.getTime() + expiration),
+                new Date(NOW.getTime() + inception), 1, signer, new byte[length]);
+    }
+
+    private RRSIGRecord sig(RRset rrset, int alg, int length) {
+        return sig(rrset.getName(), alg, length, ZONE, -3600000, 3600000);
+    }
+
+    @Test
+    public void testOrdersByEstimatedCost() throws Exception {
+        RRset rrset = rrset("www");
+        RRSIGRecord p384 = sig(rrset, Algorithm.ECDSAP384SHA384, 96);
+        RRSIGRecord rsa2048 = sig(rrset, Algorithm.RSASHA256, 256);
+        RRSIGRecord p256 = sig(rrset, Algorithm.ECDSAP256SHA256, 64);
+        RRSIGRecord rsa1024 = sig(rrset, Algorithm.RSASHA1, 128);
+        RRSIGRecord unknown = sig(rrset, 200, 64);
+        List<RRSIGRecord> sigs = new ArrayList<RRSIGRecord>(Arrays.asList(unknown, p384, rsa2048, p256, rsa1024));
+
+        List<RRSIGRecord> selected = new CostBasedSignatureSelector().select(rrset, sigs, NOW);
+        assertEquals(Arrays.asList(rsa1024, rsa2048, p256, p384, unknown), selected);
+    }
+
+    @Test
+    public void testPreferredAlgorithmsComeFirst() throws Exception {
+        RRset rrset = rrset("www");
+        RRSIGRecord rsa = sig(rrset, Algorithm.RSASHA256, 256);
+        RRSIGRecord p256 = sig(rrset, Algorithm.ECDSAP256SHA256, 64);
+        RRSIGRecord p384 = sig(rrset, Algorithm.ECDSAP384SHA384, 96);
+        List<RRSIGRecord> sigs = new ArrayList<RRSIGRecord>(Arrays.asList(rsa, p256, p384));
+
+        List<RRSIGRecord> selected = new CostBasedSignatureSelector(new int[] { Algorithm.ECDSAP384SHA384 }).select(rrset, sigs, NOW);
+        assertEquals(Arrays.asList(p384, rsa, p256), selected);
+    }
+
+    @Test
+    public void testEqualCostKeepsResponseOrder() throws Exception {
+        RRset rrset = rrset("www");
+        RRSIGRecord first = sig(rrset, Algorithm.RSASHA256, 256);
+        RRSIGRecord second = sig(rrset, Algorithm.RSASHA512, 256);
+        List<RRSIGRecord> sigs = new ArrayList<RRSIGRecord>(Arrays.asList(first, second));
+
+        assertEquals(Arrays.asList(first, second), new CostBasedSignatureSelector().select(rrset, sigs, NOW));
+    }
+
+    @Test
+    public void testDropsSignaturesThatCannotBeValid() throws Exception {
+        RRset rrset = rrset("www");
+        RRSIGRecord valid = sig(rrset, Algorithm.RSASHA256, 256);
+        RRSIGRecord expired = sig(rrset.getName(), Algorithm.RSASHA256, 128, ZONE, -7200000, -1);
+        RRSIGRecord notYetValid = sig(rrset.getName(), Algorithm.RSASHA256, 128, ZONE, 1, 7200000);
+        RRSIGRecord tooManyLabels = sig(new Name("a.www", ZONE), Algorithm.RSASHA256, 128, ZONE, -3600000, 3600000);
+        RRSIGRecord offTree = sig(rrset.getName(), Algorithm.RSASHA256, 128, Name.fromString("example.org."), -3600000, 3600000);
+        List<RRSIGRecord> sigs = new ArrayList<RRSIGRecord>(Arrays.asList(expired, notYetValid, tooManyLabels, offTree, valid));
+
+        assertEquals(Arrays.asList(valid), new CostBasedSignatureSelector().select(rrset, sigs, NOW));
+    }
+
+    @Test
+    public void testWildcardLabelIsNotCounted() throws Exception {
+        RRset rrset = rrset("*");
+        RRSIGRecord wildcard = sig(rrset.getName(), Algorithm.RSASHA256, 256, ZONE, -3600000, 3600000);
+        RRSIGRecord tooManyLabels = sig(new Name("www", ZONE), Algorithm.RSASHA256, 256, ZONE, -3600000, 3600000);
+        List<RRSIGRecord> sigs = new ArrayList<RRSIGRecord>(Arrays.asList(tooManyLabels, wildcard));
+
+        assertEquals(Arrays.asList(wildcard), new CostBasedSignatureSelector().select(rrset, sigs, NOW));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.Properties;
+
+import org.jitsi.dnssec.SRRset;
+import org.jitsi.dnssec.SecurityStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSKEYRecord;
+import org.xbill.DNS.DNSSEC;
+import org.xbill.DNS.DSRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.RRset;
+
+public class TestDnsSecVerifier {
+    private static final Name ZONE = Name.fromConstantString("example.com.");
+
+    private KeyPair keyPair;
+    private DNSKEYRecord dnskey;
+    private RRset rrset;
+
+    @Before
+    public void setup() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(1024);
+        keyPair = gen.generateKeyPair();
+        dnskey = new DNSKEYRecord(ZONE, DClass.IN, 3600, 257, DNSKEYRecord.Protocol.DNSSEC, DNSSEC.Algorithm.RSASHA256, keyPair.getPublic());
+
+        rrset = new RRset(new ARecord(new Name("www", ZONE), DClass.IN, 3600, InetAddress.getByName("127.0.0.1")));
+        long now = System.currentTimeMillis();
+        rrset.addRR(DNSSEC.sign(rrset, dnskey, keyPair.getPrivate(), new Date(now - 3600000), new Date(now + 3600000)));
+    }
+
+    @Test
+    public void testRepeatedVerificationIsCached() {
+        DnsSecVerifier verifier = new DnsSecVerifier();
+        assertEquals(SecurityStatus.SECURE, verifier.verify(rrset, dnskey));
+        assertEquals(0, verifier.getSigCacheHits());
+        assertEquals(SecurityStatus.SECURE, verifier.verify(rrset, dnskey));
+        assertEquals(1, verifier.getSigCacheHits());
+    }
+
+    @Test
+    public void testCachedSignatureDoesNotVerifyOtherKey() throws Exception {
+        DnsSecVerifier verifier = new DnsSecVerifier();
+        assertEquals(SecurityStatus.SECURE, verifier.verify(rrset, dnskey));
+
+        // the same signature data, but claimed to be made by a different key
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(1024);
+        DNSKEYRecord other = new DNSKEYRecord(ZONE, DClass.IN, 3600, 257, DNSKEYRecord.Protocol.DNSSEC, DNSSEC.Algorithm.RSASHA256, gen.generateKeyPair().getPublic());
+        RRset forged = new RRset(rrset.first());
+        RRSIGRecord sig = (RRSIGRecord)rrset.sigs().next();
+        forged.addRR(new RRSIGRecord(sig.getName(), sig.getDClass(), sig.getTTL(), sig.getTypeCovered(), sig.getAlgorithm(), sig.getOrigTTL(), sig.getExpire(), sig.getTimeSigned(), other.getFootprint(), sig.getSigner(), sig.getSignature()));
+        assertEquals(SecurityStatus.BOGUS, verifier.verify(forged, other));
+        assertEquals(0, verifier.getSigCacheHits());
+    }
+
+    @Test
+    public void testDisabledCache() {
+        Properties config = new Properties();
+        config.put(DnsSecVerifier.SIG_CACHE_SIZE_CONFIG, "0");
+        DnsSecVerifier verifier = new DnsSecVerifier();
+        verifier.init(config);
+        assertEquals(SecurityStatus.SECURE, verifier.verify(rrset, dnskey));
+        assertEquals(SecurityStatus.SECURE, verifier.verify(rrset, dnskey));
+        assertEquals(0, verifier.getSigCacheHits());
+    }
+
+    @Test
+    public void testSignedDataIsReusedUntilModified() throws Exception {
+        SRRset srrset = new SRRset(rrset);
+        RRSIGRecord sig = (RRSIGRecord)srrset.sigs().next();
+        byte[] data = srrset.getSignedData(sig);
+        assertArrayEquals(DNSSEC.digestRRset(sig, rrset), data);
+        assertSame(data, srrset.getSignedData(sig));
+
+        srrset.addRR(new ARecord(new Name("www", ZONE), DClass.IN, 3600, InetAddress.getByName("127.0.0.2")));
+        assertNotSame(data, srrset.getSignedData(sig));
+        assertEquals(SecurityStatus.BOGUS, new DnsSecVerifier().verify(srrset, dnskey));
+    }
+
+    @Test
+    public void testEcdsaSignature() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+        gen.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair kp = gen.generateKeyPair();
+        DNSKEYRecord key = new DNSKEYRecord(ZONE, DClass.IN, 3600, 257, DNSKEYRecord.Protocol.DNSSEC, DNSSEC.Algorithm.ECDSAP256SHA256, kp.getPublic());
+        SRRset set = new SRRset(new RRset(rrset.first()));
+        long now = System.currentTimeMillis();
+        set.addRR(DNSSEC.sign(set, key, kp.getPrivate(), new Date(now - 3600000), new Date(now + 3600000)));
+
+        DnsSecVerifier verifier = new DnsSecVerifier();
+        assertEquals(SecurityStatus.SECURE, verifier.verify(set, key));
+        assertEquals(SecurityStatus.SECURE, verifier.verify(set, new RRset(key)));
+        assertEquals(1, verifier.getSigCacheHits());
+    }
+
+    @Test
+    public void testDsMatchesKey() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(1024);
+        DNSKEYRecord other = new DNSKEYRecord(ZONE, DClass.IN, 3600, 257, DNSKEYRecord.Protocol.DNSSEC, DNSSEC.Algorithm.RSASHA256, gen.generateKeyPair().getPublic());
+        RRset keys = new RRset(dnskey);
+        keys.addRR(other);
+        DNSKEYIndex index = new DNSKEYIndex(keys);
+        DNSKEYIndex.Key key = index.find(dnskey.getAlgorithm(), dnskey.getFootprint())[0];
+        assertSame(dnskey, key.getRecord());
+        assertSame(other, index.find(other.getAlgorithm(), other.getFootprint())[0].getRecord());
+        assertEquals(0, index.find(DNSSEC.Algorithm.RSASHA1, dnskey.getFootprint()).length);
+
+        DnsSecVerifier verifier = new DnsSecVerifier();
+        assertTrue(verifier.matches(new DSRecord(ZONE, DClass.IN, 3600, DSRecord.Digest.SHA1, dnskey), key));
+        assertTrue(verifier.matches(new DSRecord(ZONE, DClass.IN, 3600, DSRecord.Digest.SHA256, dnskey), key));
+        assertTrue(verifier.matches(new DSRecord(ZONE, DClass.IN, 3600, DSRecord.Digest.SHA384, dnskey), key));
+
+        DSRecord ds = new DSRecord(ZONE, DClass.IN, 3600, DSRecord.Digest.SHA256, other);
+        assertFalse(verifier.matches(ds, key));
+        assertFalse(verifier.matches(new DSRecord(ZONE, DClass.IN, 3600, dnskey.getFootprint(), dnskey.getAlgorithm(), DSRecord.Digest.GOST3411, ds.getDigest()), key));
+        assertEquals(SecurityStatus.SECURE, verifier.verify(rrset, index, null));
+    }
+
+    @Test
+    public void testCheapestSignatureIsVerifiedFirst() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+        gen.initialize(new ECGenParameterSpec("secp384r1"));
+        KeyPair kp = gen.generateKeyPair();
+        DNSKEYRecord ecKey = new DNSKEYRecord(ZONE, DClass.IN, 3600, 257, DNSKEYRecord.Protocol.DNSSEC, DNSSEC.Algorithm.ECDSAP384SHA384, kp.getPublic());
+        SRRset set = new SRRset(new RRset(rrset.first()));
+        long now = System.currentTimeMillis();
+        set.addRR(DNSSEC.sign(set, ecKey, kp.getPrivate(), new Date(now - 3600000), new Date(now + 3600000)));
+        set.addRR((RRSIGRecord)rrset.sigs().next());
+        RRset keys = new RRset(ecKey);
+        keys.addRR(dnskey);
+
+        HistogramValidationMetrics metrics = new HistogramValidationMetrics();
+        DnsSecVerifier verifier = new DnsSecVerifier();
+        verifier.setMetrics(metrics);
+        assertEquals(SecurityStatus.SECURE, verifier.verify(set, keys));
+        assertEquals(1, metrics.getVerifications(DNSSEC.Algorithm.RSASHA256, true));
+        assertEquals(0, metrics.getVerifications(DNSSEC.Algorithm.ECDSAP384SHA384, true));
+
+        Properties config = new Properties();
+        config.put(DnsSecVerifier.ALGORITHM_PREFERENCE_CONFIG, "14");
+        config.put(DnsSecVerifier.SIG_CACHE_SIZE_CONFIG, "0");
+        verifier.init(config);
+        assertEquals(SecurityStatus.SECURE, verifier.verify(set, keys));
+        assertEquals(1, metrics.getVerifications(DNSSEC.Algorithm.ECDSAP384SHA384, true));
+    }
+}
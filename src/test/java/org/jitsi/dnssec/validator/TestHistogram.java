@@ -0,0 +1,80 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestHistogram {
+    @Test
+    public void testEmpty() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getSum());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        Histogram h = new Histogram();
+        for (int i = 0; i < 8; i++) {
+            h.record(i);
+        }
+
+        assertEquals(8, h.getCount());
+        assertEquals(28, h.getSum());
+        assertEquals(7, h.getMax());
+        assertEquals(3, h.getValueAtPercentile(50));
+        assertEquals(7, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBucketBoundsAreContiguous() {
+        assertEquals(0, Histogram.getUpperBound(0));
+        assertEquals(8, Histogram.getUpperBound(8));
+        assertEquals(17, Histogram.getUpperBound(16));
+        long[] counts = new Histogram().getCounts();
+        for (int i = 1; i < counts.length; i++) {
+            assertTrue(Histogram.getUpperBound(i) > Histogram.getUpperBound(i - 1));
+        }
+
+        assertEquals(Long.MAX_VALUE, Histogram.getUpperBound(counts.length - 1));
+    }
+
+    @Test
+    public void testRelativeError() {
+        for (long v = 1; v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+            Histogram h = new Histogram();
+            h.record(v);
+            h.record(Long.MAX_VALUE);
+            long p = h.getValueAtPercentile(50);
+            assertTrue(v + " <= " + p, p >= v);
+            assertTrue(v + " ~ " + p, p - v <= v / 8);
+        }
+    }
+
+    @Test
+    public void testPercentilesAndMax() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+
+        h.record(-5);
+        assertEquals(1001, h.getCount());
+        assertEquals(1000000, h.getMax());
+        long p50 = h.getValueAtPercentile(50);
+        assertTrue(Long.toString(p50), p50 >= 500000 && p50 <= 500000 * 9 / 8);
+        assertEquals(1000000, h.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Type;
+
+public class TestInFlightKeyRequests {
+    private static final Name NAME = Name.fromConstantString("example.com.");
+
+    private Message query(int type) {
+        return Message.newQuery(Record.newRecord(NAME, type, DClass.IN));
+    }
+
+    @Test
+    public void testIdenticalRequestsAreCoalesced() throws InterruptedException {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        assertNull(requests.join(query(Type.DNSKEY)));
+        final InFlightKeyRequests.Flight flight = requests.join(query(Type.DNSKEY));
+        assertNotNull(flight);
+
+        final AtomicReference<KeyEntry> received = new AtomicReference<KeyEntry>();
+        flight.onComplete(new Runnable() {
+            public void run() {
+                received.set(flight.getKeyEntry());
+            }
+        });
+
+        KeyEntry ke = KeyEntry.newNullKeyEntry(NAME, DClass.IN, 60);
+        requests.complete(query(Type.DNSKEY), ke);
+        assertTrue(flight.await(1000));
+        assertFalse(flight.isFailed());
+        assertSame(ke, flight.getKeyEntry());
+        assertSame(ke, received.get());
+        assertEquals(1, requests.getSentCount());
+        assertEquals(1, requests.getCoalescedCount());
+    }
+
+    @Test
+    public void testDifferentTypesAreNotCoalesced() {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        assertNull(requests.join(query(Type.DS)));
+        assertNull(requests.join(query(Type.DNSKEY)));
+        assertEquals(2, requests.getSentCount());
+        assertEquals(0, requests.getCoalescedCount());
+    }
+
+    @Test
+    public void testCompletedRequestIsSentAgain() {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        assertNull(requests.join(query(Type.DS)));
+        requests.complete(query(Type.DS), null);
+        assertNull(requests.join(query(Type.DS)));
+        assertEquals(2, requests.getSentCount());
+    }
+
+    @Test
+    public void testFailedRequestReleasesWaiters() throws InterruptedException {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        assertNull(requests.join(query(Type.DS)));
+        InFlightKeyRequests.Flight flight = requests.join(query(Type.DS));
+        requests.fail(query(Type.DS));
+        assertTrue(flight.await(1000));
+        assertTrue(flight.isFailed());
+        assertNull(requests.join(query(Type.DS)));
+    }
+
+    @Test
+    public void testAwaitIsBoundedByTimeout() throws InterruptedException {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        assertNull(requests.join(query(Type.DS)));
+        InFlightKeyRequests.Flight flight = requests.join(query(Type.DS));
+        assertFalse(flight.await(10));
+        assertFalse(flight.isFailed());
+    }
+
+    @Test
+    public void testIdenticalPrefetchesAreShared() {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        ChainPrefetch.Entry first = new ChainPrefetch.Entry(requests, query(Type.DS));
+        assertSame(first, requests.prefetch(first));
+        assertSame(first, requests.prefetch(new ChainPrefetch.Entry(requests, query(Type.DS))));
+
+        // once answered, the query is prefetched again
+        first.receiveMessage(null, query(Type.DS));
+        ChainPrefetch.Entry second = new ChainPrefetch.Entry(requests, query(Type.DS));
+        assertSame(second, requests.prefetch(second));
+    }
+
+    @Test
+    public void testRequestInFlightIsNotPrefetched() {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        assertNull(requests.join(query(Type.DS)));
+        assertNull(requests.prefetch(new ChainPrefetch.Entry(requests, query(Type.DS))));
+    }
+
+    @Test
+    public void testSecondFailIsIgnored() {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        assertNull(requests.join(query(Type.DS)));
+        requests.fail(query(Type.DS));
+        requests.fail(query(Type.DS));
+        requests.complete(query(Type.DS), null);
+    }
+
+    @Test
+    public void testExpiredRequestReleasesWaiters() throws InterruptedException {
+        InFlightKeyRequests requests = new InFlightKeyRequests();
+        assertNull(requests.join(query(Type.DS)));
+        InFlightKeyRequests.Flight flight = requests.join(query(Type.DS));
+        requests.expire(query(Type.DS), flight);
+        assertTrue(flight.await(1000));
+        assertTrue(flight.isFailed());
+
+        // a new flight is not expired by the deadline of the old one
+        assertNull(requests.join(query(Type.DS)));
+        InFlightKeyRequests.Flight second = requests.join(query(Type.DS));
+        requests.expire(query(Type.DS), flight);
+        assertFalse(second.await(10));
+    }
+}
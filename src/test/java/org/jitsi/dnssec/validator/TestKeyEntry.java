@@ -0,0 +1,41 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.security.KeyPairGenerator;
+
+import org.jitsi.dnssec.SRRset;
+import org.junit.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSKEYRecord;
+import org.xbill.DNS.DNSSEC;
+import org.xbill.DNS.Name;
+
+public class TestKeyEntry {
+    private static final Name ZONE = Name.fromConstantString("example.com.");
+
+    @Test
+    public void testKeySizesAreDecodedOnce() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+        gen.initialize(1024);
+        SRRset keys = new SRRset();
+        keys.addRR(new DNSKEYRecord(ZONE, DClass.IN, 3600, 257, DNSKEYRecord.Protocol.DNSSEC, DNSSEC.Algorithm.RSASHA256, gen.generateKeyPair().getPublic()));
+        keys.addRR(new DNSKEYRecord(ZONE, DClass.IN, 3600, 256, DNSKEYRecord.Protocol.DNSSEC, DNSSEC.Algorithm.RSAMD5, new byte[] { 1, 2, 3 }));
+
+        KeyEntry ke = KeyEntry.newKeyEntry(keys);
+        int[] sizes = ke.getKeySizes();
+        assertArrayEquals(new int[] { 1024, -1 }, sizes);
+        assertSame(sizes, ke.getKeySizes());
+        assertEquals(0, KeyEntry.newNullKeyEntry(ZONE, DClass.IN, 3600).getKeySizes().length);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+
+import org.junit.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.NSEC3Record;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+public class TestNSEC3HashCache {
+    private static final Name ZONE = Name.fromConstantString("example.");
+
+    private final NSEC3Record nsec3 = new NSEC3Record(new Name("0p9mhaveqvm6t7vbl5lop2u3t2rp3tom", ZONE), DClass.IN, 300,
+            NSEC3Record.SHA1_DIGEST_ID, 0, 10, new byte[] { (byte)0xab }, new byte[20], new int[] { Type.A });
+
+    public TestNSEC3HashCache() throws TextParseException {
+    }
+
+    private NSEC3HashCache cache(int size) {
+        Properties config = new Properties();
+        config.put(NSEC3HashCache.MAX_SIZE_CONFIG, Integer.toString(size));
+        NSEC3HashCache cache = new NSEC3HashCache();
+        cache.init(config);
+        return cache;
+    }
+
+    @Test
+    public void testRecentlyReadHashSurvivesFlood() throws TextParseException {
+        NSEC3HashCache cache = this.cache(10);
+        NSEC3HashCache.Key apex = new NSEC3HashCache.Key(this.nsec3, ZONE);
+        byte[] apexHash = new byte[20];
+        cache.put(apex, apexHash);
+
+        // a flood of one-off names, with the apex needed by every proof
+        for (int i = 0; i < 100; i++) {
+            cache.put(new NSEC3HashCache.Key(this.nsec3, new Name("random" + i, ZONE)), new byte[20]);
+            assertSame(apexHash, cache.get(apex));
+        }
+
+        assertNull(cache.get(new NSEC3HashCache.Key(this.nsec3, new Name("random0", ZONE))));
+    }
+
+    @Test
+    public void testDisabledCacheStoresNothing() throws TextParseException {
+        NSEC3HashCache cache = this.cache(0);
+        NSEC3HashCache.Key apex = new NSEC3HashCache.Key(this.nsec3, ZONE);
+        cache.put(apex, new byte[20]);
+        assertNull(cache.get(apex));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jitsi.dnssec.SRRset;
+import org.junit.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.NSEC3Record;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.utils.base32;
+
+public class TestNSEC3Index {
+    private static final Name ZONE = Name.fromConstantString("example.");
+    private static final byte[] SALT = { (byte)0xab, (byte)0xcd };
+
+    private final List<SRRset> nsec3s = new ArrayList<SRRset>();
+
+    private static byte[] hash(int b) {
+        byte[] h = new byte[20];
+        h[0] = (byte)b;
+        return h;
+    }
+
+    private NSEC3Record add(Name zone, byte[] salt, int owner, int next) throws TextParseException {
+        String label = new base32(base32.Alphabet.BASE32HEX, false, false).toString(hash(owner));
+        NSEC3Record r = new NSEC3Record(new Name(label, zone), DClass.IN, 300, NSEC3Record.SHA1_DIGEST_ID, 0, 10, salt,
+                hash(next), new int[] { Type.A });
+        this.nsec3s.add(new SRRset(new RRset(r)));
+        return r;
+    }
+
+    @Test
+    public void testMatchAndCover() throws TextParseException {
+        // added out of order, the index sorts them
+        NSEC3Record r30 = this.add(ZONE, SALT, 0x30, 0xf0);
+        NSEC3Record r10 = this.add(ZONE, SALT, 0x10, 0x30);
+        NSEC3Record rf0 = this.add(ZONE, SALT, 0xf0, 0x10);
+        NSEC3Index index = new NSEC3Index(this.nsec3s, null);
+        assertEquals(1, index.getGroups().size());
+        NSEC3Index.Group g = index.getGroups().get(0);
+        assertEquals(ZONE, g.getZone());
+
+        assertSame(r10, g.findMatching(hash(0x10)));
+        assertSame(r30, g.findMatching(hash(0x30)));
+        assertSame(rf0, g.findMatching(hash(0xf0)));
+        assertNull(g.findMatching(hash(0x20)));
+
+        assertSame(r10, g.findCovering(hash(0x20)));
+        assertSame(r30, g.findCovering(hash(0x80)));
+        // after the last and before the first owner: the wrap-around record
+        assertSame(rf0, g.findCovering(hash(0xf8)));
+        assertSame(rf0, g.findCovering(hash(0x01)));
+        // existing hashes are not covered
+        assertNull(g.findCovering(hash(0x10)));
+        assertNull(g.findCovering(hash(0x30)));
+        assertNull(g.findCovering(hash(0xf0)));
+    }
+
+    @Test
+    public void testGapIsNotCovered() throws TextParseException {
+        this.add(ZONE, SALT, 0x10, 0x20);
+        this.add(ZONE, SALT, 0x80, 0x90);
+        NSEC3Index.Group g = new NSEC3Index(this.nsec3s, null).getGroups().get(0);
+        assertNull(g.findCovering(hash(0x40)));
+        assertNull(g.findCovering(hash(0x01)));
+        assertNull(g.findCovering(hash(0xa0)));
+    }
+
+    @Test
+    public void testGroupsByZoneAndParameters() throws TextParseException {
+        NSEC3Record a = this.add(ZONE, SALT, 0x10, 0x20);
+        NSEC3Record b = this.add(ZONE, new byte[] { 1 }, 0x10, 0x20);
+        NSEC3Record c = this.add(Name.fromConstantString("sub.example."), SALT, 0x10, 0x20);
+        this.add(ZONE, SALT, 0x30, 0x40);
+        NSEC3Index index = new NSEC3Index(this.nsec3s, null);
+        assertEquals(3, index.getGroups().size());
+        assertSame(a, index.getGroups().get(0).findMatching(hash(0x10)));
+        assertSame(b, index.getGroups().get(1).findMatching(hash(0x10)));
+        assertSame(c, index.getGroups().get(2).findMatching(hash(0x10)));
+        assertEquals(Name.fromConstantString("sub.example."), index.getGroups().get(2).getZone());
+    }
+
+    @Test
+    public void testInvalidOwnerIsIgnored() throws TextParseException {
+        NSEC3Record r = new NSEC3Record(Name.fromConstantString("www.example."), DClass.IN, 300,
+                NSEC3Record.SHA1_DIGEST_ID, 0, 10, SALT, hash(0x20), new int[] { Type.A });
+        this.nsec3s.add(new SRRset(new RRset(r)));
+        assertEquals(0, new NSEC3Index(this.nsec3s, null).getGroups().size());
+    }
+}
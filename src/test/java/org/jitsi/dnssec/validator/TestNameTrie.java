@@ -0,0 +1,96 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+
+public class TestNameTrie {
+    private static final NameTrie.Filter<String> ALL = new NameTrie.Filter<String>() {
+        public boolean accept(String value) {
+            return true;
+        }
+    };
+
+    private static Name name(String n) {
+        return Name.fromConstantString(n);
+    }
+
+    @Test
+    public void testClosestEncloser() {
+        NameTrie<String> trie = new NameTrie<String>();
+        trie.put(name("."), DClass.IN, "root");
+        trie.put(name("com."), DClass.IN, "com");
+        trie.put(name("example.com."), DClass.IN, "example");
+        trie.put(name("a.b.example.com."), DClass.IN, "a.b");
+
+        assertEquals("example", trie.find(name("www.example.com."), DClass.IN, ALL));
+        assertEquals("example", trie.find(name("b.example.com."), DClass.IN, ALL));
+        assertEquals("a.b", trie.find(name("x.a.b.example.com."), DClass.IN, ALL));
+        assertEquals("com", trie.find(name("example2.com."), DClass.IN, ALL));
+        assertEquals("root", trie.find(name("example.org."), DClass.IN, ALL));
+        assertEquals("root", trie.find(name("."), DClass.IN, ALL));
+        assertNull(trie.find(name("example.com."), DClass.CH, ALL));
+    }
+
+    @Test
+    public void testCaseInsensitive() {
+        NameTrie<String> trie = new NameTrie<String>();
+        trie.put(name("Example.COM."), DClass.IN, "example");
+        assertEquals("example", trie.find(name("www.example.com."), DClass.IN, ALL));
+    }
+
+    @Test
+    public void testFilterSkipsToParent() {
+        NameTrie<String> trie = new NameTrie<String>();
+        trie.put(name("com."), DClass.IN, "com");
+        trie.put(name("example.com."), DClass.IN, "example");
+        String found = trie.find(name("www.example.com."), DClass.IN, new NameTrie.Filter<String>() {
+            public boolean accept(String value) {
+                return !"example".equals(value);
+            }
+        });
+        assertEquals("com", found);
+    }
+
+    @Test
+    public void testRemoveOnlyExpectedValue() {
+        NameTrie<String> trie = new NameTrie<String>();
+        trie.put(name("com."), DClass.IN, "com");
+        trie.put(name("a.example.com."), DClass.IN, "a");
+        assertFalse(trie.remove(name("a.example.com."), DClass.IN, "other"));
+        assertTrue(trie.remove(name("a.example.com."), DClass.IN, "a"));
+        assertFalse(trie.remove(name("a.example.com."), DClass.IN, "a"));
+        assertEquals("com", trie.find(name("a.example.com."), DClass.IN, ALL));
+    }
+
+    @Test
+    public void testManySiblings() {
+        NameTrie<String> trie = new NameTrie<String>();
+        String[] values = new String[500];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = "zone" + i;
+            trie.put(name(values[i] + ".test."), DClass.IN, values[i]);
+        }
+
+        for (int i = 0; i < values.length; i += 2) {
+            assertTrue(trie.remove(name(values[i] + ".test."), DClass.IN, values[i]));
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            String expected = i % 2 == 0 ? null : values[i];
+            assertEquals(expected, trie.find(name("www.zone" + i + ".test."), DClass.IN, ALL));
+        }
+    }
+}
@@ -183,4 +183,38 @@ public class TestNsec3ValUtils extends TestBase {
         assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
         assertEquals(Rcode.NOERROR, response.getRcode());
     }
+
+    @Test
+    public void testNsec3HashesAreCached() throws IOException {
+        HistogramValidationMetrics metrics = new HistogramValidationMetrics();
+        resolver.setMetrics(metrics);
+
+        Message response = resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        long hashes = metrics.getNsec3Hashes();
+        assertTrue(hashes > 0);
+
+        response = resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(hashes, metrics.getNsec3Hashes());
+    }
+
+    @Test
+    public void testNsec3HashesAreComputedOncePerProof() throws IOException {
+        Properties config = new Properties();
+        config.put(NSEC3HashCache.MAX_SIZE_CONFIG, "0");
+        resolver.init(config);
+        HistogramValidationMetrics metrics = new HistogramValidationMetrics();
+        resolver.setMetrics(metrics);
+
+        // the qname (also the next closer name), the closest encloser and
+        // its wildcard, although the response contains several NSEC3s
+        Message response = resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(3, metrics.getNsec3Hashes());
+
+        response = resolver.send(createMessage("gibtsnicht.nsec3.ingotronic.ch./A"));
+        assertTrue("AD flag must be set", response.getHeader().getFlag(Flags.AD));
+        assertEquals(6, metrics.getNsec3Hashes());
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.jitsi.dnssec.SRRset;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSKEYRecord;
+import org.xbill.DNS.DNSSEC.Algorithm;
+import org.xbill.DNS.DSRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.RRSIGRecord;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+public class TestSnapshotKeyVerifier {
+    private static final Name ZONE = Name.fromConstantString("ingotronic.ch.");
+
+    private KeyCache keyCache;
+    private SnapshotKeyVerifier verifier;
+
+    @Before
+    public void setUp() throws TextParseException {
+        TrustAnchorStore trustAnchors = new TrustAnchorStore();
+        trustAnchors.store(new SRRset(new RRset(new DSRecord(Name.root, DClass.IN, 60, 1, Algorithm.RSASHA256,
+                DSRecord.Digest.SHA256, new byte[32]))));
+        this.keyCache = new KeyCache();
+        this.verifier = new SnapshotKeyVerifier(trustAnchors, new ValUtils(), this.keyCache);
+    }
+
+    private SRRset keySet() {
+        return new SRRset(new RRset(new DNSKEYRecord(ZONE, DClass.IN, 60, 256, 3, Algorithm.RSASHA256, new byte[]{0})));
+    }
+
+    private SRRset dsSet(Name signer) {
+        SRRset ds = new SRRset(new RRset(new DSRecord(ZONE, DClass.IN, 60, 1, Algorithm.RSASHA256,
+                DSRecord.Digest.SHA256, new byte[32])));
+        ds.addRR(new RRSIGRecord(ZONE, DClass.IN, 60, Type.DS, Algorithm.RSASHA256, 60, new Date(), new Date(), 1,
+                signer, new byte[]{0}));
+        return ds;
+    }
+
+    @Test
+    public void testKeysWithoutDSAreRejected() {
+        assertFalse(this.verifier.verify(KeyEntry.newKeyEntry(this.keySet())));
+    }
+
+    @Test
+    public void testKeysWithDSSignedByThemselvesAreRejected() {
+        assertFalse(this.verifier.verify(KeyEntry.newKeyEntry(this.keySet(), null, this.dsSet(ZONE))));
+    }
+
+    @Test
+    public void testKeysWithoutCachedParentAreRejected() throws TextParseException {
+        KeyEntry ke = KeyEntry.newKeyEntry(this.keySet(), null, this.dsSet(Name.fromString("ch.")));
+        assertFalse(this.verifier.verify(ke));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * dnssecjava - a DNSSEC validating stub resolver for Java
+ * Copyright (c) 2013-2015 Ingo Bauersachs
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.jitsi.dnssec.validator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTimerWheel {
+    private static final long START = 123456789L;
+    private static final long SECOND = TimerWheel.TICK_NANOS;
+
+    private List<Item> expired;
+    private TimerWheel<Item> wheel;
+
+    private static class Item implements TimerWheel.Timeout {
+        private final long deadline;
+        private int slot;
+
+        Item(long deadline) {
+            this.deadline = deadline;
+        }
+
+        public long getDeadline() {
+            return this.deadline;
+        }
+
+        public int getSlot() {
+            return this.slot;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        this.expired = new ArrayList<Item>();
+        this.wheel = new TimerWheel<Item>(new TimerWheel.Listener<Item>() {
+            public void expired(Item item) {
+                TestTimerWheel.this.expired.add(item);
+            }
+        }, START);
+    }
+
+    @Test
+    public void testExpiresAfterDeadline() {
+        Item a = new Item(START + 2 * SECOND);
+        Item b = new Item(START + 5 * SECOND);
+        this.wheel.schedule(a);
+        this.wheel.schedule(b);
+
+        this.wheel.advance(START + SECOND);
+        assertTrue(this.expired.isEmpty());
+        this.wheel.advance(START + 3 * SECOND);
+        assertEquals(Arrays.asList(a), this.expired);
+        this.wheel.advance(START + 10 * SECOND);
+        assertEquals(Arrays.asList(a, b), this.expired);
+    }
+
+    @Test
+    public void testCancelledItemDoesNotExpire() {
+        Item a = new Item(START + 2 * SECOND);
+        this.wheel.schedule(a);
+        this.wheel.cancel(a);
+        this.wheel.advance(START + 3 * SECOND);
+        assertTrue(this.expired.isEmpty());
+    }
+
+    @Test
+    public void testDeadlineBeyondOneRevolution() {
+        Item a = new Item(START + 1000 * SECOND);
+        this.wheel.schedule(a);
+        for (int i = 1; i < 1000; i++) {
+            this.wheel.advance(START + i * SECOND);
+        }
+
+        assertTrue(this.expired.isEmpty());
+        this.wheel.advance(START + 1000 * SECOND);
+        assertEquals(Arrays.asList(a), this.expired);
+    }
+
+    @Test
+    public void testDeadlineInProcessedTickIsNotLost() {
+        this.wheel.advance(START + 5 * SECOND);
+        Item a = new Item(START + 4 * SECOND);
+        this.wheel.schedule(a);
+        this.wheel.advance(START + 6 * SECOND);
+        assertEquals(Arrays.asList(a), this.expired);
+    }
+
+    @Test
+    public void testDeadlineLaterInCurrentTickIsNotDeferred() {
+        Item a = new Item(START + 3 * SECOND + SECOND / 2);
+        this.wheel.schedule(a);
+        this.wheel.advance(START + 3 * SECOND + SECOND / 4);
+        assertTrue(this.expired.isEmpty());
+        this.wheel.advance(START + 4 * SECOND);
+        assertEquals(Arrays.asList(a), this.expired);
+    }
+}